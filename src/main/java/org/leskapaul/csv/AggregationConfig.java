@@ -0,0 +1,78 @@
+package org.leskapaul.csv;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An aggregation written as a trailer row at the end of every category, e.g. the sum of the "Amount" column
+ * labelled "Groceries Total". The trailer row holds the label (category name followed by {@link #getName()}) in the
+ * label column and the aggregated value in the aggregated column.
+ */
+public class AggregationConfig {
+
+    public enum Function {
+        /** sum of the amounts in the column */
+        SUM,
+        /** number of rows, or of rows with a non-empty value if a column is given */
+        COUNT,
+        /** smallest amount in the column */
+        MIN,
+        /** largest amount in the column */
+        MAX
+    }
+
+    private String name;
+    private Function function;
+    private String columnName;
+    private String labelColumnName;
+
+    public static AggregationConfig extractAggregationConfig(Map configAsMap) {
+        String name = (String) configAsMap.get("name");
+        String function = (String) configAsMap.get("function");
+        if (name == null || function == null) {
+            return null;
+        }
+        return new AggregationConfig(name, Function.valueOf(function.toUpperCase(Locale.ROOT)),
+                (String) configAsMap.get("columnName"), (String) configAsMap.get("labelColumnName"));
+    }
+
+    /**
+     * @param columnName      the aggregated column; required except for {@link Function#COUNT}
+     * @param labelColumnName the column holding the label, or null for the first column other than the aggregated one
+     */
+    public AggregationConfig(String name, Function function, String columnName, String labelColumnName) {
+        if (function != Function.COUNT && columnName == null) {
+            throw new IllegalStateException("aggregation " + name + " requires a columnName for " + function);
+        }
+        this.name = name;
+        this.function = function;
+        this.columnName = columnName;
+        this.labelColumnName = labelColumnName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    public String getLabelColumnName() {
+        return labelColumnName;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregationConfig{" +
+                "name='" + name + '\'' +
+                ", function=" + function +
+                ", columnName='" + columnName + '\'' +
+                ", labelColumnName='" + labelColumnName + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,82 @@
+package org.leskapaul.csv;
+
+import java.math.BigDecimal;
+
+/**
+ * Parses currency amounts as they appear in bank exports, e.g. "-$69.95", "21,785.72" or "(12.00)", into longs
+ * scaled by 10^{@value #SCALE}, so they can be compared and summed without floating point errors.
+ */
+public final class AmountParser {
+
+    public static final long NOT_AN_AMOUNT = Long.MIN_VALUE;
+
+    /**
+     * Fraction digits kept; values with more fraction digits are not amounts.
+     */
+    public static final int SCALE = 4;
+
+    private static final int MAX_DIGITS = 14;
+
+    private AmountParser() {
+    }
+
+    /**
+     * @return the amount scaled by 10^{@value #SCALE}, or {@link #NOT_AN_AMOUNT} if the value is not an
+     * amount; accepts e.g. "-1,234.50", "$12", "+0.3" and "(12.00)"
+     */
+    public static long parse(String value) {
+        int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 2 && value.charAt(0) == '(' && value.charAt(length - 1) == ')') {
+            negative = true;
+            i++;
+            length--;
+        }
+        boolean signed = false;
+        if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            negative |= value.charAt(i++) == '-';
+            signed = true;
+        }
+        if (i < length && value.charAt(i) == '$') {
+            i++;
+            if (!signed && i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                negative |= value.charAt(i++) == '-';
+            }
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_DIGITS || fractionDigits >= SCALE) {
+                    return NOT_AN_AMOUNT;
+                }
+                unscaled = unscaled * 10 + (c - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c != ',' || fractionDigits >= 0 || digits == 0) {
+                return NOT_AN_AMOUNT;
+            }
+        }
+        if (digits == 0) {
+            return NOT_AN_AMOUNT;
+        }
+        for (int scale = Math.max(0, fractionDigits); scale < SCALE; scale++) {
+            unscaled *= 10;
+        }
+        return negative ? -unscaled : unscaled;
+    }
+
+    /**
+     * @return the scaled amount as a plain decimal with at least two fraction digits, e.g. "-1234.50"
+     */
+    public static String format(long scaledAmount) {
+        BigDecimal amount = BigDecimal.valueOf(scaledAmount, SCALE).stripTrailingZeros();
+        return amount.setScale(Math.max(2, amount.scale())).toPlainString();
+    }
+}
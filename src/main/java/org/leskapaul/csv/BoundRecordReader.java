@@ -0,0 +1,77 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads the records of a csv input one at a time, but only the cells at given record indexes, usually those bound to
+ * a normalized column by a {@link HeaderBinding}. Cells are trimmed and written to the slot of their record index;
+ * slots of cells missing from a record are set to null.
+ */
+public abstract class BoundRecordReader implements Closeable {
+
+    /**
+     * @param cells one slot per record index read, overwritten with the cells of the next record
+     * @return false once there are no more records
+     */
+    public abstract boolean next(String[] cells) throws IOException;
+
+    /**
+     * @return the number of the record last read, for logging
+     */
+    public abstract long getRecordNumber();
+
+    /**
+     * @param recordIndexes the record indexes of the cells to read, e.g. {@link HeaderBinding#getRecordIndexes()}
+     * @return a reader of the records of the parser, which it closes when closed
+     */
+    public static BoundRecordReader of(CSVParser csvParser, int[] recordIndexes) {
+        return new ParserRecordReader(csvParser, recordIndexes);
+    }
+
+    private static class ParserRecordReader extends BoundRecordReader {
+        private final CSVParser csvParser;
+        private final int[] recordIndexes;
+        private final Iterator<CSVRecord> csvRecords;
+        private long recordNumber;
+
+        private ParserRecordReader(CSVParser csvParser, int[] recordIndexes) {
+            this.csvParser = csvParser;
+            this.recordIndexes = recordIndexes;
+            this.csvRecords = csvParser.iterator();
+        }
+
+        @Override
+        public boolean next(String[] cells) {
+            if (!csvRecords.hasNext()) {
+                return false;
+            }
+            CSVRecord csvRecord = csvRecords.next();
+            recordNumber = csvRecord.getRecordNumber();
+            for (int slot = 0; slot < recordIndexes.length; slot++) {
+                int recordIndex = recordIndexes[slot];
+                if (recordIndex >= csvRecord.size()) {
+                    cells[slot] = null;
+                } else {
+                    String rawCellValue = csvRecord.get(recordIndex);
+                    cells[slot] = rawCellValue == null ? "" : rawCellValue.trim();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public long getRecordNumber() {
+            return recordNumber;
+        }
+
+        @Override
+        public void close() throws IOException {
+            csvParser.close();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Reads csv records straight from the UTF-8 bytes of a (usually memory-mapped) buffer, without a {@code Reader},
+ * {@code CSVRecord} or a {@code String} per cell: only the cells bound to a normalized column are decoded, and they
+ * are trimmed on the bytes before decoding. Cells of other columns (e.g. "Running Bal.") are only scanned over.
+ *
+ * Records are split the way the commons-csv lexer splits them: a quote only opens a quoted field at the very start
+ * of a field, a doubled quote inside a quoted field is an escaped quote, CR, LF and CR LF all end a record, and
+ * empty lines are skipped. Constructs the tokenizer does not handle - a quoted field that is not closed, or that is
+ * followed by anything but a delimiter or the end of the record - hand the rest of the buffer, from the start of the
+ * record, to a commons-csv parser, so the result (or the error) is always the same as with commons-csv.
+ */
+public class ByteCsvTokenizer extends BoundRecordReader {
+
+    private static final Logger LOG = LogManager.getLogger(ByteCsvTokenizer.class.getSimpleName());
+
+    private static final int RECORD = 0;
+    private static final int END = 1;
+    private static final int UNSUPPORTED = 2;
+
+    private final String name;
+    private final ByteBuffer buffer;
+    private final CSVFormat csvFormat;
+    private final int[] recordIndexes;
+    private final byte delimiter;
+    private final int quote;
+    private final int[] slotOfField;
+    private byte[] scratch = new byte[256];
+    private int position;
+    private long recordNumber;
+    private BoundRecordReader fallback;
+
+    /**
+     * @param name          the input, for logging
+     * @param buffer        the records, from the buffer's position to its limit; the header must not be part of them
+     * @param csvFormat     a format the tokenizer {@link #supports(CSVFormat) supports}
+     * @param recordIndexes the record indexes of the cells to decode, e.g. {@link HeaderBinding#getRecordIndexes()}
+     */
+    public ByteCsvTokenizer(String name, ByteBuffer buffer, CSVFormat csvFormat, int[] recordIndexes) {
+        this.name = name;
+        this.buffer = buffer.slice();
+        this.csvFormat = csvFormat;
+        this.recordIndexes = recordIndexes;
+        this.delimiter = (byte) csvFormat.getDelimiterString().charAt(0);
+        this.quote = csvFormat.getQuoteCharacter() == null ? -1 : csvFormat.getQuoteCharacter();
+        this.slotOfField = new int[Arrays.stream(recordIndexes).max().orElse(-1) + 1];
+        Arrays.fill(slotOfField, -1);
+        for (int slot = 0; slot < recordIndexes.length; slot++) {
+            slotOfField[recordIndexes[slot]] = slot;
+        }
+    }
+
+    /**
+     * @return whether files of the format can be tokenized: a single ASCII delimiter, a printable ASCII quote or none,
+     * no escape character, comment marker, null string or trailing delimiter, empty lines ignored, and the header
+     * read from the first record
+     */
+    public static boolean supports(CSVFormat csvFormat) {
+        String delimiter = csvFormat.getDelimiterString();
+        Character quote = csvFormat.getQuoteCharacter();
+        return delimiter.length() == 1 && isPlainAscii(delimiter.charAt(0))
+                && (quote == null || isPlainAscii(quote) && quote > ' ' && quote != delimiter.charAt(0))
+                && csvFormat.getEscapeCharacter() == null
+                && csvFormat.getCommentMarker() == null
+                && csvFormat.getNullString() == null
+                && !csvFormat.getIgnoreSurroundingSpaces()
+                && !csvFormat.getTrailingDelimiter()
+                && csvFormat.getIgnoreEmptyLines()
+                && csvFormat.getHeader() != null && csvFormat.getHeader().length == 0;
+    }
+
+    private static boolean isPlainAscii(char c) {
+        return c < 0x80 && c != '\r' && c != '\n';
+    }
+
+    /**
+     * @return the whole file mapped into memory; the mapping stays valid after the file is closed
+     */
+    public static ByteBuffer map(Path csvFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Parses the header record at the buffer's position with commons-csv and moves the position past it.
+     *
+     * @return the header map, as returned by {@code CSVParser.getHeaderMap()}, or null if the end of the header could
+     * not be found, in which case the position is unchanged
+     */
+    public static Map<String, Integer> readHeader(ByteBuffer buffer, CSVFormat csvFormat) throws IOException {
+        ByteCsvTokenizer headerTokenizer = new ByteCsvTokenizer(null, buffer, csvFormat, new int[0]);
+        if (headerTokenizer.scanRecord(null) == UNSUPPORTED) {
+            return null;
+        }
+        int headerStart = buffer.position();
+        try (CSVParser headerParser = parse(buffer.slice(headerStart, headerTokenizer.position), csvFormat)) {
+            buffer.position(headerStart + headerTokenizer.position);
+            return headerParser.getHeaderMap();
+        }
+    }
+
+    private static CSVParser parse(ByteBuffer buffer, CSVFormat csvFormat) throws IOException {
+        return CSVParser.parse(new InputStreamReader(new CsvFileSplitter.ByteBufferInputStream(buffer),
+                StandardCharsets.UTF_8), csvFormat);
+    }
+
+    @Override
+    public boolean next(String[] cells) throws IOException {
+        if (fallback != null) {
+            return fallback.next(cells);
+        }
+        int status = scanRecord(cells);
+        if (status == UNSUPPORTED) {
+            LOG.info("{} has a record at byte {} the byte tokenizer does not handle, parsing the rest with commons-csv",
+                    name, position);
+            CSVFormat recordFormat = csvFormat.builder().setHeader((String[]) null).setSkipHeaderRecord(false)
+                    .build();
+            fallback = BoundRecordReader.of(parse(buffer.slice(position, buffer.limit() - position), recordFormat),
+                    recordIndexes);
+            return fallback.next(cells);
+        }
+        if (status == END) {
+            return false;
+        }
+        recordNumber++;
+        return true;
+    }
+
+    /**
+     * @return whether a record made the tokenizer hand the rest of its input to commons-csv
+     */
+    public boolean hasFallenBack() {
+        return fallback != null;
+    }
+
+    @Override
+    public long getRecordNumber() {
+        return fallback == null ? recordNumber : recordNumber + fallback.getRecordNumber();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fallback != null) {
+            fallback.close();
+        }
+    }
+
+    /**
+     * Scans the record at the current position, skipping empty lines before it, and decodes its bound cells. The
+     * position only moves past the record if it was scanned completely.
+     */
+    private int scanRecord(String[] cells) {
+        int limit = buffer.limit();
+        int i = position;
+        while (i < limit && isLineBreak(buffer.get(i))) {
+            i++;
+        }
+        if (i == limit) {
+            position = limit;
+            return END;
+        }
+        if (cells != null) {
+            Arrays.fill(cells, null);
+        }
+        for (int field = 0; ; field++) {
+            int slot = field < slotOfField.length ? slotOfField[field] : -1;
+            int fieldEnd;
+            if (quote >= 0 && i < limit && buffer.get(i) == quote) {
+                int contentEnd = i + 1;
+                boolean escapedQuotes = false;
+                while (true) {
+                    if (contentEnd == limit) {
+                        return UNSUPPORTED;
+                    }
+                    if (buffer.get(contentEnd) == quote) {
+                        if (contentEnd + 1 < limit && buffer.get(contentEnd + 1) == quote) {
+                            escapedQuotes = true;
+                            contentEnd += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    contentEnd++;
+                }
+                fieldEnd = contentEnd + 1;
+                if (fieldEnd < limit && !isFieldEnd(buffer.get(fieldEnd))) {
+                    return UNSUPPORTED;
+                }
+                if (slot >= 0) {
+                    cells[slot] = decode(i + 1, contentEnd, escapedQuotes);
+                }
+            } else {
+                fieldEnd = i;
+                while (fieldEnd < limit && !isFieldEnd(buffer.get(fieldEnd))) {
+                    fieldEnd++;
+                }
+                if (slot >= 0) {
+                    cells[slot] = decode(i, fieldEnd, false);
+                }
+            }
+            if (fieldEnd == limit) {
+                position = limit;
+                return RECORD;
+            }
+            byte terminator = buffer.get(fieldEnd);
+            if (terminator != delimiter) {
+                // CR LF ends the record as a single line break
+                position = terminator == '\r' && fieldEnd + 1 < limit && buffer.get(fieldEnd + 1) == '\n'
+                        ? fieldEnd + 2 : fieldEnd + 1;
+                return RECORD;
+            }
+            i = fieldEnd + 1;
+        }
+    }
+
+    private boolean isFieldEnd(byte b) {
+        return b == delimiter || isLineBreak(b);
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * @return the trimmed cell between start and end, with escaped quotes collapsed; bytes up to space are the
+     * characters {@code String.trim()} removes, and they never occur inside a multi-byte UTF-8 sequence
+     */
+    private String decode(int start, int end, boolean escapedQuotes) {
+        while (start < end && (buffer.get(start) & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer.get(end - 1) & 0xff) <= ' ') {
+            end--;
+        }
+        int length = end - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(start, scratch, 0, length);
+        if (escapedQuotes) {
+            int collapsedLength = 0;
+            for (int i = 0; i < length; i++) {
+                scratch[collapsedLength++] = scratch[i];
+                if (scratch[i] == quote) {
+                    i++;
+                }
+            }
+            length = collapsedLength;
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
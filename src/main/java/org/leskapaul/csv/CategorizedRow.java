@@ -0,0 +1,44 @@
+package org.leskapaul.csv;
+
+import java.util.Arrays;
+
+/**
+ * A row emitted by the streaming API of {@link CsvCategorizeAndMerge}: the category it was resolved to and its
+ * values in normalized column order.
+ */
+public class CategorizedRow {
+
+    private final String categoryName;
+    private final String[] values;
+    private final CategoryAggregates aggregates;
+
+    public CategorizedRow(String categoryName, String[] values, CategoryAggregates aggregates) {
+        this.categoryName = categoryName;
+        this.values = values;
+        this.aggregates = aggregates;
+    }
+
+    public String getCategoryName() {
+        return categoryName;
+    }
+
+    public String[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return in sorted mode, on the last row of a category, the aggregates of the category if any are configured;
+     * null otherwise
+     */
+    public CategoryAggregates getAggregates() {
+        return aggregates;
+    }
+
+    @Override
+    public String toString() {
+        return "CategorizedRow{" +
+                "categoryName='" + categoryName + '\'' +
+                ", values=" + Arrays.toString(values) +
+                '}';
+    }
+}
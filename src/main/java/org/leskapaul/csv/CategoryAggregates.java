@@ -0,0 +1,151 @@
+package org.leskapaul.csv;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The configured aggregations of a single category, accumulated row by row in primitive longs while rows are
+ * categorized. Aggregates of partial results (files, chunks or spilled runs) are combined with {@link #addAll}, so
+ * they never need the rows again; aggregates written to a file with {@link #writeTo} are combined with
+ * {@link #addFrom}.
+ */
+public class CategoryAggregates {
+
+    private final List<AggregationConfig> aggregationConfigs;
+    private final int[] valueColumns;
+    private final int[] labelColumns;
+    private final int columnCount;
+    private final long[] values;
+    private final long[] counts;
+
+    /**
+     * @param valueColumns the column read by (and holding the result of) every aggregation
+     * @param labelColumns the column holding the label of every aggregation
+     */
+    CategoryAggregates(List<AggregationConfig> aggregationConfigs, int[] valueColumns, int[] labelColumns,
+                       int columnCount) {
+        this.aggregationConfigs = aggregationConfigs;
+        this.valueColumns = valueColumns;
+        this.labelColumns = labelColumns;
+        this.columnCount = columnCount;
+        this.values = new long[aggregationConfigs.size()];
+        this.counts = new long[aggregationConfigs.size()];
+    }
+
+    /**
+     * Accumulates a row whose values are in normalized column order.
+     */
+    public void addRow(String[] normalizedValues) {
+        for (int i = 0; i < values.length; i++) {
+            AggregationConfig.Function function = aggregationConfigs.get(i).getFunction();
+            String value = normalizedValues[valueColumns[i]];
+            if (function == AggregationConfig.Function.COUNT) {
+                if (aggregationConfigs.get(i).getColumnName() == null || (value != null && !value.isEmpty())) {
+                    counts[i]++;
+                }
+                continue;
+            }
+            long amount = value == null ? AmountParser.NOT_AN_AMOUNT : AmountParser.parse(value);
+            if (amount != AmountParser.NOT_AN_AMOUNT) {
+                values[i] = accumulate(i, values[i], counts[i], amount);
+                counts[i]++;
+            }
+        }
+    }
+
+    public void addAll(CategoryAggregates other) {
+        for (int i = 0; i < values.length; i++) {
+            add(i, other.values[i], other.counts[i]);
+        }
+    }
+
+    /**
+     * Writes the accumulated state, which {@link #addFrom} reads back into aggregates of the same config.
+     */
+    public void writeTo(DataOutput output) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            output.writeLong(values[i]);
+            output.writeLong(counts[i]);
+        }
+    }
+
+    /**
+     * Combines aggregates written by {@link #writeTo} into these.
+     */
+    public void addFrom(DataInput input) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            long value = input.readLong();
+            add(i, value, input.readLong());
+        }
+    }
+
+    private void add(int i, long value, long count) {
+        AggregationConfig.Function function = aggregationConfigs.get(i).getFunction();
+        if (function != AggregationConfig.Function.COUNT && count > 0) {
+            values[i] = accumulate(i, values[i], counts[i], value);
+        }
+        counts[i] += count;
+    }
+
+    /**
+     * @throws IllegalStateException if a sum no longer fits the scaled long, rather than wrapping around silently
+     */
+    private long accumulate(int i, long accumulated, long count, long amount) {
+        if (count == 0) {
+            return amount;
+        }
+        switch (aggregationConfigs.get(i).getFunction()) {
+            case SUM:
+                try {
+                    return Math.addExact(accumulated, amount);
+                } catch (ArithmeticException e) {
+                    throw new IllegalStateException("aggregation " + aggregationConfigs.get(i).getName()
+                            + " overflows adding " + AmountParser.format(amount) + " to "
+                            + AmountParser.format(accumulated), e);
+                }
+            case MIN:
+                return Math.min(accumulated, amount);
+            default:
+                return Math.max(accumulated, amount);
+        }
+    }
+
+    /**
+     * @return the number of values aggregation {@code i} has seen (rows for a count)
+     */
+    public long getCount(int i) {
+        return counts[i];
+    }
+
+    /**
+     * @return the result of aggregation {@code i} as written to its trailer row; empty if a sum, min or max saw no
+     * amounts
+     */
+    public String getResult(int i) {
+        if (aggregationConfigs.get(i).getFunction() == AggregationConfig.Function.COUNT) {
+            return Long.toString(counts[i]);
+        }
+        if (counts[i] == 0) {
+            return aggregationConfigs.get(i).getFunction() == AggregationConfig.Function.SUM
+                    ? AmountParser.format(0) : "";
+        }
+        return AmountParser.format(values[i]);
+    }
+
+    /**
+     * @return one row per aggregation, values in normalized column order
+     */
+    public List<String[]> getTrailerRows(String categoryName) {
+        List<String[]> trailerRows = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            String[] trailerRow = new String[columnCount];
+            trailerRow[labelColumns[i]] = categoryName + " " + aggregationConfigs.get(i).getName();
+            trailerRow[valueColumns[i]] = getResult(i);
+            trailerRows.add(trailerRow);
+        }
+        return trailerRows;
+    }
+}
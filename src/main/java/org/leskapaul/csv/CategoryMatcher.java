@@ -0,0 +1,746 @@
+package org.leskapaul.csv;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves categories for cell values using the regexes of a {@link CsvCategorizeAndMerge.CsvOrganizerConfig}.
+ *
+ * All patterns are compiled once. For every regex the longest literal that any match must contain is extracted,
+ * and the literals of a column are indexed in an Aho-Corasick automaton. A cell value is scanned once, and only
+ * the rules whose literal occurs in it (plus rules without a usable literal) are run. Candidates are evaluated in
+ * config order, so the first category listed in the config wins.
+ *
+ * Results, including "no match", are memoized per column in a bounded LRU cache of
+ * {@link CsvCategorizeAndMerge.CsvOrganizerConfig#getCategoryCacheSize()} values, since merchant descriptions repeat
+ * from month to month. The cache belongs to this matcher, so a changed config starts with an empty cache.
+ *
+ * An evaluation of a regex with a backtracking risk (see {@link #findBacktrackingRisk}), or of any regex once the
+ * budget is configured, may read at most {@link CsvCategorizeAndMerge.CsvOrganizerConfig#getRegexStepBudget()}
+ * characters of the cell value, counting every re-read while backtracking. A value that exhausts the budget of a rule
+ * gets the default category, whatever the other rules and columns would resolve, so a rule that backtracks
+ * catastrophically costs a bounded time per value instead of stalling the run. Other regexes read the value directly,
+ * without counting.
+ */
+public class CategoryMatcher {
+
+    private static final Logger LOG = LogManager.getLogger(CategoryMatcher.class.getSimpleName());
+
+    private final Map<String, ColumnRules> columnNameToRules = new HashMap<>();
+    private final String defaultCategoryName;
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder overBudgetLookups = new LongAdder();
+
+    public CategoryMatcher(CsvCategorizeAndMerge.CsvOrganizerConfig csvOrganizerConfig) {
+        int cacheSize = csvOrganizerConfig.getCategoryCacheSize();
+        int stepBudget = csvOrganizerConfig.getRegexStepBudget();
+        boolean budgetEveryRule = csvOrganizerConfig.isRegexStepBudgetConfigured();
+        this.defaultCategoryName = csvOrganizerConfig.getDefaultCategoryName();
+        Map<String, List<Rule>> rulesByColumn = new LinkedHashMap<>();
+        for (CsvCategorizeAndMerge.CsvOrganizerCategoryConfig categoryConfig : csvOrganizerConfig.getCategoryConfigs()) {
+            if (categoryConfig.getRegexes() == null) {
+                continue;
+            }
+            List<Rule> rules = rulesByColumn.computeIfAbsent(categoryConfig.getColumnName(), key -> new ArrayList<>());
+            for (String regex : categoryConfig.getRegexes()) {
+                rules.add(new Rule(categoryConfig.getColumnName(), categoryConfig.getCategory(), regex,
+                        budgetEveryRule || findBacktrackingRisk(regex) != null ? stepBudget : 0));
+            }
+        }
+        rulesByColumn.forEach((columnName, rules) -> {
+            ColumnRules columnRules = new ColumnRules(rules, cacheSize);
+            LOG.debug("compiled {} rules for column={}, {} without a literal prefilter",
+                    rules.size(), columnName, columnRules.unfilteredRules.cardinality());
+            columnNameToRules.put(columnName, columnRules);
+        });
+    }
+
+    /**
+     * @return the category of the first rule (in config order) matching the whole cell value, null if none match, or
+     * the default category if a rule exceeded the regex step budget on the value
+     */
+    public String findCategory(String normalizedColumnName, String cellValue) {
+        return findCategory(normalizedColumnName, cellValue, RunMetrics.DISABLED);
+    }
+
+    /**
+     * Like {@link #findCategory(String, String)}, and records every regex evaluation in the run metrics.
+     */
+    public String findCategory(String normalizedColumnName, String cellValue, RunMetrics runMetrics) {
+        ColumnRules columnRules = columnNameToRules.get(normalizedColumnName);
+        if (columnRules == null) {
+            return null;
+        }
+        CategoryCache categoryCache = columnRules.categoryCache;
+        if (categoryCache == null) {
+            return resolve(columnRules.findCategory(cellValue, runMetrics));
+        }
+        String category = categoryCache.get(cellValue);
+        if (category != null) {
+            cacheHits.increment();
+            return category == CategoryCache.NO_MATCH ? null : resolve(category);
+        }
+        cacheMisses.increment();
+        category = columnRules.findCategory(cellValue, runMetrics);
+        categoryCache.put(cellValue, category == null ? CategoryCache.NO_MATCH : category);
+        return resolve(category);
+    }
+
+    private String resolve(String category) {
+        if (category == CategoryCache.OVER_BUDGET) {
+            overBudgetLookups.increment();
+            return defaultCategoryName;
+        }
+        return category;
+    }
+
+    /**
+     * @return the number of lookups answered by the category cache since this matcher was created
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return the number of lookups that ran the rules because the value was not cached
+     */
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return the number of lookups since this matcher was created that returned the default category because a rule
+     * exceeded the regex step budget, including cache hits for such values
+     */
+    public long getOverBudgetLookups() {
+        return overBudgetLookups.sum();
+    }
+
+    public boolean hasRules(String normalizedColumnName) {
+        return columnNameToRules.containsKey(normalizedColumnName);
+    }
+
+    /**
+     * Returns the longest literal (lower-cased, ASCII only) that every match of the regex must contain, or null
+     * when no such literal can be determined safely. Groups, classes and escapes (with their arguments, see
+     * {@link #skipEscape}) are treated as opaque, and any top-level alternation disables the prefilter for the regex.
+     */
+    static String requiredLiteral(String regex) {
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '|') {
+                return null;
+            } else if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(escaped)) {
+                    i = skipEscape(regex, i);
+                    best = longer(best, run);
+                    run.setLength(0);
+                    i = skipQuantifier(regex, i);
+                    continue;
+                }
+                i += 2;
+                appendLiteral(run, escaped);
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                best = longer(best, run);
+                run.setLength(0);
+                i = skipQuantifier(regex, i);
+                continue;
+            } else if (c == '(') {
+                int end = skipGroup(regex, i);
+                if (end < 0 || enablesComments(regex, i)) {
+                    return null;
+                }
+                i = end;
+                best = longer(best, run);
+                run.setLength(0);
+                i = skipQuantifier(regex, i);
+                continue;
+            } else if (c == '*' || c == '?' || c == '{') {
+                // the previous literal character is optional
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                best = longer(best, run);
+                run.setLength(0);
+                i = skipQuantifier(regex, i);
+                continue;
+            } else if (c == '+') {
+                best = longer(best, run);
+                run.setLength(0);
+                i = skipQuantifier(regex, i);
+                continue;
+            } else if (c == '.' || c == '^' || c == '$' || c == ')' || c == ']' || c == '}') {
+                i++;
+                best = longer(best, run);
+                run.setLength(0);
+                continue;
+            } else {
+                i++;
+                if (!appendLiteral(run, c)) {
+                    best = longer(best, run);
+                    run.setLength(0);
+                }
+            }
+        }
+        best = longer(best, run);
+        return best.isEmpty() ? null : best;
+    }
+
+    /**
+     * Looks for the constructs that make backtracking super-linear in the length of the value: a repeated group that
+     * itself contains a repeated element, like "(.*\s.*)*" or "(.*pseg){4}", which can try every way of splitting the
+     * value between the repetitions, and adjacent repeated wildcards, like ".*.*", each of which multiplies the work
+     * by the length of the value. This is a heuristic: it does not find every slow regex (e.g. overlapping
+     * alternatives), which is what the step budget is for.
+     *
+     * @return a description of the risky construct, or null if none was found
+     */
+    static String findBacktrackingRisk(String regex) {
+        // per open group, whether anything in it is repeated without bound
+        Deque<boolean[]> groups = new ArrayDeque<>();
+        groups.push(new boolean[1]);
+        boolean previousRepeatedWildcard = false;
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            int atomStart = i;
+            boolean wildcard = false;
+            boolean groupRepeatsInside = false;
+            if (c == '\\') {
+                i = skipEscape(regex, i);
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else if (c == '(') {
+                groups.push(new boolean[1]);
+                i++;
+                continue;
+            } else if (c == ')') {
+                if (groups.size() == 1) {
+                    return null;
+                }
+                groupRepeatsInside = groups.pop()[0];
+                i++;
+            } else if (c == '|') {
+                previousRepeatedWildcard = false;
+                i++;
+                continue;
+            } else {
+                wildcard = c == '.';
+                i++;
+            }
+            int quantifierStart = i;
+            i = skipQuantifier(regex, i);
+            String quantifier = regex.substring(quantifierStart, i);
+            boolean unbounded = isUnbounded(quantifier);
+            if (groupRepeatsInside && repeatsMoreThanOnce(quantifier)) {
+                return "nested quantifier: the group ending at index " + atomStart
+                        + " is repeated and contains a repeated element";
+            }
+            if (unbounded && wildcard && previousRepeatedWildcard) {
+                return "adjacent repeated wildcards at index " + atomStart;
+            }
+            previousRepeatedWildcard = unbounded && wildcard;
+            if (unbounded || groupRepeatsInside) {
+                groups.peek()[0] = true;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the quantifier, e.g. "*", "+?" or "{2,}", repeats without an upper bound; possessive
+     * quantifiers never backtrack, so they are not counted
+     */
+    private static boolean isUnbounded(String quantifier) {
+        if (quantifier.isEmpty() || quantifier.length() > 1 && quantifier.endsWith("+")) {
+            return false;
+        }
+        char c = quantifier.charAt(0);
+        if (c == '*' || c == '+') {
+            return true;
+        }
+        int close = quantifier.indexOf('}');
+        return c == '{' && close > 0 && quantifier.charAt(close - 1) == ',';
+    }
+
+    /**
+     * @return whether the quantifier, e.g. "+" or "{2,4}", allows more than one repetition without being possessive
+     */
+    private static boolean repeatsMoreThanOnce(String quantifier) {
+        if (isUnbounded(quantifier)) {
+            return true;
+        }
+        int close = quantifier.indexOf('}');
+        if (!quantifier.startsWith("{") || close < 0 || quantifier.endsWith("+")) {
+            return false;
+        }
+        String[] bounds = quantifier.substring(1, close).split(",");
+        try {
+            return Integer.parseInt(bounds[bounds.length - 1].trim()) > 1;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whitespace in a literal is ignored once the COMMENTS flag is switched on inline, e.g. "(?x)".
+     */
+    private static boolean enablesComments(String regex, int groupStart) {
+        if (!regex.startsWith("(?", groupStart)) {
+            return false;
+        }
+        for (int i = groupStart + 2; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == 'x') {
+                return true;
+            } else if (c == '-' || c == ':' || c == ')') {
+                return false;
+            } else if (!Character.isLetter(c)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean appendLiteral(StringBuilder run, char c) {
+        if (c >= 128) {
+            return false;
+        }
+        run.append(foldCase(c));
+        return true;
+    }
+
+    private static String longer(String best, StringBuilder run) {
+        return run.length() > best.length() ? run.toString() : best;
+    }
+
+    private static int skipQuantifier(String regex, int i) {
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '*' || c == '+' || c == '?') {
+                i++;
+            } else if (c == '{') {
+                int end = regex.indexOf('}', i);
+                i = end < 0 ? regex.length() : end + 1;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int skipClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        int depth = 1;
+        while (i < regex.length() && depth > 0) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = skipEscape(regex, i);
+                continue;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the index after the escape at the backslash at {@code start}, including its arguments, such as the hex
+     * digits of "\x41", the octal digits of "\0101", the name of "\k<name>" or "\N{name}", or a quoted "\Q...\E"
+     */
+    static int skipEscape(String regex, int start) {
+        int length = regex.length();
+        if (start + 1 >= length) {
+            return length;
+        }
+        char escaped = regex.charAt(start + 1);
+        int i = start + 2;
+        switch (escaped) {
+            case 'Q':
+                int end = regex.indexOf("\\E", i);
+                return end < 0 ? length : end + 2;
+            case 'x':
+                return i < length && regex.charAt(i) == '{' ? skipPast(regex, i, '}') : Math.min(length, i + 2);
+            case 'u':
+                return Math.min(length, i + 4);
+            case '0':
+                // \0n, \0nn or \0mnn with m at most 3
+                int maxDigits = i < length && regex.charAt(i) <= '3' ? 3 : 2;
+                while (maxDigits-- > 0 && i < length && regex.charAt(i) >= '0' && regex.charAt(i) <= '7') {
+                    i++;
+                }
+                return i;
+            case 'c':
+                return Math.min(length, i + 1);
+            case 'k':
+                return i < length && regex.charAt(i) == '<' ? skipPast(regex, i, '>') : i;
+            case 'p':
+            case 'P':
+                return i < length && regex.charAt(i) == '{' ? skipPast(regex, i, '}') : Math.min(length, i + 1);
+            case 'N':
+            case 'b':
+                return i < length && regex.charAt(i) == '{' ? skipPast(regex, i, '}') : i;
+            default:
+                if (escaped >= '1' && escaped <= '9') {
+                    // a back reference may take further digits
+                    while (i < length && Character.isDigit(regex.charAt(i))) {
+                        i++;
+                    }
+                }
+                return i;
+        }
+    }
+
+    private static int skipPast(String regex, int i, char close) {
+        int end = regex.indexOf(close, i);
+        return end < 0 ? regex.length() : end + 1;
+    }
+
+    private static int skipGroup(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = skipEscape(regex, i);
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static char foldCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static class Rule {
+        private final String category;
+        private final Pattern pattern;
+        private final String literal;
+        private final int stepBudget;
+        private final RunMetrics.RuleKey ruleKey;
+
+        /**
+         * @param stepBudget the characters an evaluation may read, or 0 to read the value without counting
+         */
+        private Rule(String columnName, String category, String regex, int stepBudget) {
+            this.category = category;
+            this.pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+            this.literal = requiredLiteral(regex);
+            this.stepBudget = stepBudget;
+            this.ruleKey = new RunMetrics.RuleKey(columnName, category, regex);
+        }
+
+        /**
+         * @param value the cell value, a {@link BudgetedCharSequence} if the rule has a step budget
+         * @throws StepBudgetExceededException if the rule read more characters than its budget allows
+         */
+        private boolean matches(CharSequence value, RunMetrics runMetrics) {
+            if (stepBudget > 0) {
+                ((BudgetedCharSequence) value).stepsLeft = stepBudget;
+            }
+            if (!runMetrics.isEnabled()) {
+                return pattern.matcher(value).matches();
+            }
+            long start = System.nanoTime();
+            boolean matched = false;
+            try {
+                matched = pattern.matcher(value).matches();
+                return matched;
+            } finally {
+                runMetrics.addRuleEvaluation(ruleKey, System.nanoTime() - start, matched);
+            }
+        }
+    }
+
+    /**
+     * A cell value that counts the characters the regex engine reads, and throws once a rule has read its budget.
+     */
+    private static final class BudgetedCharSequence implements CharSequence {
+        private final String value;
+        private int stepsLeft;
+
+        private BudgetedCharSequence(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (--stepsLeft < 0) {
+                throw StepBudgetExceededException.INSTANCE;
+            }
+            return value.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return value.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return value.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    /**
+     * Thrown out of the regex engine to abandon an evaluation; shared and without a stack trace, so it costs nothing
+     * to throw.
+     */
+    private static final class StepBudgetExceededException extends RuntimeException {
+        private static final StepBudgetExceededException INSTANCE = new StepBudgetExceededException();
+
+        private StepBudgetExceededException() {
+            super("regex step budget exceeded", null, false, false);
+        }
+    }
+
+    /**
+     * The rules of a single column plus an Aho-Corasick automaton over their required literals. The automaton is
+     * a dense DFA over the (small) alphabet of characters used by the literals; any other character returns it to
+     * the root state.
+     */
+    private static class ColumnRules {
+        private final Rule[] rules;
+        private final CategoryCache categoryCache;
+        private final BitSet unfilteredRules = new BitSet();
+        private final int[] charToSymbol = new int[128];
+        private int alphabetSize = 1;
+        private int[] transitions;
+        private int[][] outputs;
+
+        private ColumnRules(List<Rule> ruleList, int cacheSize) {
+            this.rules = ruleList.toArray(new Rule[0]);
+            this.categoryCache = cacheSize > 0 ? new CategoryCache(cacheSize) : null;
+            for (int ruleIndex = 0; ruleIndex < rules.length; ruleIndex++) {
+                String literal = rules[ruleIndex].literal;
+                if (literal == null) {
+                    unfilteredRules.set(ruleIndex);
+                } else {
+                    for (int i = 0; i < literal.length(); i++) {
+                        char c = literal.charAt(i);
+                        if (charToSymbol[c] == 0) {
+                            charToSymbol[c] = alphabetSize++;
+                        }
+                    }
+                }
+            }
+            for (char c = 'A'; c <= 'Z'; c++) {
+                charToSymbol[c] = charToSymbol[foldCase(c)];
+            }
+            buildAutomaton();
+        }
+
+        private void buildAutomaton() {
+            List<int[]> gotoTable = new ArrayList<>();
+            List<List<Integer>> ownOutputs = new ArrayList<>();
+            gotoTable.add(new int[alphabetSize]);
+            ownOutputs.add(new ArrayList<>());
+            for (int ruleIndex = 0; ruleIndex < rules.length; ruleIndex++) {
+                String literal = rules[ruleIndex].literal;
+                if (literal == null) {
+                    continue;
+                }
+                int state = 0;
+                for (int i = 0; i < literal.length(); i++) {
+                    int symbol = charToSymbol[literal.charAt(i)];
+                    int next = gotoTable.get(state)[symbol];
+                    if (next == 0) {
+                        next = gotoTable.size();
+                        gotoTable.get(state)[symbol] = next;
+                        gotoTable.add(new int[alphabetSize]);
+                        ownOutputs.add(new ArrayList<>());
+                    }
+                    state = next;
+                }
+                ownOutputs.get(state).add(ruleIndex);
+            }
+
+            int stateCount = gotoTable.size();
+            transitions = new int[stateCount * alphabetSize];
+            int[] failure = new int[stateCount];
+            outputs = new int[stateCount][];
+            outputs[0] = new int[0];
+
+            // breadth-first so that failure states are always complete before they are used
+            Queue<Integer> queue = new ArrayDeque<>();
+            for (int symbol = 1; symbol < alphabetSize; symbol++) {
+                int next = gotoTable.get(0)[symbol];
+                transitions[symbol] = next;
+                if (next != 0) {
+                    failure[next] = 0;
+                    queue.add(next);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                outputs[state] = mergeOutputs(ownOutputs.get(state), outputs[failure[state]]);
+                for (int symbol = 1; symbol < alphabetSize; symbol++) {
+                    int next = gotoTable.get(state)[symbol];
+                    if (next != 0) {
+                        failure[next] = transitions[failure[state] * alphabetSize + symbol];
+                        transitions[state * alphabetSize + symbol] = next;
+                        queue.add(next);
+                    } else {
+                        transitions[state * alphabetSize + symbol] = transitions[failure[state] * alphabetSize + symbol];
+                    }
+                }
+            }
+        }
+
+        private static int[] mergeOutputs(List<Integer> own, int[] inherited) {
+            int[] merged = new int[own.size() + inherited.length];
+            for (int i = 0; i < own.size(); i++) {
+                merged[i] = own.get(i);
+            }
+            System.arraycopy(inherited, 0, merged, own.size(), inherited.length);
+            return merged;
+        }
+
+        private String findCategory(String cellValue, RunMetrics runMetrics) {
+            BitSet candidates = (BitSet) unfilteredRules.clone();
+            int state = 0;
+            for (int i = 0; i < cellValue.length(); i++) {
+                char c = cellValue.charAt(i);
+                int symbol = c < 128 ? charToSymbol[c] : 0;
+                state = transitions[state * alphabetSize + symbol];
+                for (int ruleIndex : outputs[state]) {
+                    candidates.set(ruleIndex);
+                }
+            }
+            // only created once a candidate rule has a step budget
+            BudgetedCharSequence budgetedValue = null;
+            for (int ruleIndex = candidates.nextSetBit(0); ruleIndex >= 0;
+                 ruleIndex = candidates.nextSetBit(ruleIndex + 1)) {
+                Rule rule = rules[ruleIndex];
+                CharSequence value = cellValue;
+                if (rule.stepBudget > 0) {
+                    if (budgetedValue == null) {
+                        budgetedValue = new BudgetedCharSequence(cellValue);
+                    }
+                    value = budgetedValue;
+                }
+                try {
+                    if (rule.matches(value, runMetrics)) {
+                        return rule.category;
+                    }
+                } catch (StepBudgetExceededException e) {
+                    LOG.warn("rule {} exceeded the regex step budget of {} on value={}, using the default category",
+                            rule.ruleKey, rule.stepBudget, cellValue);
+                    return CategoryCache.OVER_BUDGET;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An LRU map from cell value to category, split into segments that are locked separately so that threads
+     * categorizing different values rarely contend. Each segment evicts its least recently used value once it holds
+     * its share of the capacity.
+     */
+    static class CategoryCache {
+        // compared by identity, so they cannot collide with a category name
+        static final String NO_MATCH = new String("no match");
+        static final String OVER_BUDGET = new String("over budget");
+        private static final int SEGMENT_COUNT = 16;
+
+        private final LruSegment[] segments = new LruSegment[SEGMENT_COUNT];
+
+        CategoryCache(int capacity) {
+            int segmentCapacity = Math.max(1, capacity / SEGMENT_COUNT);
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new LruSegment(segmentCapacity);
+            }
+        }
+
+        /**
+         * @return the cached category, {@link #NO_MATCH}, or null if the value is not cached
+         */
+        String get(String cellValue) {
+            LruSegment segment = segmentFor(cellValue);
+            synchronized (segment) {
+                return segment.get(cellValue);
+            }
+        }
+
+        void put(String cellValue, String category) {
+            LruSegment segment = segmentFor(cellValue);
+            synchronized (segment) {
+                segment.put(cellValue, category);
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (LruSegment segment : segments) {
+                synchronized (segment) {
+                    size += segment.size();
+                }
+            }
+            return size;
+        }
+
+        private LruSegment segmentFor(String cellValue) {
+            int hash = cellValue.hashCode();
+            return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+        }
+
+        private static class LruSegment extends LinkedHashMap<String, String> {
+            private final int capacity;
+
+            private LruSegment(int capacity) {
+                super(16, 0.75f, true);
+                this.capacity = capacity;
+            }
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.leskapaul.csv;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line arguments split into {@code --name=value} (or bare {@code --name}) options and positional arguments.
+ */
+public class CliOptions {
+
+    private final Map<String, String> options = new LinkedHashMap<>();
+    private final List<String> positionalArgs = new ArrayList<>();
+
+    public static CliOptions parse(String[] args) {
+        CliOptions cliOptions = new CliOptions();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.length() > 2) {
+                int separator = arg.indexOf('=');
+                if (separator < 0) {
+                    cliOptions.options.put(arg.substring(2), "true");
+                } else {
+                    cliOptions.options.put(arg.substring(2, separator), arg.substring(separator + 1));
+                }
+            } else {
+                cliOptions.positionalArgs.add(arg);
+            }
+        }
+        return cliOptions;
+    }
+
+    public List<String> getPositionalArgs() {
+        return positionalArgs;
+    }
+
+    public boolean has(String name) {
+        return options.containsKey(name);
+    }
+
+    public String get(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    public int getInt(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("option --" + name + " expects a number but was " + value, e);
+        }
+    }
+
+    /**
+     * Parses a byte size with an optional {@code k}, {@code m} or {@code g} suffix (powers of 1024), e.g. {@code 256m}.
+     */
+    public long getBytes(String name, long defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        String number = value.trim().toLowerCase(Locale.ROOT);
+        int shift = 0;
+        if (number.endsWith("k")) {
+            shift = 10;
+        } else if (number.endsWith("m")) {
+            shift = 20;
+        } else if (number.endsWith("g")) {
+            shift = 30;
+        }
+        if (shift > 0) {
+            number = number.substring(0, number.length() - 1);
+        }
+        try {
+            long bytes = Long.parseLong(number);
+            if (bytes < 1 || bytes > Long.MAX_VALUE >> shift) {
+                throw new IllegalArgumentException("option --" + name + " is out of range: " + value);
+            }
+            return bytes << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("option --" + name + " expects a size like 256m but was " + value, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CliOptions{" +
+                "options=" + options +
+                ", positionalArgs=" + positionalArgs +
+                '}';
+    }
+}
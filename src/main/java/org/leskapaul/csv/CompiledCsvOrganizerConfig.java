@@ -0,0 +1,130 @@
+package org.leskapaul.csv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link CsvCategorizeAndMerge.CsvOrganizerConfig} with its regexes and date formats compiled. Compile once and
+ * reuse it across runs; it is immutable and safe to share between threads, so it must be recompiled if the
+ * underlying config is modified.
+ */
+public class CompiledCsvOrganizerConfig {
+
+    private final CsvCategorizeAndMerge.CsvOrganizerConfig config;
+    private final List<String> columnNames;
+    private final CategoryMatcher categoryMatcher;
+    private final DateTransformer[] dateTransformers;
+    private final RowSorter rowSorter;
+    private final List<AggregationConfig> aggregationConfigs;
+    private final int[] aggregationValueColumns;
+    private final int[] aggregationLabelColumns;
+    private final int[] deduplicationColumns;
+
+    public CompiledCsvOrganizerConfig(CsvCategorizeAndMerge.CsvOrganizerConfig config) {
+        this.config = config;
+        this.columnNames = List.copyOf(config.getColumnNameToAliases().keySet());
+        this.categoryMatcher = new CategoryMatcher(config);
+        this.dateTransformers = new DateTransformer[columnNames.size()];
+        for (int column = 0; column < columnNames.size(); column++) {
+            DateTransformerConfig dateTransformerConfig =
+                    config.getColumnNameToDateTransformer().get(columnNames.get(column));
+            if (dateTransformerConfig != null) {
+                dateTransformers[column] = dateTransformerConfig.compile();
+            }
+        }
+        this.rowSorter = new RowSorter(this);
+
+        this.aggregationConfigs = List.copyOf(config.getAggregationConfigs());
+        this.aggregationValueColumns = new int[aggregationConfigs.size()];
+        this.aggregationLabelColumns = new int[aggregationConfigs.size()];
+        for (int i = 0; i < aggregationConfigs.size(); i++) {
+            AggregationConfig aggregationConfig = aggregationConfigs.get(i);
+            int valueColumn = aggregationConfig.getColumnName() == null ? -1
+                    : resolveColumn(aggregationConfig.getColumnName(), aggregationConfig);
+            int labelColumn = aggregationConfig.getLabelColumnName() == null ? (valueColumn == 0 ? 1 : 0)
+                    : resolveColumn(aggregationConfig.getLabelColumnName(), aggregationConfig);
+            if (valueColumn < 0) {
+                // a count of rows goes to the last column that does not hold the label
+                valueColumn = labelColumn == columnNames.size() - 1 ? labelColumn - 1 : columnNames.size() - 1;
+            }
+            aggregationValueColumns[i] = Math.max(0, valueColumn);
+            aggregationLabelColumns[i] = Math.min(labelColumn, columnNames.size() - 1);
+        }
+
+        DeduplicationConfig deduplicationConfig = config.getDeduplicationConfig();
+        if (deduplicationConfig == null) {
+            this.deduplicationColumns = null;
+        } else {
+            this.deduplicationColumns = deduplicationConfig.getColumnNames().stream()
+                    .mapToInt(columnName -> resolveColumn(columnName, deduplicationConfig)).toArray();
+        }
+    }
+
+    private int resolveColumn(String columnName, Object referringConfig) {
+        int column = columnNames.indexOf(columnName);
+        if (column < 0) {
+            throw new IllegalStateException("unknown column " + columnName + " in " + referringConfig
+                    + ", expected one of " + columnNames);
+        }
+        return column;
+    }
+
+    public CsvCategorizeAndMerge.CsvOrganizerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the normalized column names in config order
+     */
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    public CategoryMatcher getCategoryMatcher() {
+        return categoryMatcher;
+    }
+
+    /**
+     * @return the date transformer for the normalized column at the given index, or null if it has none
+     */
+    public DateTransformer getDateTransformer(int column) {
+        return dateTransformers[column];
+    }
+
+    /**
+     * @return empty accumulators for the configured aggregations of a category, or null if none are configured
+     */
+    public CategoryAggregates newCategoryAggregates() {
+        if (aggregationValueColumns.length == 0) {
+            return null;
+        }
+        return new CategoryAggregates(aggregationConfigs, aggregationValueColumns,
+                aggregationLabelColumns, columnNames.size());
+    }
+
+    /**
+     * @return empty deduplication state for a run, or null if deduplication is not configured
+     */
+    public RowDeduplicator newRowDeduplicator() {
+        return deduplicationColumns == null ? null
+                : new RowDeduplicator(config.getDeduplicationConfig(), deduplicationColumns);
+    }
+
+    public RowSorter getRowSorter() {
+        return rowSorter;
+    }
+
+    /**
+     * @return the categories in output order: the default category followed by the configured ones
+     */
+    public List<String> getCategoriesInOrder() {
+        List<String> categories = new ArrayList<>();
+        categories.add(config.getDefaultCategoryName());
+        config.getCategoryConfigs().forEach(categoryConfig -> {
+            if (!categories.contains(categoryConfig.getCategory())) {
+                categories.add(categoryConfig.getCategory());
+            }
+        });
+        return categories;
+    }
+}
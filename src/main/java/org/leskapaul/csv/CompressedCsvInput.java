@@ -0,0 +1,107 @@
+package org.leskapaul.csv;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A csv stream inside a compressed input file: the content of a gzip file, or one csv entry of a zip file.
+ * Compression is recognized by the magic bytes at the start of the file, not by its name.
+ *
+ * Compressed files cannot be split into chunks, but every entry of a zip file is parsed as a separate task, and
+ * each stream is decompressed on its own thread through a {@link ReadAheadInputStream}, so inflating overlaps with
+ * parsing and categorizing.
+ */
+public class CompressedCsvInput {
+
+    private static final int READ_AHEAD_BLOCK_SIZE = 64 * 1024;
+    private static final int READ_AHEAD_BLOCK_COUNT = 16;
+
+    private final Path file;
+    private final String entryName;
+
+    private CompressedCsvInput(Path file, String entryName) {
+        this.file = file;
+        this.entryName = entryName;
+    }
+
+    /**
+     * @return the csv streams of the file in file order, the csv entries (by name) of a zip file or the content of
+     * a gzip file, or null if the file is not compressed
+     */
+    public static List<CompressedCsvInput> list(Path file) throws IOException {
+        byte[] magic;
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            magic = inputStream.readNBytes(4);
+        }
+        if (magic.length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return List.of(new CompressedCsvInput(file, null));
+        }
+        if (magic.length == 4 && magic[0] == 'P' && magic[1] == 'K'
+                && (magic[2] == 3 && magic[3] == 4 || magic[2] == 5 && magic[3] == 6)) {
+            List<CompressedCsvInput> entries = new ArrayList<>();
+            try (ZipFile zipFile = new ZipFile(file.toFile())) {
+                for (Enumeration<? extends ZipEntry> zipEntries = zipFile.entries(); zipEntries.hasMoreElements(); ) {
+                    ZipEntry zipEntry = zipEntries.nextElement();
+                    if (isCsvEntry(zipEntry)) {
+                        entries.add(new CompressedCsvInput(file, zipEntry.getName()));
+                    }
+                }
+            }
+            return entries;
+        }
+        return null;
+    }
+
+    /**
+     * Skips directories, macOS resource forks and hidden files, which archive tools add next to the exports.
+     */
+    private static boolean isCsvEntry(ZipEntry zipEntry) {
+        String name = zipEntry.getName();
+        String fileName = name.substring(name.lastIndexOf('/') + 1);
+        return !zipEntry.isDirectory() && !name.startsWith("__MACOSX/") && !fileName.startsWith(".")
+                && fileName.toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+
+    /**
+     * @return the decompressed bytes, inflated on a separate thread; closing the stream stops that thread
+     */
+    public InputStream open() throws IOException {
+        return new ReadAheadInputStream(file.getFileName() + (entryName == null ? "" : "!" + entryName),
+                openDecompressed(), READ_AHEAD_BLOCK_SIZE, READ_AHEAD_BLOCK_COUNT);
+    }
+
+    private InputStream openDecompressed() throws IOException {
+        if (entryName == null) {
+            return new GZIPInputStream(Files.newInputStream(file), READ_AHEAD_BLOCK_SIZE);
+        }
+        // a zip file of its own per entry, so that entries can be read concurrently and closed independently
+        ZipFile zipFile = new ZipFile(file.toFile());
+        InputStream entryInputStream;
+        try {
+            ZipEntry zipEntry = zipFile.getEntry(entryName);
+            if (zipEntry == null) {
+                throw new IOException("entry " + entryName + " no longer exists in " + file);
+            }
+            entryInputStream = zipFile.getInputStream(zipEntry);
+        } catch (IOException e) {
+            zipFile.close();
+            throw e;
+        }
+        return new FilterInputStream(entryInputStream) {
+            @Override
+            public void close() throws IOException {
+                zipFile.close();
+            }
+        };
+    }
+}
@@ -1,43 +1,730 @@
 package org.leskapaul.csv;
 
+import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * This class is intended to take the following input:
  * - multiple csv files
  * - a mapping of column names to column name aliases (e.g. "Description" -> "Description","Desc")
  * - a mapping of categories to [column name, column value regex] pairs (e.g.  -> "Groceries" -> "Transaction Name"="*ShopRite*")
- * - a specification of aggregrations to add at end of category (e.g. "sheet-sum" -> "Groceries Total = $SUM(C17-C41)")
+ * - a specification of aggregations to add at end of category (e.g. "Total" = SUM of "Amount" -> "Groceries Total")
  *
  * ...and produce the following output:
- * - a single csv file in which input csv lines are organized into category sections
+ * - a single csv file in which input csv lines are organized into category sections, each followed by a trailer row
+ *   per aggregation; aggregations are accumulated while rows are categorized, so they need no second pass
  */
 public class CsvCategorizeAndMerge {
 
     private static final Logger LOG = LogManager.getLogger(CsvCategorizeAndMerge.class.getSimpleName());
+
+    private static final long DEFAULT_MIN_CHUNK_BYTES = 8L << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final long MIN_SPILL_CHUNK_BYTES = 64L << 10;
+    private static final int ROW_BYTES_PER_CSV_BYTE = 4;
+
+    private final int threadCount;
+    private final long minChunkBytes;
+    private final long maxMappedBytes;
+    private final long memoryBudgetBytes;
+    private final Path spillDirectory;
+    private final RunMetrics runMetrics;
+    private final Path stateDirectory;
+    private final boolean byteTokenizer;
+    private final boolean sniffDialect;
+
+    public CsvCategorizeAndMerge() {
+        this(1);
+    }
+
+    /**
+     * @param threadCount number of input files (or chunks of large files) to categorize concurrently; the output
+     *                    does not depend on it
+     */
+    public CsvCategorizeAndMerge(int threadCount) {
+        this(builder().threadCount(threadCount));
+    }
+
+    private CsvCategorizeAndMerge(Builder builder) {
+        if (builder.threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1 but was " + builder.threadCount);
+        }
+        if (builder.memoryBudgetBytes < 1) {
+            throw new IllegalArgumentException("memoryBudgetBytes must be positive but was "
+                    + builder.memoryBudgetBytes);
+        }
+        this.threadCount = builder.threadCount;
+        this.minChunkBytes = builder.minChunkBytes;
+        this.maxMappedBytes = builder.maxMappedBytes;
+        this.memoryBudgetBytes = builder.memoryBudgetBytes;
+        this.spillDirectory = builder.spillDirectory == null
+                ? Path.of(System.getProperty("java.io.tmpdir")) : builder.spillDirectory;
+        this.runMetrics = builder.runMetrics;
+        this.stateDirectory = builder.stateDirectory;
+        this.byteTokenizer = builder.byteTokenizer;
+        this.sniffDialect = builder.sniffDialect;
+    }
+
+    /**
+     * @return a builder for the options beyond the thread count, all of which default to off or unlimited
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The options of a {@link CsvCategorizeAndMerge}; only the ones that differ from their defaults need to be set.
+     */
+    public static class Builder {
+        private int threadCount = 1;
+        private long minChunkBytes = DEFAULT_MIN_CHUNK_BYTES;
+        private long maxMappedBytes = CsvFileSplitter.MAX_MAPPED_CHUNK_BYTES;
+        private long memoryBudgetBytes = Long.MAX_VALUE;
+        private Path spillDirectory;
+        private RunMetrics runMetrics = RunMetrics.DISABLED;
+        private Path stateDirectory;
+        private boolean byteTokenizer;
+        private boolean sniffDialect;
+
+        private Builder() {
+        }
+
+        /**
+         * @param threadCount number of input files (or chunks of large files) to categorize concurrently; the output
+         *                    does not depend on it; defaults to 1
+         */
+        public Builder threadCount(int threadCount) {
+            this.threadCount = threadCount;
+            return this;
+        }
+
+        /**
+         * @param minChunkBytes the smallest chunk a large file is split into for parallel categorization
+         */
+        Builder minChunkBytes(long minChunkBytes) {
+            this.minChunkBytes = minChunkBytes;
+            return this;
+        }
+
+        /**
+         * @param maxMappedBytes the largest file or chunk to map into a single buffer, a stand-in for the 2 GB limit
+         *                       of {@link CsvFileSplitter#MAX_MAPPED_CHUNK_BYTES}
+         */
+        Builder maxMappedBytes(long maxMappedBytes) {
+            this.maxMappedBytes = maxMappedBytes;
+            return this;
+        }
+
+        /**
+         * @param memoryBudgetBytes estimated size of categorized rows kept in memory by the streaming methods, such as
+         *                          {@link CsvCategorizeAndMerge#streamCsvFiles}, before they are sorted and spilled to
+         *                          temp files; unlimited by default
+         */
+        public Builder memoryBudgetBytes(long memoryBudgetBytes) {
+            this.memoryBudgetBytes = memoryBudgetBytes;
+            return this;
+        }
+
+        /**
+         * @param spillDirectory directory for the temp files, or null (the default) for the default temp directory
+         */
+        public Builder spillDirectory(Path spillDirectory) {
+            this.spillDirectory = spillDirectory;
+            return this;
+        }
+
+        /**
+         * @param runMetrics metrics to record stage timings and counts of every run in; {@link RunMetrics#DISABLED}
+         *                   by default
+         */
+        public Builder runMetrics(RunMetrics runMetrics) {
+            this.runMetrics = runMetrics;
+            return this;
+        }
+
+        /**
+         * @param stateDirectory directory of the {@link IncrementalState} that lets runs over csv files reuse the rows
+         *                       of files they categorized before, or null (the default) to categorize every file
+         */
+        public Builder stateDirectory(Path stateDirectory) {
+            this.stateDirectory = stateDirectory;
+            return this;
+        }
+
+        /**
+         * @param byteTokenizer whether to read uncompressed csv files with a {@link ByteCsvTokenizer} rather than
+         *                      commons-csv, if it supports their format; the output does not depend on it
+         */
+        public Builder byteTokenizer(boolean byteTokenizer) {
+            this.byteTokenizer = byteTokenizer;
+            return this;
+        }
+
+        /**
+         * @param sniffDialect whether to sniff the {@link CsvDialect} of each uncompressed csv file, parsing it with
+         *                     the sniffed delimiter and trying the input format its dates are in first
+         */
+        public Builder sniffDialect(boolean sniffDialect) {
+            this.sniffDialect = sniffDialect;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the thread count or memory budget is not positive
+         */
+        public CsvCategorizeAndMerge build() {
+            return new CsvCategorizeAndMerge(this);
+        }
+    }
+
     public List<CategoryCsvLines> organizeCsvLines(List<CSVParser> inputCsvs,
                                                    CsvOrganizerConfig csvOrganizerConfig) {
-        LOG.info("organizing csv from {} files with config: {}", inputCsvs.size(), csvOrganizerConfig);
-        final Map<String, CategoryCsvLines> allCategoriesToLines = new HashMap<>();
+        return organizeCsvLines(inputCsvs, new CompiledCsvOrganizerConfig(csvOrganizerConfig));
+    }
+
+    public List<CategoryCsvLines> organizeCsvLines(List<CSVParser> inputCsvs,
+                                                   CompiledCsvOrganizerConfig compiledConfig) {
+        List<CategoryCsvLines> organizedCsvs = new ArrayList<>();
+        organizeCsvLines(inputCsvs, compiledConfig, organizedCsvs::add);
+        return organizedCsvs;
+    }
+
+    /**
+     * Like {@link #organizeCsvLines(List, CompiledCsvOrganizerConfig)}, but hands each category to the consumer
+     * (in config order) as soon as it is sorted, and keeps no reference to it afterwards.
+     */
+    public void organizeCsvLines(List<CSVParser> inputCsvs, CompiledCsvOrganizerConfig compiledConfig,
+                                 Consumer<CategoryCsvLines> categoryConsumer) {
+        LOG.info("organizing csv from {} files with config: {}", inputCsvs.size(), compiledConfig.getConfig());
+        RowDeduplicator rowDeduplicator = compiledConfig.newRowDeduplicator();
+        List<List<Callable<Map<String, CategoryCsvLines>>>> tasksPerInput = new ArrayList<>();
         for (CSVParser inputCsv : inputCsvs) {
-            LOG.debug("processing inputCsv with headerMap={}", inputCsv.getHeaderMap());
+            RunMetrics.InputMetrics input = runMetrics.addInput("input-" + (tasksPerInput.size() + 1), -1);
+            tasksPerInput.add(List.of(() -> getCategoryToLines(inputCsv, null, compiledConfig, input,
+                    rowDeduplicator, null)));
+        }
+        List<Map<String, CategoryCsvLines>> partialResults = new ArrayList<>();
+        categorize(tasksPerInput, rowDeduplicator, compiledConfig.getCategoryMatcher(), partialResults::add);
+        mergeAndSort(partialResults, compiledConfig, categoryConsumer);
+    }
+
+    /**
+     * Organizes csv files parsed with {@code csvFormat} (which must treat the first record as the header). With
+     * more than one thread, large files are split into chunks on record boundaries and the chunks are categorized
+     * in parallel; the result is the same as parsing every file sequentially. Gzip files and the csv entries of zip
+     * files are decompressed while they are parsed (see {@link CompressedCsvInput}).
+     */
+    public List<CategoryCsvLines> organizeCsvFiles(List<Path> csvFiles, CSVFormat csvFormat,
+                                                   CompiledCsvOrganizerConfig compiledConfig) {
+        List<CategoryCsvLines> organizedCsvs = new ArrayList<>();
+        organizeCsvFiles(csvFiles, csvFormat, compiledConfig, organizedCsvs::add);
+        return organizedCsvs;
+    }
+
+    /**
+     * Like {@link #organizeCsvFiles(List, CSVFormat, CompiledCsvOrganizerConfig)}, but hands each category to the
+     * consumer (in config order) as soon as it is sorted, and keeps no reference to it afterwards.
+     */
+    public void organizeCsvFiles(List<Path> csvFiles, CSVFormat csvFormat, CompiledCsvOrganizerConfig compiledConfig,
+                                 Consumer<CategoryCsvLines> categoryConsumer) {
+        LOG.info("organizing csv from {} files with config: {}", csvFiles.size(), compiledConfig.getConfig());
+        List<Map<String, CategoryCsvLines>> partialResults = new ArrayList<>();
+        IncrementalState incrementalState = openIncrementalState(compiledConfig, csvFormat);
+        RowDeduplicator rowDeduplicator = compiledConfig.newRowDeduplicator();
+        categorize(getCategorizeTasks(csvFiles, csvFormat, compiledConfig, Long.MAX_VALUE, incrementalState,
+                rowDeduplicator, null), rowDeduplicator, compiledConfig.getCategoryMatcher(), partialResults::add);
+        if (incrementalState != null) {
+            incrementalState.save();
+        }
+        mergeAndSort(partialResults, compiledConfig, categoryConsumer);
+    }
+
+    /**
+     * Organizes csv files like {@link #organizeCsvFiles(List, CSVFormat, CompiledCsvOrganizerConfig)} within the
+     * memory budget given at construction. Categorized rows are collected until their estimated size exceeds the
+     * budget, then sorted per category and spilled to temp files; large files are split so that no single chunk
+     * exceeds a fraction of the budget. Each category is then handed to the consumer, in config order, as a
+     * streaming merge of its spilled runs and the rows still in memory. The output is the same as without a budget.
+     */
+    public void streamCsvFiles(List<Path> csvFiles, CSVFormat csvFormat, CompiledCsvOrganizerConfig compiledConfig,
+                               SortedCategoryConsumer sortedCategoryConsumer) {
+        streamCsvFiles(csvFiles, csvFormat, compiledConfig, null, sortedCategoryConsumer);
+    }
+
+    /**
+     * Like {@link #streamCsvFiles(List, CSVFormat, CompiledCsvOrganizerConfig, SortedCategoryConsumer)}, and also
+     * writes the normalized rows to a {@link RowSnapshot} that {@link #streamSnapshot} can categorize again. Every
+     * file is parsed, even with an incremental state, since the snapshot needs values the state does not keep.
+     *
+     * @param snapshotFile the snapshot to write, or null
+     */
+    public void streamCsvFiles(List<Path> csvFiles, CSVFormat csvFormat, CompiledCsvOrganizerConfig compiledConfig,
+                               Path snapshotFile, SortedCategoryConsumer sortedCategoryConsumer) {
+        LOG.info("organizing csv from {} files within {} bytes with config: {}", csvFiles.size(), memoryBudgetBytes,
+                compiledConfig.getConfig());
+        // the 2 * threadCount pending partial results must fit next to the collected rows; rows with mostly unique
+        // values take a few times their csv size in memory
+        long maxChunkBytes = Math.max(MIN_SPILL_CHUNK_BYTES,
+                memoryBudgetBytes / (ROW_BYTES_PER_CSV_BYTE * (2L * threadCount + 1)));
+        try (ExternalCategorySorter externalCategorySorter =
+                     new ExternalCategorySorter(compiledConfig, memoryBudgetBytes, spillDirectory, runMetrics);
+             RowSnapshot.Writer snapshotWriter = snapshotFile == null ? null
+                     : new RowSnapshot.Writer(snapshotFile, compiledConfig)) {
+            IncrementalState incrementalState = openIncrementalState(compiledConfig, csvFormat);
+            RowDeduplicator rowDeduplicator = compiledConfig.newRowDeduplicator();
+            categorize(getCategorizeTasks(csvFiles, csvFormat, compiledConfig, maxChunkBytes, incrementalState,
+                    rowDeduplicator, snapshotWriter), rowDeduplicator, compiledConfig.getCategoryMatcher(),
+                    externalCategorySorter::addAll);
+            if (incrementalState != null) {
+                incrementalState.save();
+            }
+            if (snapshotWriter != null) {
+                snapshotWriter.finish();
+            }
+            finishSorting(externalCategorySorter, sortedCategoryConsumer);
+        }
+    }
+
+    /**
+     * Organizes the rows of a snapshot written by
+     * {@link #streamCsvFiles(List, CSVFormat, CompiledCsvOrganizerConfig, Path, SortedCategoryConsumer)}, within the
+     * memory budget given at construction. Only categories are resolved, rows deduplicated, sorted and aggregated
+     * again, so the config may change anything but its columns, aliases and date transformers. The output is the
+     * same as organizing the original csv files with this config.
+     *
+     * @throws IllegalStateException if the snapshot was written with other columns, aliases or date transformers
+     */
+    public void streamSnapshot(Path snapshotFile, CompiledCsvOrganizerConfig compiledConfig,
+                               SortedCategoryConsumer sortedCategoryConsumer) {
+        LOG.info("organizing snapshot {} within {} bytes with config: {}", snapshotFile, memoryBudgetBytes,
+                compiledConfig.getConfig());
+        try (ExternalCategorySorter externalCategorySorter =
+                     new ExternalCategorySorter(compiledConfig, memoryBudgetBytes, spillDirectory, runMetrics);
+             RowSnapshot.Reader snapshotReader = new RowSnapshot.Reader(snapshotFile, compiledConfig)) {
+            RowDeduplicator rowDeduplicator = compiledConfig.newRowDeduplicator();
+            List<List<Callable<Map<String, CategoryCsvLines>>>> tasksPerInput = new ArrayList<>();
+            for (RowSnapshot.Input snapshotInput : snapshotReader.getInputs()) {
+                RunMetrics.InputMetrics input = runMetrics.addInput(snapshotInput.getName(), snapshotInput.getBytes());
+                List<Callable<Map<String, CategoryCsvLines>>> tasks = new ArrayList<>();
+                for (RowSnapshot.Block block : snapshotInput.getBlocks()) {
+                    tasks.add(() -> getCategoryToLines(snapshotReader, block, compiledConfig, input,
+                            rowDeduplicator));
+                }
+                tasksPerInput.add(tasks);
+            }
+            categorize(tasksPerInput, rowDeduplicator, compiledConfig.getCategoryMatcher(),
+                    externalCategorySorter::addAll);
+            finishSorting(externalCategorySorter, sortedCategoryConsumer);
+        }
+    }
+
+    /**
+     * Merges partial results, each written by a run over a subset of the inputs with a {@link PartialResult.Writer}
+     * as its consumer, and hands each category to the consumer, in config order, as a streaming k-way merge of the
+     * partial results' sorted rows. If the partial results are given in the order of their inputs, the output is the
+     * same as organizing all of the inputs in a single run.
+     *
+     * @throws IllegalStateException if a partial result was written with another config or csv format
+     */
+    public void mergePartialResults(List<Path> partialFiles, CSVFormat csvFormat,
+                                    CompiledCsvOrganizerConfig compiledConfig,
+                                    SortedCategoryConsumer sortedCategoryConsumer) {
+        LOG.info("merging {} partial results with config: {}", partialFiles.size(), compiledConfig.getConfig());
+        PartialResult.merge(partialFiles, compiledConfig, csvFormat, sortedCategoryConsumer, runMetrics);
+    }
+
+    /**
+     * Streams the categorized rows of csv files, unsorted, as they are resolved: chunk by chunk in input order, and
+     * within a chunk grouped by category in config order. Files are processed in chunks of at most the minimum
+     * chunk size even with a single thread, and a slow subscriber holds back categorization, so only a few chunks
+     * are in memory at a time. The run starts when the publisher is subscribed to; it can only be subscribed to
+     * once.
+     */
+    public Flow.Publisher<CategorizedRow> publishCsvFiles(List<Path> csvFiles, CSVFormat csvFormat,
+                                                          CompiledCsvOrganizerConfig compiledConfig) {
+        return new RowPublisher(csvFiles.size() + "-files", rowSink -> {
+            LOG.info("publishing categorized rows of {} files with config: {}", csvFiles.size(),
+                    compiledConfig.getConfig());
+            IncrementalState incrementalState = openIncrementalState(compiledConfig, csvFormat);
+            RowDeduplicator rowDeduplicator = compiledConfig.newRowDeduplicator();
+            List<String> categoriesInOrder = compiledConfig.getCategoriesInOrder();
+            categorize(getCategorizeTasks(csvFiles, csvFormat, compiledConfig, minChunkBytes, incrementalState,
+                    rowDeduplicator, null), rowDeduplicator, compiledConfig.getCategoryMatcher(), categoryToLines -> {
+                for (String category : categoriesInOrder) {
+                    CategoryCsvLines lines = categoryToLines.get(category);
+                    if (lines != null) {
+                        for (Iterator<String[]> rows = lines.rowIterator(); rows.hasNext(); ) {
+                            rowSink.accept(new CategorizedRow(category, rows.next(), null));
+                        }
+                    }
+                }
+            });
+            if (incrementalState != null) {
+                incrementalState.save();
+            }
+        });
+    }
+
+    /**
+     * Streams the organized rows of csv files like
+     * {@link #streamCsvFiles(List, CSVFormat, CompiledCsvOrganizerConfig, SortedCategoryConsumer)}: category by
+     * category in config order, each sorted, within the memory budget given at construction. A category is emitted
+     * as soon as all inputs are categorized and its sorted runs can be merged; its last row carries its aggregates.
+     * The run starts when the publisher is subscribed to; it can only be subscribed to once.
+     */
+    public Flow.Publisher<CategorizedRow> publishSortedCsvFiles(List<Path> csvFiles, CSVFormat csvFormat,
+                                                                CompiledCsvOrganizerConfig compiledConfig) {
+        return new RowPublisher(csvFiles.size() + "-files-sorted", rowSink ->
+                streamCsvFiles(csvFiles, csvFormat, compiledConfig, (category, sortedRows, aggregates) -> {
+                    while (sortedRows.hasNext()) {
+                        String[] values = sortedRows.next();
+                        rowSink.accept(new CategorizedRow(category, values, sortedRows.hasNext() ? null : aggregates));
+                    }
+                }));
+    }
 
-            Map<String, CategoryCsvLines> categoryToLines = getCategoryToLines(inputCsv, csvOrganizerConfig);
+    /**
+     * Organizes csv files for several configs in a single pass, like calling
+     * {@link #streamCsvFiles(List, CSVFormat, CompiledCsvOrganizerConfig, SortedCategoryConsumer)} once per config:
+     * every record is parsed once and each cell any config binds is trimmed once, then every config applies its own
+     * aliases, rules, date transformers and deduplication to it and collects its own categories. The memory budget
+     * given at construction is shared evenly by the configs. Each config's categories then go to its consumer, one
+     * config after another. The output of every config is the same as in a run of its own.
+     *
+     * Files are always parsed; the incremental state and snapshots of single config runs are not used.
+     *
+     * @param sortedCategoryConsumers the consumer of each config, in config order
+     */
+    public void fanOutCsvFiles(List<Path> csvFiles, CSVFormat csvFormat,
+                               List<CompiledCsvOrganizerConfig> compiledConfigs,
+                               List<SortedCategoryConsumer> sortedCategoryConsumers) {
+        if (compiledConfigs.isEmpty() || compiledConfigs.size() != sortedCategoryConsumers.size()) {
+            throw new IllegalArgumentException("expected a consumer for each of at least one config but got "
+                    + compiledConfigs.size() + " configs and " + sortedCategoryConsumers.size() + " consumers");
+        }
+        int configCount = compiledConfigs.size();
+        LOG.info("organizing csv from {} files for {} configs within {} bytes", csvFiles.size(), configCount,
+                memoryBudgetBytes);
+        long configBudgetBytes = Math.max(1, memoryBudgetBytes / configCount);
+        long maxChunkBytes = Math.max(MIN_SPILL_CHUNK_BYTES,
+                configBudgetBytes / (ROW_BYTES_PER_CSV_BYTE * (2L * threadCount + 1)));
+        long overBudgetLookups = 0;
+        for (CompiledCsvOrganizerConfig compiledConfig : compiledConfigs) {
+            overBudgetLookups -= compiledConfig.getCategoryMatcher().getOverBudgetLookups();
+        }
+        List<ExternalCategorySorter> externalCategorySorters = new ArrayList<>();
+        try {
+            for (CompiledCsvOrganizerConfig compiledConfig : compiledConfigs) {
+                externalCategorySorters.add(new ExternalCategorySorter(compiledConfig, configBudgetBytes,
+                        spillDirectory, runMetrics));
+            }
+            List<RowDeduplicator> rowDeduplicators = new ArrayList<>();
+            compiledConfigs.forEach(compiledConfig -> rowDeduplicators.add(compiledConfig.newRowDeduplicator()));
+            runInputs(getFanOutTasks(csvFiles, csvFormat, compiledConfigs, maxChunkBytes, rowDeduplicators),
+                    rowDeduplicators, categoryToLinesPerConfig -> {
+                        for (int config = 0; config < configCount; config++) {
+                            externalCategorySorters.get(config).addAll(categoryToLinesPerConfig.get(config));
+                        }
+                    });
+            for (CompiledCsvOrganizerConfig compiledConfig : compiledConfigs) {
+                overBudgetLookups += compiledConfig.getCategoryMatcher().getOverBudgetLookups();
+            }
+            addOverBudgetRows(overBudgetLookups);
+            for (int config = 0; config < configCount; config++) {
+                if (rowDeduplicators.get(config) != null) {
+                    LOG.info("dropped {} duplicate rows for config {}", rowDeduplicators.get(config)
+                            .getDuplicateCount(), config + 1);
+                }
+                finishSorting(externalCategorySorters.get(config), sortedCategoryConsumers.get(config));
+            }
+        } finally {
+            externalCategorySorters.forEach(ExternalCategorySorter::close);
+        }
+    }
+
+    private void finishSorting(ExternalCategorySorter externalCategorySorter,
+                               SortedCategoryConsumer sortedCategoryConsumer) {
+        if (externalCategorySorter.getSpillCount() > 0) {
+            LOG.info("spilled rows {} times, merging sorted runs", externalCategorySorter.getSpillCount());
+        }
+        externalCategorySorter.finish((category, sortedRows, aggregates) -> {
+            long start = runMetrics.startTimer();
+            sortedCategoryConsumer.accept(category, sortedRows, aggregates);
+            runMetrics.addTime(RunMetrics.Stage.OUTPUT, start);
+        });
+    }
+
+    private IncrementalState openIncrementalState(CompiledCsvOrganizerConfig compiledConfig, CSVFormat csvFormat) {
+        return stateDirectory == null ? null
+                : IncrementalState.open(stateDirectory, compiledConfig, csvFormat, sniffDialect);
+    }
+
+    /**
+     * Runs the categorize tasks of all inputs and hands their results to the consumer in order. With deduplication,
+     * the inputs are run one after another (the chunks of an input still in parallel), so which rows are dropped
+     * only depends on the input order.
+     */
+    private void categorize(List<List<Callable<Map<String, CategoryCsvLines>>>> tasksPerInput,
+                            RowDeduplicator rowDeduplicator,
+                            CategoryMatcher categoryMatcher,
+                            Consumer<Map<String, CategoryCsvLines>> categorizedConsumer) {
+        // the matcher and its cache outlive the run, so only the lookups of this run are recorded
+        long cacheHits = categoryMatcher.getCacheHits();
+        long cacheMisses = categoryMatcher.getCacheMisses();
+        long overBudgetLookups = categoryMatcher.getOverBudgetLookups();
+        Consumer<Map<String, CategoryCsvLines>> resultConsumer = !runMetrics.isEnabled() ? categorizedConsumer
+                : categoryToLines -> {
+                    categoryToLines.forEach((category, lines) -> runMetrics.addCategoryRows(category, lines.size()));
+                    categorizedConsumer.accept(categoryToLines);
+                };
+        runInputs(tasksPerInput, Collections.singletonList(rowDeduplicator), resultConsumer);
+        if (rowDeduplicator != null) {
+            LOG.info("dropped {} duplicate rows", rowDeduplicator.getDuplicateCount());
+            runMetrics.addDuplicateRows(rowDeduplicator.getDuplicateCount());
+        }
+        long runCacheHits = categoryMatcher.getCacheHits() - cacheHits;
+        long runCacheMisses = categoryMatcher.getCacheMisses() - cacheMisses;
+        LOG.debug("category cache answered {} of {} lookups", runCacheHits, runCacheHits + runCacheMisses);
+        runMetrics.addCategoryCacheLookups(runCacheHits, runCacheMisses);
+        addOverBudgetRows(categoryMatcher.getOverBudgetLookups() - overBudgetLookups);
+    }
+
+    /**
+     * Reports the rows given the default category because a rule exceeded the regex step budget; every such row
+     * takes a single lookup, since no further columns are tried after it.
+     */
+    private void addOverBudgetRows(long overBudgetRows) {
+        if (overBudgetRows > 0) {
+            LOG.warn("{} rows exceeded the regex step budget and were given the default category", overBudgetRows);
+        }
+        runMetrics.addOverBudgetRows(overBudgetRows);
+    }
+
+    /**
+     * Runs the tasks of all inputs and hands their results to the consumer in order. If any of the deduplicators is
+     * not null, the inputs are run one after another and every deduplicator is told when an input is finished.
+     */
+    private <T> void runInputs(List<List<Callable<T>>> tasksPerInput, List<RowDeduplicator> rowDeduplicators,
+                               Consumer<T> resultConsumer) {
+        if (rowDeduplicators.stream().allMatch(Objects::isNull)) {
+            List<Callable<T>> tasks = new ArrayList<>();
+            tasksPerInput.forEach(tasks::addAll);
+            runInOrder(tasks, resultConsumer);
+            return;
+        }
+        for (List<Callable<T>> inputTasks : tasksPerInput) {
+            runInOrder(inputTasks, resultConsumer);
+            rowDeduplicators.stream().filter(Objects::nonNull).forEach(RowDeduplicator::finishInput);
+        }
+    }
+
+    /**
+     * @param maxChunkBytes    files larger than this are split into chunks of at most about this size
+     * @param incrementalState state to load the rows of unchanged files from and to store the rows of other files in,
+     *                         or null
+     * @param rowDeduplicator  deduplication state of the run, or null
+     * @param snapshotWriter   snapshot to write the rows of every task to, or null
+     * @return the tasks of every file, in file order
+     */
+    private List<List<Callable<Map<String, CategoryCsvLines>>>> getCategorizeTasks(
+            List<Path> csvFiles, CSVFormat csvFormat, CompiledCsvOrganizerConfig compiledConfig, long maxChunkBytes,
+            IncrementalState incrementalState, RowDeduplicator rowDeduplicator, RowSnapshot.Writer snapshotWriter) {
+        List<List<Callable<Map<String, CategoryCsvLines>>>> tasksPerInput = new ArrayList<>();
+        // stored rows are kept as parsed, so with a state they are deduplicated after storing or loading them
+        RowDeduplicator parseDeduplicator = incrementalState == null ? rowDeduplicator : null;
+        for (Path csvFile : csvFiles) {
+            List<Callable<Map<String, CategoryCsvLines>>> tasks = new ArrayList<>();
+            tasksPerInput.add(tasks);
+            try {
+                long size = Files.size(csvFile);
+                RunMetrics.InputMetrics input = runMetrics.addInput(csvFile.toString(), size);
+                String hash = incrementalState == null ? null : incrementalState.hash(csvFile);
+                int storedChunkCount = hash == null || snapshotWriter != null ? -1
+                        : incrementalState.getStoredChunkCount(hash);
+                if (storedChunkCount >= 0) {
+                    LOG.info("reusing the stored rows of unchanged {}", csvFile);
+                    for (int chunk = 0; chunk < storedChunkCount; chunk++) {
+                        int storedChunk = chunk;
+                        tasks.add(() -> dropDuplicates(loadStoredRows(incrementalState, hash, storedChunk, input),
+                                compiledConfig, rowDeduplicator));
+                    }
+                    continue;
+                }
+                List<CompressedCsvInput> compressedInputs = CompressedCsvInput.list(csvFile);
+                if (compressedInputs != null) {
+                    LOG.info("reading {} compressed csv streams from {}", compressedInputs.size(), csvFile);
+                    for (int entry = 0; entry < compressedInputs.size(); entry++) {
+                        CompressedCsvInput compressedInput = compressedInputs.get(entry);
+                        RowSnapshot.Writer.Part snapshotPart = newSnapshotPart(snapshotWriter, tasksPerInput, csvFile);
+                        tasks.add(storingRows(incrementalState, hash, entry, compiledConfig, rowDeduplicator,
+                                () -> getCategoryToLines(CSVParser.parse(compressedInput.open(),
+                                        StandardCharsets.UTF_8, csvFormat), null, compiledConfig, input,
+                                        parseDeduplicator, snapshotPart)));
+                    }
+                    if (incrementalState != null) {
+                        incrementalState.addEntry(hash, compressedInputs.size());
+                    }
+                    continue;
+                }
+                CsvDialect dialect = sniffDialect ? CsvDialect.sniff(csvFile, csvFormat) : null;
+                CSVFormat fileFormat = dialect == null ? csvFormat : dialect.getCsvFormat();
+                int chunkCount = getChunkCount(size, maxChunkBytes);
+                boolean tokenizeBytes = byteTokenizer && ByteCsvTokenizer.supports(fileFormat);
+                if (chunkCount == 1) {
+                    RowSnapshot.Writer.Part snapshotPart = newSnapshotPart(snapshotWriter, tasksPerInput, csvFile);
+                    tasks.add(storingRows(incrementalState, hash, 0, compiledConfig, rowDeduplicator,
+                            tokenizeBytes && size <= maxMappedBytes
+                                    ? () -> tokenizeCsvFile(csvFile, fileFormat, dialect, compiledConfig, input,
+                                            parseDeduplicator, snapshotPart)
+                                    : () -> getCategoryToLines(CSVParser.parse(Files.newInputStream(csvFile),
+                                            StandardCharsets.UTF_8, fileFormat), dialect, compiledConfig, input,
+                                            parseDeduplicator, snapshotPart)));
+                    if (incrementalState != null) {
+                        incrementalState.addEntry(hash, 1);
+                    }
+                    continue;
+                }
+                CsvFileSplitter.CsvFileSplit csvFileSplit = CsvFileSplitter.split(csvFile, fileFormat, chunkCount,
+                        maxMappedBytes);
+                LOG.info("split {} of {} bytes into {} chunks", csvFile, size, csvFileSplit.getChunks().size());
+                HeaderBinding headerBinding = bindHeader(csvFileSplit.getHeaderMap(), compiledConfig, dialect, input);
+                List<CsvFileSplitter.CsvChunk> chunks = csvFileSplit.getChunks();
+                for (int chunkIndex = 0; chunkIndex < chunks.size(); chunkIndex++) {
+                    CsvFileSplitter.CsvChunk chunk = chunks.get(chunkIndex);
+                    RowSnapshot.Writer.Part snapshotPart = newSnapshotPart(snapshotWriter, tasksPerInput, csvFile);
+                    tasks.add(storingRows(incrementalState, hash, chunkIndex, compiledConfig, rowDeduplicator,
+                            () -> getCategoryToLines(tokenizeBytes && csvFileSplit.canMap(chunk)
+                                            ? new ByteCsvTokenizer(csvFile.toString(), csvFileSplit.mapChunk(chunk),
+                                                    fileFormat, headerBinding.getRecordIndexes())
+                                            : BoundRecordReader.of(csvFileSplit.openChunk(chunk),
+                                                    headerBinding.getRecordIndexes()),
+                                    headerBinding, compiledConfig, input, parseDeduplicator, snapshotPart)));
+                }
+                if (incrementalState != null) {
+                    incrementalState.addEntry(hash, chunks.size());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("failed to load csv file " + csvFile, e);
+            }
+        }
+        return tasksPerInput;
+    }
+
+    /**
+     * @return the number of chunks to split a file of the given size into, 1 to parse it as a whole; at least enough
+     * for every chunk to fit in a mapped buffer
+     */
+    int getChunkCount(long size, long maxChunkBytes) {
+        int chunkCount = threadCount == 1 ? 1
+                : (int) Math.min(threadCount * CHUNKS_PER_THREAD, Math.max(1, size / minChunkBytes));
+        long chunkBytes = Math.min(maxChunkBytes, maxMappedBytes);
+        return (int) Math.max(chunkCount, Math.min(Integer.MAX_VALUE, (size - 1) / chunkBytes + 1));
+    }
+
+    private static RowSnapshot.Writer.Part newSnapshotPart(RowSnapshot.Writer snapshotWriter,
+                                                           List<?> tasksPerInput, Path csvFile) {
+        // the tasks of the current file were already added
+        return snapshotWriter == null ? null : snapshotWriter.newPart(tasksPerInput.size() - 1, csvFile.toString());
+    }
+
+    /**
+     * @return the task, followed by storing its result as the given chunk of the file's rows and dropping duplicates
+     * from it if there is a state
+     */
+    private static Callable<Map<String, CategoryCsvLines>> storingRows(IncrementalState incrementalState, String hash,
+                                                                       int chunk,
+                                                                       CompiledCsvOrganizerConfig compiledConfig,
+                                                                       RowDeduplicator rowDeduplicator,
+                                                                       Callable<Map<String, CategoryCsvLines>> task) {
+        if (incrementalState == null) {
+            return task;
+        }
+        return () -> {
+            Map<String, CategoryCsvLines> categoryToLines = task.call();
+            incrementalState.store(hash, chunk, categoryToLines);
+            return dropDuplicates(categoryToLines, compiledConfig, rowDeduplicator);
+        };
+    }
+
+    /**
+     * @return the categorized rows of a chunk without the rows that repeat rows of earlier inputs
+     */
+    private static Map<String, CategoryCsvLines> dropDuplicates(Map<String, CategoryCsvLines> categoryToLines,
+                                                               CompiledCsvOrganizerConfig compiledConfig,
+                                                               RowDeduplicator rowDeduplicator) {
+        if (rowDeduplicator == null) {
+            return categoryToLines;
+        }
+        RowDeduplicator.ChunkFilter chunkFilter = rowDeduplicator.newChunkFilter();
+        Map<String, CategoryCsvLines> keptCategoryToLines = new HashMap<>();
+        categoryToLines.forEach((category, lines) -> {
+            CategoryCsvLines keptLines = new CategoryCsvLines(category, lines.getColumnNames(),
+                    compiledConfig.newCategoryAggregates());
+            for (Iterator<String[]> rows = lines.rowIterator(); rows.hasNext(); ) {
+                String[] row = rows.next();
+                if (!chunkFilter.isDuplicate(row)) {
+                    keptLines.addRow(row);
+                }
+            }
+            if (keptLines.size() > 0) {
+                keptCategoryToLines.put(category, keptLines);
+            }
+        });
+        rowDeduplicator.addChunk(chunkFilter);
+        return keptCategoryToLines;
+    }
+
+    private Map<String, CategoryCsvLines> loadStoredRows(IncrementalState incrementalState, String hash, int chunk,
+                                                         RunMetrics.InputMetrics input) {
+        long start = runMetrics.startTimer();
+        Map<String, CategoryCsvLines> categoryToLines = incrementalState.load(hash, chunk);
+        if (runMetrics.isEnabled()) {
+            runMetrics.addInputRows(input, categoryToLines.values().stream().mapToLong(CategoryCsvLines::size).sum(),
+                    start);
+        }
+        return categoryToLines;
+    }
+
+    /**
+     * Merges the partial results in the given order, so rows keep the order a sequential run would give them, and
+     * passes them on in the order specified by config with each category's lines sorted as specified.
+     */
+    private void mergeAndSort(List<Map<String, CategoryCsvLines>> partialResults,
+                              CompiledCsvOrganizerConfig compiledConfig,
+                              Consumer<CategoryCsvLines> categoryConsumer) {
+        final Map<String, CategoryCsvLines> allCategoriesToLines = new HashMap<>();
+        for (Map<String, CategoryCsvLines> categoryToLines : partialResults) {
             if (categoryToLines == null || categoryToLines.isEmpty()) {
                 LOG.warn("organizing returned nothing, check the configuration you provided");
             } else {
@@ -46,217 +733,655 @@ public class CsvCategorizeAndMerge {
                     if (categoryCsvLines == null) {
                         allCategoriesToLines.put(singleOrganizedCsvEntry.getKey(), singleOrganizedCsvEntry.getValue());
                     } else {
-                        categoryCsvLines.getCsvLines().addAll(singleOrganizedCsvEntry.getValue().getCsvLines());
+                        categoryCsvLines.addAll(singleOrganizedCsvEntry.getValue());
                     }
                 });
             }
         }
 
-        // return them in the order specified by config, with each category's lines sorted as specified
-        final List<CategoryCsvLines> organizedCsvs = new ArrayList<>();
-        List<String> categories = new ArrayList<>();
-        categories.add(csvOrganizerConfig.getDefaultCategoryName());
-        categories.addAll(csvOrganizerConfig.getCategoryConfigs().stream()
-                .map(CsvOrganizerCategoryConfig::getCategory).toList());
-        categories.forEach(category -> {
-            CategoryCsvLines categoryCsvLines = allCategoriesToLines.get(category);
+        compiledConfig.getCategoriesInOrder().forEach(category -> {
+            CategoryCsvLines categoryCsvLines = allCategoriesToLines.remove(category);
             if (categoryCsvLines == null) {
                 LOG.debug("categoryCsvLines was null for category={}", category);
             } else {
-                sortCategoryCsvLines(categoryCsvLines, csvOrganizerConfig);
-                organizedCsvs.add(categoryCsvLines);
+                long start = runMetrics.startTimer();
+                compiledConfig.getRowSorter().sort(categoryCsvLines);
+                runMetrics.addTime(RunMetrics.Stage.SORT, start);
+                start = runMetrics.startTimer();
+                categoryConsumer.accept(categoryCsvLines);
+                runMetrics.addTime(RunMetrics.Stage.OUTPUT, start);
             }
         });
+    }
 
-        return organizedCsvs;
+    /**
+     * Runs the tasks on a fork-join pool of {@code threadCount} threads (or inline with a single thread) and hands
+     * their results to the consumer in task order. At most {@code 2 * threadCount} results are pending at a time,
+     * so results are released as soon as the consumer is done with them.
+     */
+    private <T> void runInOrder(List<Callable<T>> tasks, Consumer<T> resultConsumer) {
+        try {
+            if (threadCount == 1 || tasks.size() < 2) {
+                for (Callable<T> task : tasks) {
+                    resultConsumer.accept(task.call());
+                }
+                return;
+            }
+
+            int parallelism = Math.min(threadCount, tasks.size());
+            LOG.info("categorizing {} inputs with {} threads", tasks.size(), parallelism);
+            ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+            try {
+                Deque<Future<T>> window = new ArrayDeque<>();
+                Iterator<Callable<T>> pendingTasks = tasks.iterator();
+                while (pendingTasks.hasNext() || !window.isEmpty()) {
+                    while (pendingTasks.hasNext() && window.size() < 2 * parallelism) {
+                        window.add(forkJoinPool.submit(pendingTasks.next()));
+                    }
+                    resultConsumer.accept(window.poll().get());
+                }
+            } finally {
+                forkJoinPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while categorizing inputs", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("failed to categorize input", e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("failed to categorize input", e);
+        }
+    }
+
+    /**
+     * @param dialect the sniffed dialect of the input, or null
+     */
+    private Map<String, CategoryCsvLines> getCategoryToLines(CSVParser inputCsv,
+                                                      CsvDialect dialect,
+                                                      CompiledCsvOrganizerConfig compiledConfig,
+                                                      RunMetrics.InputMetrics input,
+                                                      RowDeduplicator rowDeduplicator,
+                                                      RowSnapshot.Writer.Part snapshotPart) {
+        LOG.debug("processing inputCsv with headerMap={}", inputCsv.getHeaderMap());
+        HeaderBinding headerBinding = bindHeader(inputCsv.getHeaderMap(), compiledConfig, dialect, input);
+        LOG.debug("bound header of inputCsv: {}", headerBinding);
+        return getCategoryToLines(BoundRecordReader.of(inputCsv, headerBinding.getRecordIndexes()), headerBinding,
+                compiledConfig, input, rowDeduplicator, snapshotPart);
     }
 
-    private void sortCategoryCsvLines(CategoryCsvLines categoryCsvLines, CsvOrganizerConfig csvOrganizerConfig) {
-        categoryCsvLines.getCsvLines().sort((cellMap1, cellMap2) -> {
-            if (SortType.DESC.equals(csvOrganizerConfig.getSortType())) {
-                Map<String, String> temp = cellMap2;
-                cellMap2 = cellMap1;
-                cellMap1 = temp;
+    /**
+     * Binds the header of an input, and if its dialect was sniffed, the input formats of its date columns.
+     *
+     * @param dialect the sniffed dialect of the input, or null
+     */
+    private HeaderBinding bindHeader(Map<String, Integer> headerMap, CompiledCsvOrganizerConfig compiledConfig,
+                                     CsvDialect dialect, RunMetrics.InputMetrics input) {
+        long start = runMetrics.startTimer();
+        HeaderBinding headerBinding = HeaderBinding.bind(headerMap, compiledConfig);
+        if (dialect != null) {
+            headerBinding = dialect.bindDateFormats(headerBinding, compiledConfig);
+            runMetrics.setInputDialect(input, dialect.toString());
+        }
+        runMetrics.addTime(RunMetrics.Stage.ALIAS_RESOLUTION, start);
+        return headerBinding;
+    }
+
+    /**
+     * Categorizes a whole csv file with a {@link ByteCsvTokenizer} over the mapped file. The header is parsed by
+     * commons-csv, and so is the whole file if the tokenizer cannot find the end of the header.
+     */
+    private Map<String, CategoryCsvLines> tokenizeCsvFile(Path csvFile, CSVFormat csvFormat, CsvDialect dialect,
+                                                          CompiledCsvOrganizerConfig compiledConfig,
+                                                          RunMetrics.InputMetrics input,
+                                                          RowDeduplicator rowDeduplicator,
+                                                          RowSnapshot.Writer.Part snapshotPart) throws IOException {
+        ByteBuffer buffer = ByteCsvTokenizer.map(csvFile);
+        Map<String, Integer> headerMap = ByteCsvTokenizer.readHeader(buffer, csvFormat);
+        if (headerMap == null) {
+            return getCategoryToLines(CSVParser.parse(Files.newInputStream(csvFile), StandardCharsets.UTF_8,
+                    csvFormat), dialect, compiledConfig, input, rowDeduplicator, snapshotPart);
+        }
+        HeaderBinding headerBinding = bindHeader(headerMap, compiledConfig, dialect, input);
+        return getCategoryToLines(new ByteCsvTokenizer(csvFile.toString(), buffer, csvFormat,
+                headerBinding.getRecordIndexes()), headerBinding, compiledConfig, input, rowDeduplicator, snapshotPart);
+    }
+
+    /**
+     * @return the tasks of every file, in file order, each categorizing a file, chunk or compressed entry for every
+     * config
+     */
+    private List<List<Callable<List<Map<String, CategoryCsvLines>>>>> getFanOutTasks(
+            List<Path> csvFiles, CSVFormat csvFormat, List<CompiledCsvOrganizerConfig> compiledConfigs,
+            long maxChunkBytes, List<RowDeduplicator> rowDeduplicators) {
+        List<List<Callable<List<Map<String, CategoryCsvLines>>>>> tasksPerInput = new ArrayList<>();
+        for (Path csvFile : csvFiles) {
+            List<Callable<List<Map<String, CategoryCsvLines>>>> tasks = new ArrayList<>();
+            tasksPerInput.add(tasks);
+            try {
+                long size = Files.size(csvFile);
+                RunMetrics.InputMetrics input = runMetrics.addInput(csvFile.toString(), size);
+                List<CompressedCsvInput> compressedInputs = CompressedCsvInput.list(csvFile);
+                if (compressedInputs != null) {
+                    LOG.info("reading {} compressed csv streams from {}", compressedInputs.size(), csvFile);
+                    for (CompressedCsvInput compressedInput : compressedInputs) {
+                        tasks.add(() -> fanOut(CSVParser.parse(compressedInput.open(), StandardCharsets.UTF_8,
+                                csvFormat), null, compiledConfigs, input, rowDeduplicators));
+                    }
+                    continue;
+                }
+                CsvDialect dialect = sniffDialect ? CsvDialect.sniff(csvFile, csvFormat) : null;
+                CSVFormat fileFormat = dialect == null ? csvFormat : dialect.getCsvFormat();
+                boolean tokenizeBytes = byteTokenizer && ByteCsvTokenizer.supports(fileFormat);
+                int chunkCount = getChunkCount(size, maxChunkBytes);
+                if (chunkCount == 1) {
+                    tasks.add(tokenizeBytes && size <= maxMappedBytes
+                            ? () -> fanOutTokenized(csvFile, fileFormat, dialect, compiledConfigs, input,
+                                    rowDeduplicators)
+                            : () -> fanOut(CSVParser.parse(Files.newInputStream(csvFile), StandardCharsets.UTF_8,
+                                    fileFormat), dialect, compiledConfigs, input, rowDeduplicators));
+                    continue;
+                }
+                CsvFileSplitter.CsvFileSplit csvFileSplit = CsvFileSplitter.split(csvFile, fileFormat, chunkCount,
+                        maxMappedBytes);
+                LOG.info("split {} of {} bytes into {} chunks", csvFile, size, csvFileSplit.getChunks().size());
+                List<HeaderBinding> headerBindings = bindAll(csvFileSplit.getHeaderMap(), dialect, compiledConfigs,
+                        input);
+                int[] recordIndexes = getRecordIndexes(headerBindings);
+                for (CsvFileSplitter.CsvChunk chunk : csvFileSplit.getChunks()) {
+                    tasks.add(() -> getCategoryToLinesPerConfig(tokenizeBytes && csvFileSplit.canMap(chunk)
+                                    ? new ByteCsvTokenizer(csvFile.toString(), csvFileSplit.mapChunk(chunk), fileFormat,
+                                            recordIndexes)
+                                    : BoundRecordReader.of(csvFileSplit.openChunk(chunk), recordIndexes),
+                            recordIndexes, headerBindings, compiledConfigs, input, rowDeduplicators));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("failed to load csv file " + csvFile, e);
             }
-            String safeStr1 = ensureNotNull(csvOrganizerConfig, cellMap1);
-            String safeStr2 = ensureNotNull(csvOrganizerConfig, cellMap2);
-            return safeStr1.compareTo(safeStr2);
-        });
+        }
+        return tasksPerInput;
     }
 
-    private static String ensureNotNull(CsvOrganizerConfig csvOrganizerConfig, Map<String, String> cellMap) {
-        return cellMap.get(csvOrganizerConfig.getSortColumnName()) == null ?
-                "" : cellMap.get(csvOrganizerConfig.getSortColumnName());
+    private List<Map<String, CategoryCsvLines>> fanOut(CSVParser inputCsv, CsvDialect dialect,
+                                                       List<CompiledCsvOrganizerConfig> compiledConfigs,
+                                                       RunMetrics.InputMetrics input,
+                                                       List<RowDeduplicator> rowDeduplicators) {
+        List<HeaderBinding> headerBindings = bindAll(inputCsv.getHeaderMap(), dialect, compiledConfigs, input);
+        int[] recordIndexes = getRecordIndexes(headerBindings);
+        return getCategoryToLinesPerConfig(BoundRecordReader.of(inputCsv, recordIndexes), recordIndexes,
+                headerBindings, compiledConfigs, input, rowDeduplicators);
     }
 
-    private Map<String, CategoryCsvLines> getCategoryToLines(CSVParser inputCsv,
-                                                      CsvOrganizerConfig csvOrganizerConfig) {
+    private List<Map<String, CategoryCsvLines>> fanOutTokenized(Path csvFile, CSVFormat csvFormat,
+                                                                CsvDialect dialect,
+                                                                List<CompiledCsvOrganizerConfig> compiledConfigs,
+                                                                RunMetrics.InputMetrics input,
+                                                                List<RowDeduplicator> rowDeduplicators)
+            throws IOException {
+        ByteBuffer buffer = ByteCsvTokenizer.map(csvFile);
+        Map<String, Integer> headerMap = ByteCsvTokenizer.readHeader(buffer, csvFormat);
+        if (headerMap == null) {
+            return fanOut(CSVParser.parse(Files.newInputStream(csvFile), StandardCharsets.UTF_8, csvFormat),
+                    dialect, compiledConfigs, input, rowDeduplicators);
+        }
+        List<HeaderBinding> headerBindings = bindAll(headerMap, dialect, compiledConfigs, input);
+        int[] recordIndexes = getRecordIndexes(headerBindings);
+        return getCategoryToLinesPerConfig(new ByteCsvTokenizer(csvFile.toString(), buffer, csvFormat,
+                recordIndexes), recordIndexes, headerBindings, compiledConfigs, input, rowDeduplicators);
+    }
 
-        Map<String, CategoryCsvLines> categoryToLines = new HashMap<>();
-        try {
-            inputCsv.forEach(csvRecord -> {
-                Map<String, String> csvLineAsMap = csvRecord.toMap();
+    private List<HeaderBinding> bindAll(Map<String, Integer> headerMap, CsvDialect dialect,
+                                        List<CompiledCsvOrganizerConfig> compiledConfigs,
+                                        RunMetrics.InputMetrics input) {
+        List<HeaderBinding> headerBindings = new ArrayList<>();
+        compiledConfigs.forEach(compiledConfig -> headerBindings.add(bindHeader(headerMap, compiledConfig, dialect,
+                input)));
+        return headerBindings;
+    }
 
-                CategoryCsvLines categorizedCsvLine = categorizeCsvLine(csvLineAsMap, csvOrganizerConfig);
-                LOG.debug("resolved categorizedCsvLine: {}\n", categorizedCsvLine);
+    /**
+     * @return the record indexes bound by any of the bindings, ascending
+     */
+    private static int[] getRecordIndexes(List<HeaderBinding> headerBindings) {
+        return headerBindings.stream().flatMapToInt(headerBinding -> Arrays.stream(headerBinding.getRecordIndexes()))
+                .distinct().sorted().toArray();
+    }
 
-                CategoryCsvLines existingLines = categoryToLines.get(categorizedCsvLine.getCategoryName());
-                if (existingLines == null) {
-                    categoryToLines.put(categorizedCsvLine.getCategoryName(), categorizedCsvLine);
-                } else {
-                    existingLines.getCsvLines().addAll(categorizedCsvLine.getCsvLines());
+    /**
+     * Categorizes every record of the reader for each config, and closes the reader. The reader reads the union of
+     * the record indexes of the bindings, so a cell several configs bind is read and trimmed once; each config then
+     * sees it through its own binding, as if the record had been read for that config alone.
+     *
+     * @param recordIndexes the record indexes the reader reads, ascending
+     * @return the categorized rows of each config, in config order
+     */
+    private List<Map<String, CategoryCsvLines>> getCategoryToLinesPerConfig(
+            BoundRecordReader recordReader, int[] recordIndexes, List<HeaderBinding> headerBindings,
+            List<CompiledCsvOrganizerConfig> compiledConfigs, RunMetrics.InputMetrics input,
+            List<RowDeduplicator> rowDeduplicators) {
+        long taskStart = runMetrics.startTimer();
+        int configCount = compiledConfigs.size();
+        List<Map<String, CategoryCsvLines>> categoryToLinesPerConfig = new ArrayList<>();
+        RowDeduplicator.ChunkFilter[] chunkFilters = new RowDeduplicator.ChunkFilter[configCount];
+        int[][] cellSlots = new int[configCount][];
+        String[][] configCells = new String[configCount][];
+        String[][] normalizedValues = new String[configCount][];
+        for (int config = 0; config < configCount; config++) {
+            categoryToLinesPerConfig.add(new HashMap<>());
+            RowDeduplicator rowDeduplicator = rowDeduplicators.get(config);
+            chunkFilters[config] = rowDeduplicator == null ? null : rowDeduplicator.newChunkFilter();
+            int[] configRecordIndexes = headerBindings.get(config).getRecordIndexes();
+            cellSlots[config] = new int[configRecordIndexes.length];
+            for (int binding = 0; binding < configRecordIndexes.length; binding++) {
+                cellSlots[config][binding] = Arrays.binarySearch(recordIndexes, configRecordIndexes[binding]);
+            }
+            configCells[config] = new String[configRecordIndexes.length];
+            normalizedValues[config] = new String[compiledConfigs.get(config).getColumnNames().size()];
+        }
+        long rows = 0;
+        try {
+            String[] cells = new String[recordIndexes.length];
+            while (true) {
+                long start = runMetrics.startTimer();
+                if (!recordReader.next(cells)) {
+                    break;
                 }
-            });
+                runMetrics.addTime(RunMetrics.Stage.PARSE, start);
+                rows++;
+                for (int config = 0; config < configCount; config++) {
+                    for (int binding = 0; binding < cellSlots[config].length; binding++) {
+                        configCells[config][binding] = cells[cellSlots[config][binding]];
+                    }
+                    Arrays.fill(normalizedValues[config], null);
+                    CompiledCsvOrganizerConfig compiledConfig = compiledConfigs.get(config);
+                    String category = categorizeCsvLine(configCells[config], headerBindings.get(config),
+                            normalizedValues[config], null, compiledConfig, recordReader);
+                    if (chunkFilters[config] != null && chunkFilters[config].isDuplicate(normalizedValues[config])) {
+                        continue;
+                    }
+                    categoryToLinesPerConfig.get(config).computeIfAbsent(category, key -> new CategoryCsvLines(key,
+                            compiledConfig.getColumnNames(), compiledConfig.newCategoryAggregates()))
+                            .addRow(normalizedValues[config]);
+                }
+            }
+            for (int config = 0; config < configCount; config++) {
+                if (chunkFilters[config] != null) {
+                    rowDeduplicators.get(config).addChunk(chunkFilters[config]);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read csv records", e);
         } finally {
             try {
-                inputCsv.close();
+                recordReader.close();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
+        runMetrics.addInputRows(input, rows, taskStart);
+        return categoryToLinesPerConfig;
+    }
+
+    /**
+     * Categorizes every record of the reader, whose cells are read through the given binding, and closes the reader.
+     * Records repeating a record of an earlier input are dropped if a deduplicator is given. Every record is written
+     * to the snapshot part, if one is given, before it is deduplicated.
+     */
+    private Map<String, CategoryCsvLines> getCategoryToLines(BoundRecordReader recordReader,
+                                                      HeaderBinding headerBinding,
+                                                      CompiledCsvOrganizerConfig compiledConfig,
+                                                      RunMetrics.InputMetrics input,
+                                                      RowDeduplicator rowDeduplicator,
+                                                      RowSnapshot.Writer.Part snapshotPart) {
+        long taskStart = runMetrics.startTimer();
+        Map<String, CategoryCsvLines> categoryToLines = new HashMap<>();
+        RowDeduplicator.ChunkFilter chunkFilter = rowDeduplicator == null ? null : rowDeduplicator.newChunkFilter();
+        long rows = 0;
+        try {
+            List<String> columnNames = headerBinding.getColumnNames();
+            String[] normalizedValues = new String[columnNames.size()];
+            String[] rawValues = null;
+            if (snapshotPart != null) {
+                rawValues = new String[columnNames.size()];
+                int[] columnOrder = new int[headerBinding.size()];
+                for (int binding = 0; binding < headerBinding.size(); binding++) {
+                    columnOrder[binding] = headerBinding.getColumnIndex(binding);
+                }
+                snapshotPart.begin(columnOrder);
+            }
+            String[] cells = new String[headerBinding.size()];
+            while (true) {
+                long start = runMetrics.startTimer();
+                if (!recordReader.next(cells)) {
+                    break;
+                }
+                runMetrics.addTime(RunMetrics.Stage.PARSE, start);
+                Arrays.fill(normalizedValues, null);
+                if (rawValues != null) {
+                    Arrays.fill(rawValues, null);
+                }
+                String category = categorizeCsvLine(cells, headerBinding, normalizedValues, rawValues,
+                        compiledConfig, recordReader);
+                rows++;
+                if (snapshotPart != null) {
+                    snapshotPart.addRow(normalizedValues, rawValues);
+                }
+                if (chunkFilter != null && chunkFilter.isDuplicate(normalizedValues)) {
+                    continue;
+                }
+                categoryToLines.computeIfAbsent(category, key -> new CategoryCsvLines(key, columnNames,
+                        compiledConfig.newCategoryAggregates())).addRow(normalizedValues);
+            }
+            if (chunkFilter != null) {
+                rowDeduplicator.addChunk(chunkFilter);
+            }
+            if (snapshotPart != null) {
+                snapshotPart.finish();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read csv records", e);
+        } finally {
+            try {
+                recordReader.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        runMetrics.addInputRows(input, rows, taskStart);
         return categoryToLines;
     }
 
-    private CategoryCsvLines categorizeCsvLine(Map<String, String> csvLineAsMap, CsvOrganizerConfig csvOrganizerConfig) {
-        CategoryCsvLines csvLine = null;
-        Map<String, String> normalizedColumnToValue = new HashMap<>();
-        LOG.debug("processing csvLine: {}", csvLineAsMap);
+    /**
+     * Categorizes the rows of a snapshot block like {@link #categorizeCsvLine} categorized the records they were
+     * read from, trying the columns in the order of the input's header.
+     */
+    private Map<String, CategoryCsvLines> getCategoryToLines(RowSnapshot.Reader snapshotReader,
+                                                      RowSnapshot.Block block,
+                                                      CompiledCsvOrganizerConfig compiledConfig,
+                                                      RunMetrics.InputMetrics input,
+                                                      RowDeduplicator rowDeduplicator) {
+        long taskStart = runMetrics.startTimer();
+        Map<String, CategoryCsvLines> categoryToLines = new HashMap<>();
+        RowDeduplicator.ChunkFilter chunkFilter = rowDeduplicator == null ? null : rowDeduplicator.newChunkFilter();
+        List<String> columnNames = compiledConfig.getColumnNames();
+        long[] rows = new long[1];
+        snapshotReader.readBlock(block, (values, categoryValues) -> {
+            rows[0]++;
+            long start = runMetrics.startTimer();
+            String category = null;
+            for (int column : block.getColumnOrder()) {
+                if (categoryValues[column] != null) {
+                    category = extractCategory(columnNames.get(column), categoryValues[column],
+                            compiledConfig.getCategoryMatcher());
+                    if (category != null) {
+                        break;
+                    }
+                }
+            }
+            runMetrics.addTime(RunMetrics.Stage.CATEGORIZE, start);
+            if (category == null) {
+                category = compiledConfig.getConfig().getDefaultCategoryName();
+            }
+            if (chunkFilter != null && chunkFilter.isDuplicate(values)) {
+                return;
+            }
+            categoryToLines.computeIfAbsent(category, key -> new CategoryCsvLines(key, columnNames,
+                    compiledConfig.newCategoryAggregates())).addRow(values);
+        });
+        if (chunkFilter != null) {
+            rowDeduplicator.addChunk(chunkFilter);
+        }
+        runMetrics.addInputRows(input, rows[0], taskStart);
+        return categoryToLines;
+    }
 
+    /**
+     * Writes the normalized (trimmed and transformed) value of every bound cell of the record into its column slot
+     * and returns the resolved category. Slots of columns missing from the record are left null. If raw values are
+     * requested, the trimmed value of every cell the date transformer changed goes to its slot in them.
+     *
+     * @param cells the trimmed cells of the record per binding, as read by a {@link BoundRecordReader} of the
+     *              binding's record indexes
+     */
+    private String categorizeCsvLine(String[] cells, HeaderBinding headerBinding, String[] normalizedValues,
+                                     String[] rawValues, CompiledCsvOrganizerConfig compiledConfig,
+                                     BoundRecordReader recordReader) {
         String category = null;
-        for (Map.Entry<String, String> csvCell : csvLineAsMap.entrySet()) {
-            String rawColumnName = csvCell.getKey() == null ?  null : csvCell.getKey().trim();
-            String normalizedColumnName = extractNormalizedColumnName(rawColumnName, csvOrganizerConfig);
-            if (normalizedColumnName == null) {
-                LOG.warn("skipping column unspecified by input config: {}", rawColumnName);
+        for (int binding = 0; binding < headerBinding.size(); binding++) {
+            String safeCellValue = cells[binding];
+            if (safeCellValue == null) {
                 continue;
             }
-            LOG.debug("determined normalized column name {} for cell with column {}", normalizedColumnName, csvCell.getKey());
-
-            String safeCellValue =  csvCell.getValue() == null ? "" : csvCell.getValue().trim();
+            String normalizedColumnName = headerBinding.getColumnName(binding);
             // determine category (if none found then default will be used)
             if (category == null) {
-                category = extractCategory(normalizedColumnName, safeCellValue, csvOrganizerConfig);
-                if (category != null) {
-                    LOG.debug("resolved category={} for column={} with value={}",
-                            category, normalizedColumnName, safeCellValue);
-                }
+                long start = runMetrics.startTimer();
+                category = extractCategory(normalizedColumnName, safeCellValue, compiledConfig.getCategoryMatcher());
+                runMetrics.addTime(RunMetrics.Stage.CATEGORIZE, start);
             }
 
-            normalizedColumnToValue.put(normalizedColumnName, transformCellValue(normalizedColumnName, safeCellValue, csvOrganizerConfig));
+            int column = headerBinding.getColumnIndex(binding);
+            normalizedValues[column] = transformCellValue(column, safeCellValue, headerBinding.getDateFormat(binding),
+                    compiledConfig);
+            if (rawValues != null && !safeCellValue.equals(normalizedValues[column])) {
+                rawValues[column] = safeCellValue;
+            }
         }
 
         if (category == null) {
-            category = csvOrganizerConfig.getDefaultCategoryName();
-            LOG.debug("no category resolved, so using default={}", category);
+            category = compiledConfig.getConfig().getDefaultCategoryName();
+            LOG.debug("no category resolved for record={}, so using default={}", recordReader.getRecordNumber(),
+                    category);
         }
-
-        List<Map<String,String>> modifiableList = new ArrayList<>();
-        modifiableList.add(normalizedColumnToValue);
-        csvLine = new CategoryCsvLines(category, modifiableList);
-        return csvLine;
+        return category;
     }
 
-    private String transformCellValue(String normalizedColumnName, String safeCellValue, CsvOrganizerConfig csvOrganizerConfig) {
-        DateTransformerConfig dateTransformerConfig = csvOrganizerConfig.getColumnNameToDateTransformer().get(normalizedColumnName);
-        String cellValue = safeCellValue;
-        if (dateTransformerConfig != null) {
-            LOG.debug("for column={} and value={}, processing dateTransformer={}",
-                    normalizedColumnName, safeCellValue, dateTransformerConfig);
-
-            SimpleDateFormat outputFormat = new SimpleDateFormat(dateTransformerConfig.getOutputFormat());
-            List<SimpleDateFormat> inputFormats = dateTransformerConfig.getInputFormats().stream()
-                    .map(SimpleDateFormat::new).toList();
-
-            for (SimpleDateFormat inputFormat : inputFormats) {
-                try {
-                    Date parsedDate = inputFormat.parse(cellValue);
-                    cellValue = outputFormat.format(parsedDate);
-                    LOG.info("reformatted date={} to formattedDate={}", safeCellValue, cellValue);
-                    break;
-                } catch (ParseException e) {
-                    LOG.debug("failed to parse date={} with pattern={}", cellValue, inputFormat.toPattern());
-                }
-            }
+    private String transformCellValue(int column, String safeCellValue, int dateFormat,
+                                      CompiledCsvOrganizerConfig compiledConfig) {
+        DateTransformer dateTransformer = compiledConfig.getDateTransformer(column);
+        if (dateTransformer == null) {
+            return safeCellValue;
         }
-        return cellValue;
+        long start = runMetrics.startTimer();
+        String transformed = dateTransformer.transform(safeCellValue, dateFormat,
+                compiledConfig.getColumnNames().get(column), runMetrics);
+        runMetrics.addTime(RunMetrics.Stage.DATE_TRANSFORM, start);
+        return transformed;
     }
 
-    private static String extractCategory(String normalizedColumnName,
-                                          String cellValue,
-                                          CsvOrganizerConfig csvOrganizerConfig) {
-        Set<CsvOrganizerCategoryConfig> categoryConfigs = csvOrganizerConfig.getColumnNameToCategoryRegexes()
-                .get(normalizedColumnName);
-        String category = null;
-        if (categoryConfigs == null) {
+    private String extractCategory(String normalizedColumnName,
+                                   String cellValue,
+                                   CategoryMatcher categoryMatcher) {
+        if (!categoryMatcher.hasRules(normalizedColumnName)) {
             LOG.debug("no category config found for column={}", normalizedColumnName);
-        } else {
-            outer:
-            for (CsvOrganizerCategoryConfig categoryConfig : categoryConfigs) {
-                Set<String> regexList = categoryConfig.getRegexes();
-                if (regexList != null) {
-                    for (String regex : regexList) {
-                        Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-                        LOG.debug("comparing cellValue={} against regex={}", cellValue, regex);
-
-                        if (pattern.matcher(cellValue).matches()) {
-                            category = categoryConfig.getCategory();
-                            LOG.debug("found category={} for column={} value={}",
-                                    category, normalizedColumnName, cellValue);
-                            break outer;
-                        }
-                    }
-                }
-            }
+            return null;
         }
-        return category;
-    }
-
-    private String extractNormalizedColumnName(String cellColumn, CsvOrganizerConfig csvOrganizerConfig) {
-        for (Map.Entry<String,Set<String>> columnNameToAliasEntry :
-                csvOrganizerConfig.getColumnNameToAliases().entrySet()) {
-            if (cellColumn.equalsIgnoreCase(columnNameToAliasEntry.getKey())) {
-                return columnNameToAliasEntry.getKey();
-            } else {
-                for (String alias : columnNameToAliasEntry.getValue()) {
-                    if (cellColumn.equalsIgnoreCase(alias)) {
-                        return columnNameToAliasEntry.getKey();
-                    }
-                }
-            }
+        String category = categoryMatcher.findCategory(normalizedColumnName, cellValue, runMetrics);
+        if (category != null) {
+            LOG.debug("found category={} for column={} value={}", category, normalizedColumnName, cellValue);
         }
-        return null;
+        return category;
     }
 
+    /**
+     * The normalized rows of a single category, kept in a dictionary-encoded {@link RowStore}.
+     */
     public static class CategoryCsvLines {
         private String categoryName;
-        private List<Map<String, String>> csvLines;
+        private RowStore rowStore;
+        private CategoryAggregates aggregates;
 
-        public CategoryCsvLines(String categoryName, List<Map<String, String>> csvLines) {
+        public CategoryCsvLines(String categoryName, List<String> columnNames) {
+            this(categoryName, columnNames, null);
+        }
+
+        /**
+         * @param aggregates accumulators every added row is aggregated into, or null for none
+         */
+        public CategoryCsvLines(String categoryName, List<String> columnNames, CategoryAggregates aggregates) {
             this.categoryName = categoryName;
-            this.csvLines = csvLines;
+            this.rowStore = new RowStore(columnNames);
+            this.aggregates = aggregates;
+        }
+
+        /**
+         * Builds the lines from column name to value maps, the form rows were held in before they were
+         * dictionary-encoded; values of columns not in {@code columnNames} are dropped, missing ones are null.
+         */
+        public static CategoryCsvLines of(String categoryName, List<String> columnNames,
+                                          List<Map<String, String>> csvLines) {
+            CategoryCsvLines categoryCsvLines = new CategoryCsvLines(categoryName, columnNames);
+            String[] values = new String[columnNames.size()];
+            for (Map<String, String> csvLine : csvLines) {
+                for (int column = 0; column < values.length; column++) {
+                    values[column] = csvLine.get(columnNames.get(column));
+                }
+                categoryCsvLines.addRow(values);
+            }
+            return categoryCsvLines;
         }
 
         public String getCategoryName() {
             return categoryName;
         }
 
+        public List<String> getColumnNames() {
+            return rowStore.getColumnNames();
+        }
+
+        public int size() {
+            return rowStore.size();
+        }
+
+        public String getValue(int row, int column) {
+            return rowStore.get(row, column);
+        }
+
+        public String getValue(int row, String columnName) {
+            int column = rowStore.getColumnIndex(columnName);
+            return column < 0 ? null : rowStore.get(row, column);
+        }
+
+        /**
+         * Appends a row whose values are in {@link #getColumnNames()} order; the array is copied.
+         */
+        public void addRow(String[] values) {
+            rowStore.addRow(values);
+            if (aggregates != null) {
+                aggregates.addRow(values);
+            }
+        }
+
+        public void addAll(CategoryCsvLines other) {
+            rowStore.addAll(other.rowStore);
+            if (aggregates != null && other.aggregates != null) {
+                aggregates.addAll(other.aggregates);
+            }
+        }
+
+        /**
+         * @return the aggregates of all rows added so far, or null if no aggregations are configured
+         */
+        public CategoryAggregates getAggregates() {
+            return aggregates;
+        }
+
+        public RowStore getRowStore() {
+            return rowStore;
+        }
+
+        /**
+         * @return the rows in order, each as a new array of values in {@link #getColumnNames()} order
+         */
+        public Iterator<String[]> rowIterator() {
+            return new Iterator<>() {
+                private int row;
+
+                @Override
+                public boolean hasNext() {
+                    return row < rowStore.size();
+                }
+
+                @Override
+                public String[] next() {
+                    if (row >= rowStore.size()) {
+                        throw new NoSuchElementException();
+                    }
+                    return rowStore.getRow(row++);
+                }
+            };
+        }
+
+        /**
+         * @return a read-only view of the rows as column name to value maps; no maps are materialized, and columns
+         * without a value are omitted
+         */
         public List<Map<String, String>> getCsvLines() {
-            return csvLines;
+            return new AbstractList<>() {
+                @Override
+                public Map<String, String> get(int row) {
+                    return new RowView(row);
+                }
+
+                @Override
+                public int size() {
+                    return rowStore.size();
+                }
+            };
         }
 
         @Override
         public String toString() {
             return "CategoryCsvLines{" +
                     "categoryName='" + categoryName + '\'' +
-                    ", csvLines=" + csvLines +
+                    ", csvLines=" + getCsvLines() +
                     '}';
         }
+
+        private class RowView extends AbstractMap<String, String> {
+            private final int row;
+
+            private RowView(int row) {
+                this.row = row;
+            }
+
+            @Override
+            public String get(Object key) {
+                return key instanceof String ? getValue(row, (String) key) : null;
+            }
+
+            @Override
+            public Set<Entry<String, String>> entrySet() {
+                Set<Entry<String, String>> entries = new LinkedHashSet<>();
+                List<String> columnNames = rowStore.getColumnNames();
+                for (int column = 0; column < columnNames.size(); column++) {
+                    String value = rowStore.get(row, column);
+                    if (value != null) {
+                        entries.add(new SimpleImmutableEntry<>(columnNames.get(column), value));
+                    }
+                }
+                return entries;
+            }
+        }
     }
 
     public static class CsvOrganizerConfig {
+        public static final int DEFAULT_CATEGORY_CACHE_SIZE = 10_000;
+        public static final int DEFAULT_REGEX_STEP_BUDGET = 1_000_000;
+
         private LinkedHashMap<String, Set<String>> columnNameToAliases = new LinkedHashMap<>();
         private List<CsvOrganizerCategoryConfig> categoryConfigs = new ArrayList<>();
         private LinkedHashMap<String, DateTransformerConfig> columnNameToDateTransformer = new LinkedHashMap<>();
+        private List<AggregationConfig> aggregationConfigs = new ArrayList<>();
+        private DeduplicationConfig deduplicationConfig;
+        private int categoryCacheSize = DEFAULT_CATEGORY_CACHE_SIZE;
+        private int regexStepBudget = DEFAULT_REGEX_STEP_BUDGET;
+        private boolean regexStepBudgetConfigured;
+        private boolean rejectRiskyRegexes;
         private String defaultCategoryName;
         private String sortColumnName;
         private SortType sortType;
@@ -293,7 +1418,7 @@ public class CsvCategorizeAndMerge {
         public LinkedHashMap<String, Set<CsvOrganizerCategoryConfig>> getColumnNameToCategoryRegexes() {
             LinkedHashMap<String, Set<CsvOrganizerCategoryConfig>> indexByColumnName = new LinkedHashMap<>();
             for (CsvOrganizerCategoryConfig categoryConfig : categoryConfigs) {
-                indexByColumnName.computeIfAbsent(categoryConfig.getColumnName(), key -> new HashSet<>());
+                indexByColumnName.computeIfAbsent(categoryConfig.getColumnName(), key -> new LinkedHashSet<>());
                 indexByColumnName.get(categoryConfig.getColumnName()).add(categoryConfig);
             }
             return indexByColumnName;
@@ -307,12 +1432,91 @@ public class CsvCategorizeAndMerge {
             return columnNameToDateTransformer;
         }
 
+        /**
+         * @return the aggregations written at the end of every category, in trailer row order
+         */
+        public List<AggregationConfig> getAggregationConfigs() {
+            return aggregationConfigs;
+        }
+
+        /**
+         * @return how rows repeated across inputs are dropped, or null to keep every row
+         */
+        public DeduplicationConfig getDeduplicationConfig() {
+            return deduplicationConfig;
+        }
+
+        public void setDeduplicationConfig(DeduplicationConfig deduplicationConfig) {
+            this.deduplicationConfig = deduplicationConfig;
+        }
+
+        /**
+         * @return how many distinct cell values per column to remember the category of, 0 to run the rules for
+         * every value
+         */
+        public int getCategoryCacheSize() {
+            return categoryCacheSize;
+        }
+
+        public void setCategoryCacheSize(int categoryCacheSize) {
+            if (categoryCacheSize < 0) {
+                throw new IllegalStateException("categoryCacheSize must not be negative: " + categoryCacheSize);
+            }
+            this.categoryCacheSize = categoryCacheSize;
+        }
+
+        /**
+         * @return how many characters of a cell value a single regex evaluation may read, counting re-reads while
+         * backtracking, before the row is given the default category; 0 for no limit. Unless the budget was set, it
+         * only applies to regexes with a backtracking risk, see {@link #isRegexStepBudgetConfigured()}
+         */
+        public int getRegexStepBudget() {
+            return regexStepBudget;
+        }
+
+        /**
+         * Sets the budget, which then applies to every regex rather than only to those with a backtracking risk.
+         */
+        public void setRegexStepBudget(int regexStepBudget) {
+            if (regexStepBudget < 0) {
+                throw new IllegalStateException("regexStepBudget must not be negative: " + regexStepBudget);
+            }
+            this.regexStepBudget = regexStepBudget;
+            this.regexStepBudgetConfigured = true;
+        }
+
+        /**
+         * @return whether the regex step budget was set, so that it applies to every regex; the default budget only
+         * applies to regexes {@link CategoryMatcher#findBacktrackingRisk} flags, sparing the others the step counting
+         */
+        public boolean isRegexStepBudgetConfigured() {
+            return regexStepBudgetConfigured;
+        }
+
+        /**
+         * @return whether loading the config fails on a regex that may backtrack catastrophically, rather than
+         * logging a warning
+         */
+        public boolean isRejectRiskyRegexes() {
+            return rejectRiskyRegexes;
+        }
+
+        public void setRejectRiskyRegexes(boolean rejectRiskyRegexes) {
+            this.rejectRiskyRegexes = rejectRiskyRegexes;
+        }
+
         @Override
         public String toString() {
             return "CsvOrganizerConfig{" +
                     "columnNameToAliases=" + columnNameToAliases +
                     ", categoryConfigs=" + categoryConfigs +
                     ", columnNameToDateTransformer=" + columnNameToDateTransformer +
+                    ", aggregationConfigs=" + aggregationConfigs +
+                    ", deduplicationConfig=" + deduplicationConfig +
+                    ", categoryCacheSize=" + categoryCacheSize +
+                    ", regexStepBudget=" + regexStepBudget +
+                    ", regexStepBudgetConfigured=" + regexStepBudgetConfigured +
+                    ", rejectRiskyRegexes=" + rejectRiskyRegexes +
                     ", defaultCategoryName='" + defaultCategoryName + '\'' +
                     ", sortColumnName='" + sortColumnName + '\'' +
                     ", sortType=" + sortType +
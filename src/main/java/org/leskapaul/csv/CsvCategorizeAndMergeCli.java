@@ -1,7 +1,6 @@
 package org.leskapaul.csv;
 
 import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.yaml.snakeyaml.Yaml;
@@ -10,88 +9,247 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static org.leskapaul.csv.AggregationConfig.extractAggregationConfig;
 import static org.leskapaul.csv.DateTransformerConfig.extractDateTransformerConfig;
+import static org.leskapaul.csv.DeduplicationConfig.extractDeduplicationConfig;
 
 public class CsvCategorizeAndMergeCli {
 
     private static final Logger LOG = LogManager.getLogger(CsvCategorizeAndMergeCli.class);
+    private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.withFirstRecordAsHeader();
 
     public static void main(String[] args) {
-        LOG.info("This program expects the following arguments: <path to yaml config> <one or more input csv files, separated by a space>");
+        LOG.info("This program expects the following arguments: [options] <path to yaml config> <one or more input csv, csv.gz or zip files, separated by a space>");
+        LOG.info("   or, to merge every csv file in a directory whenever it changes: --watch=<directory> --output=<path> [options] <path to yaml config>");
+        LOG.info("   or, to organize the same csv files for several yaml configs in a single pass: --configs=<yaml>,<yaml>,... --output-dir=<directory> [options] <input csv files>");
+        LOG.info("   or, to categorize the rows of a snapshot again: --from-snapshot=<path> [options] <path to yaml config>");
+        LOG.info("   or, to merge partial results written by --write-partial: --merge-partials [options] <path to yaml config> <partial result files, in input order>");
+        LOG.info("options: --threads=<number of input files, or chunks of a large file, to categorize concurrently, default 1>");
+        LOG.info("         --output=<path of the csv file to write, default standard out>");
+        LOG.info("         --memory-budget=<size of rows kept in memory before spilling sorted runs to disk, e.g. 256m, default unbounded>");
+        LOG.info("         --spill-dir=<directory for spilled runs, default the system temp directory>");
+        LOG.info("         --state-dir=<directory to keep categorized rows of input files in, so later runs only parse new or changed files>");
+        LOG.info("         --byte-tokenizer (read uncompressed csv files straight from their bytes, creating strings only for configured columns)");
+        LOG.info("         --sniff-dialect (detect the delimiter and date formats of each uncompressed csv file from its first records)");
+        LOG.info("         --write-snapshot=<path of a snapshot of the parsed and normalized rows to write, for --from-snapshot>");
+        LOG.info("         --write-partial=<path of a partial result to write instead of csv output, for --merge-partials>");
+        LOG.info("         --watch-settle-ms=<quiet time after a change in the watched directory before merging, default 100>");
+        LOG.info("         --metrics=<path of a JSON report of stage timings, per file, category and rule counts to write>");
         LOG.debug("called with args: {}", Stream.of(args).collect(Collectors.toList()));
 
-        if (args.length < 2) {
+        CliOptions cliOptions = CliOptions.parse(args);
+        List<String> positionalArgs = cliOptions.getPositionalArgs();
+        if (cliOptions.has("watch")) {
+            watch(cliOptions);
+            return;
+        }
+        if (cliOptions.has("configs")) {
+            fanOut(cliOptions);
+            return;
+        }
+        String fromSnapshotPath = cliOptions.get("from-snapshot", null);
+        if (fromSnapshotPath != null && positionalArgs.size() != 1) {
+            LOG.error("--from-snapshot requires exactly one argument, the path to the yaml config");
+            return;
+        }
+        if (fromSnapshotPath == null && positionalArgs.size() < 2) {
             LOG.error("this program requires at least two arguments");
             return;
         }
+        boolean mergePartials = cliOptions.has("merge-partials");
+        if (mergePartials && (fromSnapshotPath != null || cliOptions.has("write-snapshot")
+                || cliOptions.has("state-dir"))) {
+            LOG.error("--merge-partials cannot be combined with --from-snapshot, --write-snapshot or --state-dir");
+            return;
+        }
+        String writePartialPath = cliOptions.get("write-partial", null);
+        if (writePartialPath != null && cliOptions.has("output")) {
+            LOG.error("--write-partial writes a partial result instead of csv output, so it cannot be combined "
+                    + "with --output");
+            return;
+        }
 
         CsvCategorizeAndMerge.CsvOrganizerConfig config;
         try {
-            config = loadConfig(new FileInputStream(args[0]));
+            config = loadConfig(new FileInputStream(positionalArgs.get(0)));
         } catch (FileNotFoundException e) {
-            throw new RuntimeException("failed to load config file " + args[0], e);
+            throw new RuntimeException("failed to load config file " + positionalArgs.get(0), e);
         }
 
-        List<CSVParser> csvParsers = new ArrayList<>();
-        for (int i = 1; i < args.length; i++) {
-            try {
-                CSVParser csvParser = CSVParser.parse(new FileInputStream(args[i]),
-                        StandardCharsets.UTF_8, CSVFormat.DEFAULT.withFirstRecordAsHeader());
-                csvParsers.add(csvParser);
+        List<Path> inputFiles = positionalArgs.subList(1, positionalArgs.size()).stream()
+                .map(Paths::get).collect(Collectors.toList());
+        String outputPath = cliOptions.get("output", null);
+        String metricsPath = cliOptions.get("metrics", null);
+        String writeSnapshotPath = cliOptions.get("write-snapshot", null);
+        RunMetrics runMetrics = metricsPath == null ? RunMetrics.DISABLED : new RunMetrics();
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(config);
+        CsvCategorizeAndMerge csvCategorizeAndMerge = builder(cliOptions).runMetrics(runMetrics).build();
+        Consumer<SortedCategoryConsumer> run = sortedCategoryConsumer -> {
+            if (mergePartials) {
+                csvCategorizeAndMerge.mergePartialResults(inputFiles, CSV_FORMAT, compiledConfig,
+                        sortedCategoryConsumer);
+            } else if (fromSnapshotPath != null) {
+                csvCategorizeAndMerge.streamSnapshot(Paths.get(fromSnapshotPath), compiledConfig,
+                        sortedCategoryConsumer);
+            } else {
+                csvCategorizeAndMerge.streamCsvFiles(inputFiles, CSV_FORMAT, compiledConfig,
+                        writeSnapshotPath == null ? null : Paths.get(writeSnapshotPath), sortedCategoryConsumer);
+            }
+        };
+        if (writePartialPath != null) {
+            try (PartialResult.Writer partialWriter = new PartialResult.Writer(Paths.get(writePartialPath),
+                    compiledConfig, CSV_FORMAT)) {
+                run.accept(partialWriter);
+                partialWriter.finish();
+            }
+        } else {
+            List<String> columnNames = new ArrayList<>(config.getColumnNameToAliases().keySet());
+            try (CsvResultWriter csvResultWriter = outputPath == null ? CsvResultWriter.toStdout(columnNames)
+                    : CsvResultWriter.toFile(Paths.get(outputPath), columnNames)) {
+                csvResultWriter.writeHeader();
+                run.accept(csvResultWriter::writeCategory);
             } catch (IOException e) {
-                throw new RuntimeException("failed to load csv file " + args[i], e);
+                throw new RuntimeException("failed to write csv output" + (outputPath == null ? "" : " to " + outputPath), e);
             }
         }
+        if (metricsPath != null) {
+            runMetrics.writeJson(Paths.get(metricsPath));
+            LOG.info("wrote run metrics to {}", metricsPath);
+        }
+    }
 
+    private static void watch(CliOptions cliOptions) {
+        List<String> positionalArgs = cliOptions.getPositionalArgs();
+        String outputPath = cliOptions.get("output", null);
+        if (positionalArgs.size() != 1 || outputPath == null) {
+            LOG.error("--watch requires --output and exactly one argument, the path to the yaml config");
+            return;
+        }
+        String metricsPath = cliOptions.get("metrics", null);
+        // runs are built one at a time on the daemon's single worker thread, so they can share the builder
+        CsvCategorizeAndMerge.Builder builder = builder(cliOptions);
+        CsvWatchDaemon csvWatchDaemon = new CsvWatchDaemon(Paths.get(positionalArgs.get(0)),
+                Paths.get(cliOptions.get("watch", null)), Paths.get(outputPath),
+                cliOptions.getInt("watch-settle-ms", 100),
+                runMetrics -> builder.runMetrics(runMetrics).build(),
+                metricsPath == null ? null : Paths.get(metricsPath));
+        Runtime.getRuntime().addShutdownHook(new Thread(csvWatchDaemon::close));
+        csvWatchDaemon.run();
+    }
+
+    /**
+     * Organizes the input files for every config of {@code --configs} in a single pass, writing the output of each
+     * config to a csv file in {@code --output-dir} named after the config file, e.g. household.yaml to household.csv.
+     */
+    private static void fanOut(CliOptions cliOptions) {
+        List<String> csvFilePaths = cliOptions.getPositionalArgs();
+        String outputDirectory = cliOptions.get("output-dir", null);
+        if (outputDirectory == null || csvFilePaths.isEmpty()) {
+            LOG.error("--configs requires --output-dir and at least one input csv file");
+            return;
+        }
+        if (cliOptions.has("state-dir") || cliOptions.has("write-snapshot") || cliOptions.has("from-snapshot")) {
+            LOG.error("--configs cannot be combined with --state-dir, --write-snapshot or --from-snapshot");
+            return;
+        }
+        List<CompiledCsvOrganizerConfig> compiledConfigs = new ArrayList<>();
+        List<Path> outputFiles = new ArrayList<>();
+        for (String configPath : cliOptions.get("configs", "").split(",")) {
+            String configFileName = Paths.get(configPath).getFileName().toString();
+            int extension = configFileName.lastIndexOf('.');
+            Path outputFile = Paths.get(outputDirectory,
+                    (extension > 0 ? configFileName.substring(0, extension) : configFileName) + ".csv");
+            if (outputFiles.contains(outputFile)) {
+                LOG.error("--configs has two configs named {}, which would write the same output file", configFileName);
+                return;
+            }
+            outputFiles.add(outputFile);
+            try {
+                compiledConfigs.add(new CompiledCsvOrganizerConfig(loadConfig(new FileInputStream(configPath))));
+            } catch (FileNotFoundException e) {
+                throw new RuntimeException("failed to load config file " + configPath, e);
+            }
+        }
+
+        List<Path> csvFiles = csvFilePaths.stream().map(Paths::get).collect(Collectors.toList());
+        String metricsPath = cliOptions.get("metrics", null);
+        RunMetrics runMetrics = metricsPath == null ? RunMetrics.DISABLED : new RunMetrics();
+        List<CsvResultWriter> csvResultWriters = new ArrayList<>();
         try {
-            List<CsvCategorizeAndMerge.CategoryCsvLines> lines =
-                    new CsvCategorizeAndMerge().organizeCsvLines(csvParsers, config);
-            printCsv(config, lines);
+            for (int config = 0; config < compiledConfigs.size(); config++) {
+                CsvResultWriter csvResultWriter = CsvResultWriter.toFile(outputFiles.get(config),
+                        compiledConfigs.get(config).getColumnNames());
+                csvResultWriters.add(csvResultWriter);
+                csvResultWriter.writeHeader();
+            }
+            builder(cliOptions).runMetrics(runMetrics).build()
+                    .fanOutCsvFiles(csvFiles, CSV_FORMAT, compiledConfigs,
+                            csvResultWriters.stream().map(csvResultWriter ->
+                                    (SortedCategoryConsumer) csvResultWriter::writeCategory)
+                                    .collect(Collectors.toList()));
+        } catch (IOException e) {
+            throw new RuntimeException("failed to write csv output to " + outputDirectory, e);
         } finally {
-            for (CSVParser parser: csvParsers) {
+            // every output is closed, the first failure to flush one fails the run
+            IOException closeFailure = null;
+            for (CsvResultWriter csvResultWriter : csvResultWriters) {
                 try {
-                    parser.close();
+                    csvResultWriter.close();
                 } catch (IOException e) {
-                    LOG.warn("failed to close csv file", e);
+                    closeFailure = closeFailure == null ? e : closeFailure;
                 }
             }
+            if (closeFailure != null) {
+                throw new RuntimeException("failed to write csv output to " + outputDirectory, closeFailure);
+            }
+        }
+        LOG.info("wrote the output of {} configs to {}", compiledConfigs.size(), outputDirectory);
+        if (metricsPath != null) {
+            runMetrics.writeJson(Paths.get(metricsPath));
+            LOG.info("wrote run metrics to {}", metricsPath);
         }
     }
 
+    /**
+     * @return a builder with the options shared by all modes: --threads, --memory-budget, --spill-dir, --state-dir,
+     * --byte-tokenizer and --sniff-dialect
+     */
+    private static CsvCategorizeAndMerge.Builder builder(CliOptions cliOptions) {
+        String spillDirectory = cliOptions.get("spill-dir", null);
+        String stateDirectory = cliOptions.get("state-dir", null);
+        return CsvCategorizeAndMerge.builder()
+                .threadCount(cliOptions.getInt("threads", 1))
+                .memoryBudgetBytes(cliOptions.getBytes("memory-budget", Long.MAX_VALUE))
+                .spillDirectory(spillDirectory == null ? null : Paths.get(spillDirectory))
+                .stateDirectory(stateDirectory == null ? null : Paths.get(stateDirectory))
+                .byteTokenizer(cliOptions.has("byte-tokenizer"))
+                .sniffDialect(cliOptions.has("sniff-dialect"));
+    }
+
+    /**
+     * Writes the organized lines to standard out.
+     */
     public static void printCsv(CsvCategorizeAndMerge.CsvOrganizerConfig config,
                                 List<CsvCategorizeAndMerge.CategoryCsvLines> lines) {
-        StringBuilder sb = new StringBuilder();
-
-        List<String> columnNamesInOrder = new ArrayList(config.getColumnNameToAliases().keySet());
-        columnNamesInOrder.forEach(columnName -> {
-           if (sb.length() > 0) { sb.append(", "); }
-           sb.append(columnName);
-        });
-        sb.append('\n');
-
-        lines.forEach(categoryCsvLines -> {
-            categoryCsvLines.getCsvLines().forEach(csvRowAsMap -> {
-                StringBuilder sbForRow = new StringBuilder();
-                columnNamesInOrder.forEach(columnName -> {
-                    String cellValue = csvRowAsMap.get(columnName);
-                    if (sbForRow.length() > 0) { sbForRow.append(", "); }
-                    sbForRow.append(cellValue == null ? "" : cellValue);
-                });
-                sb.append(sbForRow).append('\n');
-            });
-            sb.append("\n");
-        });
-
-        LOG.info("csv result ->\n{}", sb);
+        List<String> columnNamesInOrder = new ArrayList<>(config.getColumnNameToAliases().keySet());
+        try (CsvResultWriter csvResultWriter = CsvResultWriter.toStdout(columnNamesInOrder)) {
+            csvResultWriter.writeHeader();
+            lines.forEach(csvResultWriter::writeCategory);
+        } catch (IOException e) {
+            throw new RuntimeException("failed to print csv", e);
+        }
     }
 
     public static CsvCategorizeAndMerge.CsvOrganizerConfig loadConfig(InputStream inputStreamForConfig) {
@@ -148,7 +306,7 @@ public class CsvCategorizeAndMergeCli {
                         if (columnName != null && category != null && regexes != null) {
                             CsvCategorizeAndMerge.CsvOrganizerCategoryConfig categoryConfig =
                                     new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig(category, columnName,
-                                            new HashSet<>(regexes));
+                                            new LinkedHashSet<>(regexes));
                             config.getCategoryConfigs().add(categoryConfig);
                         } else {
                             LOG.debug("ignoring incomplete config, columnName={}, category={}, regexes={}",
@@ -174,6 +332,69 @@ public class CsvCategorizeAndMergeCli {
             });
         }
 
+        List aggregationConfigs = (List) configAsMap.get("aggregations");
+        if (aggregationConfigs != null) {
+            aggregationConfigs.forEach(map -> {
+                AggregationConfig aggregationConfig = extractAggregationConfig((Map) map);
+                if (aggregationConfig != null) {
+                    config.getAggregationConfigs().add(aggregationConfig);
+                } else {
+                    LOG.debug("ignoring incomplete aggregation config {}", map);
+                }
+            });
+        }
+
+        Map deduplicationConfigAsMap = (Map) configAsMap.get("deduplication");
+        if (deduplicationConfigAsMap != null) {
+            DeduplicationConfig deduplicationConfig = extractDeduplicationConfig(deduplicationConfigAsMap);
+            if (deduplicationConfig != null) {
+                config.setDeduplicationConfig(deduplicationConfig);
+            } else {
+                LOG.debug("ignoring deduplication config without columnNames {}", deduplicationConfigAsMap);
+            }
+        }
+
+        Number categoryCacheSize = (Number) configAsMap.get("categoryCacheSize");
+        if (categoryCacheSize != null) {
+            config.setCategoryCacheSize(categoryCacheSize.intValue());
+        }
+
+        Number regexStepBudget = (Number) configAsMap.get("regexStepBudget");
+        if (regexStepBudget != null) {
+            config.setRegexStepBudget(regexStepBudget.intValue());
+        }
+        Boolean rejectRiskyRegexes = (Boolean) configAsMap.get("rejectRiskyRegexes");
+        if (rejectRiskyRegexes != null) {
+            config.setRejectRiskyRegexes(rejectRiskyRegexes);
+        }
+        checkBacktrackingRisk(config);
+
         return config;
     }
+
+    /**
+     * Warns about, or with {@code rejectRiskyRegexes} rejects, category regexes that may backtrack catastrophically
+     * on long values such as ACH descriptions.
+     */
+    private static void checkBacktrackingRisk(CsvCategorizeAndMerge.CsvOrganizerConfig config) {
+        for (CsvCategorizeAndMerge.CsvOrganizerCategoryConfig categoryConfig : config.getCategoryConfigs()) {
+            for (String regex : categoryConfig.getRegexes()) {
+                String risk = CategoryMatcher.findBacktrackingRisk(regex);
+                if (risk == null) {
+                    continue;
+                }
+                String message = "regex \"" + regex + "\" of category " + categoryConfig.getCategory() + " for column "
+                        + categoryConfig.getColumnName() + " may backtrack catastrophically: " + risk;
+                if (config.isRejectRiskyRegexes()) {
+                    throw new IllegalStateException(message);
+                }
+                if (config.getRegexStepBudget() > 0) {
+                    LOG.warn("{}; matching it is limited to regexStepBudget={} steps per value", message,
+                            config.getRegexStepBudget());
+                } else {
+                    LOG.warn("{}; matching it is not limited, since regexStepBudget is 0", message);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,235 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dialect of a single csv file, sniffed from the records in its first {@link #SAMPLE_BYTES} bytes: the delimiter,
+ * whether fields are quoted or padded with whitespace, and for each date column the input format its dates are in.
+ *
+ * The delimiter is the candidate (the configured one first, then comma, semicolon, tab and pipe) that splits the
+ * header into more than one column and the most sampled records into as many cells as the header. Quoting is kept
+ * even if the sample has no quoted field, since the rest of the file might, so only the delimiter changes the format.
+ * A date column is bound to the first input format of its {@link DateTransformer} that parses every sampled value;
+ * values it does not parse still go through the other formats, so the sample only decides which is tried first.
+ */
+public class CsvDialect {
+
+    public static final int SAMPLE_BYTES = 16 * 1024;
+
+    private static final Logger LOG = LogManager.getLogger(CsvDialect.class.getSimpleName());
+    private static final char[] CANDIDATE_DELIMITERS = {',', ';', '\t', '|'};
+
+    private final String name;
+    private final CSVFormat csvFormat;
+    private final List<CSVRecord> sampleRecords;
+    private final boolean quoted;
+    private final boolean padded;
+    private final Map<String, String> columnNameToDatePattern = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private CsvDialect(String name, CSVFormat csvFormat, List<CSVRecord> sampleRecords, boolean quoted,
+                       boolean padded) {
+        this.name = name;
+        this.csvFormat = csvFormat;
+        this.sampleRecords = sampleRecords;
+        this.quoted = quoted;
+        this.padded = padded;
+    }
+
+    /**
+     * @param csvFormat the configured format, which must treat the first record as the header; the sniffed format
+     *                  only differs from it in the delimiter
+     */
+    public static CsvDialect sniff(Path csvFile, CSVFormat csvFormat) throws IOException {
+        byte[] sample;
+        try (InputStream inputStream = Files.newInputStream(csvFile)) {
+            sample = inputStream.readNBytes(SAMPLE_BYTES);
+        }
+        int length = sample.length;
+        if (length == SAMPLE_BYTES) {
+            // drop the record cut off by the end of the sample; a line break never occurs inside a UTF-8 sequence
+            while (length > 0 && sample[length - 1] != '\n' && sample[length - 1] != '\r') {
+                length--;
+            }
+        }
+        return sniff(csvFile.toString(), new String(sample, 0, length, StandardCharsets.UTF_8), csvFormat);
+    }
+
+    static CsvDialect sniff(String name, String sample, CSVFormat csvFormat) {
+        List<CSVFormat> candidateFormats = new ArrayList<>(List.of(csvFormat));
+        if (csvFormat.getDelimiterString().length() == 1) {
+            for (char candidate : CANDIDATE_DELIMITERS) {
+                if (candidate != csvFormat.getDelimiterString().charAt(0)
+                        && !Character.valueOf(candidate).equals(csvFormat.getQuoteCharacter())) {
+                    candidateFormats.add(csvFormat.builder().setDelimiter(candidate).build());
+                }
+            }
+        }
+        CSVFormat bestFormat = csvFormat;
+        List<String> bestHeader = List.of();
+        List<CSVRecord> bestRecords = List.of();
+        double bestScore = -1;
+        for (CSVFormat candidateFormat : candidateFormats) {
+            List<CSVRecord> records = new ArrayList<>();
+            List<String> header = parseSample(sample, candidateFormat, records);
+            if (header == null || header.size() < 2) {
+                continue;
+            }
+            long consistentRecords = records.stream().filter(record -> record.size() == header.size()).count();
+            double score = records.isEmpty() ? 1 : (double) consistentRecords / records.size();
+            if (score > bestScore) {
+                bestFormat = candidateFormat;
+                bestHeader = header;
+                bestRecords = records;
+                bestScore = score;
+            }
+        }
+        boolean padded = bestHeader.stream().anyMatch(CsvDialect::isPadded);
+        for (CSVRecord record : bestRecords) {
+            for (String cell : record) {
+                padded |= isPadded(cell);
+            }
+        }
+        CsvDialect csvDialect = new CsvDialect(name, bestFormat, bestRecords,
+                hasQuotedField(sample, bestFormat), padded);
+        LOG.info("sniffed dialect of {} from {} records: {}", name, bestRecords.size(), csvDialect);
+        return csvDialect;
+    }
+
+    /**
+     * Parses the header and records of the sample into the list, stopping at the first record that fails to parse,
+     * since the sample may end inside a quoted field.
+     *
+     * @return the names of the header, or null if the header cannot be parsed
+     */
+    private static List<String> parseSample(String sample, CSVFormat csvFormat, List<CSVRecord> records) {
+        try {
+            CSVParser csvParser = CSVParser.parse(new StringReader(sample), csvFormat);
+            Iterator<CSVRecord> iterator = csvParser.iterator();
+            try {
+                while (iterator.hasNext()) {
+                    records.add(iterator.next());
+                }
+            } catch (RuntimeException e) {
+                LOG.debug("stopped sampling at a record that fails to parse: {}", e.getMessage());
+            }
+            return csvParser.getHeaderNames();
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("sample does not parse with delimiter={}: {}", csvFormat.getDelimiterString(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isPadded(String cell) {
+        return cell != null && !cell.isEmpty() && (cell.charAt(0) <= ' ' || cell.charAt(cell.length() - 1) <= ' ');
+    }
+
+    /**
+     * @return whether a field of the sample starts with the quote character, which only then opens a quoted field
+     */
+    private static boolean hasQuotedField(String sample, CSVFormat csvFormat) {
+        Character quote = csvFormat.getQuoteCharacter();
+        if (quote == null) {
+            return false;
+        }
+        char delimiter = csvFormat.getDelimiterString().charAt(0);
+        for (int i = sample.indexOf(quote); i >= 0; i = sample.indexOf(quote, i + 1)) {
+            char previous = i == 0 ? '\n' : sample.charAt(i - 1);
+            if (previous == delimiter || previous == '\n' || previous == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the configured format with the sniffed delimiter
+     */
+    public CSVFormat getCsvFormat() {
+        return csvFormat;
+    }
+
+    public char getDelimiter() {
+        return csvFormat.getDelimiterString().charAt(0);
+    }
+
+    /**
+     * @return whether a sampled field was quoted
+     */
+    public boolean isQuoted() {
+        return quoted;
+    }
+
+    /**
+     * @return whether a sampled header or cell had leading or trailing whitespace
+     */
+    public boolean isPadded() {
+        return padded;
+    }
+
+    /**
+     * Binds each date column of the binding, which must be for a header parsed with {@link #getCsvFormat()}, to the
+     * input format its sampled values are in.
+     *
+     * @return a copy of the binding with the date formats found, see {@link HeaderBinding#withDateFormats(int[])}
+     */
+    public HeaderBinding bindDateFormats(HeaderBinding headerBinding, CompiledCsvOrganizerConfig compiledConfig) {
+        int[] dateFormats = new int[headerBinding.size()];
+        Arrays.fill(dateFormats, DateTransformer.NO_INPUT_FORMAT);
+        for (int binding = 0; binding < headerBinding.size(); binding++) {
+            DateTransformer dateTransformer = compiledConfig.getDateTransformer(headerBinding.getColumnIndex(binding));
+            if (dateTransformer == null) {
+                continue;
+            }
+            int recordIndex = headerBinding.getRecordIndex(binding);
+            List<String> sampleValues = new ArrayList<>();
+            for (CSVRecord record : sampleRecords) {
+                String value = recordIndex < record.size() ? record.get(recordIndex).trim() : "";
+                if (!value.isEmpty()) {
+                    sampleValues.add(value);
+                }
+            }
+            dateFormats[binding] = dateTransformer.findInputFormat(sampleValues);
+            String columnName = headerBinding.getColumnName(binding);
+            if (dateFormats[binding] == DateTransformer.NO_INPUT_FORMAT) {
+                LOG.info("no single input format parses the {} sampled values of {} in {}", sampleValues.size(),
+                        columnName, name);
+                columnNameToDatePattern.put(columnName, "mixed");
+            } else {
+                columnNameToDatePattern.put(columnName, dateTransformer.getInputPattern(dateFormats[binding]));
+            }
+        }
+        return headerBinding.withDateFormats(dateFormats);
+    }
+
+    /**
+     * @return the sniffed dialect, including the date patterns of the bindings made so far
+     */
+    @Override
+    public String toString() {
+        String delimiter = getDelimiter() == '\t' ? "\\t" : String.valueOf(getDelimiter());
+        return "CsvDialect{" +
+                "delimiter='" + delimiter + '\'' +
+                ", quoted=" + quoted +
+                ", padded=" + padded +
+                ", datePatterns=" + columnNameToDatePattern +
+                '}';
+    }
+}
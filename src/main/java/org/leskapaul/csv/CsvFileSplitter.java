@@ -0,0 +1,424 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a single csv file into byte ranges that each start and end on a record boundary, so the ranges can be
+ * parsed independently.
+ *
+ * Boundaries are found with one sequential scan of the memory-mapped file that tracks quoting the same way the
+ * commons-csv lexer does: a quote only opens a quoted field at the start of a field, and a doubled quote inside a
+ * quoted field is an escaped quote. Line breaks inside quoted fields are therefore never mistaken for record ends,
+ * and like for the lexer, CR, LF and CR LF all end a record. If no record end is found after the header, the whole
+ * file becomes a single chunk that starts with the header. Only formats with a single character delimiter, a quote
+ * character and no escape character can be split; other formats yield a single chunk.
+ */
+public class CsvFileSplitter {
+
+    /**
+     * The largest chunk that can be mapped into a single buffer; larger chunks are read through a channel.
+     */
+    static final long MAX_MAPPED_CHUNK_BYTES = Integer.MAX_VALUE;
+
+    private static final long SCAN_WINDOW_BYTES = 1L << 30;
+
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    private CsvFileSplitter() {
+    }
+
+    /**
+     * @param csvFormat the format of the file, with the first record as its header
+     * @param chunkCount the desired number of chunks; fewer are returned if records are too large to split evenly
+     */
+    public static CsvFileSplit split(Path csvFile, CSVFormat csvFormat, int chunkCount) throws IOException {
+        return split(csvFile, csvFormat, chunkCount, MAX_MAPPED_CHUNK_BYTES);
+    }
+
+    /**
+     * @param maxMappedBytes the largest chunk to map into a single buffer, {@link #MAX_MAPPED_CHUNK_BYTES} but for
+     *                       tests
+     */
+    static CsvFileSplit split(Path csvFile, CSVFormat csvFormat, int chunkCount, long maxMappedBytes)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean splittable = csvFormat.getDelimiterString().length() == 1
+                    && csvFormat.getQuoteCharacter() != null
+                    && csvFormat.getEscapeCharacter() == null;
+            List<Long> boundaries = findBoundaries(channel, size,
+                    (byte) csvFormat.getDelimiterString().charAt(0),
+                    csvFormat.getQuoteCharacter() == null ? 0 : (byte) csvFormat.getQuoteCharacter().charValue(),
+                    splittable ? chunkCount : 1);
+
+            long headerEnd = boundaries.isEmpty() ? size : boundaries.get(0);
+            Map<String, Integer> headerMap;
+            try (CSVParser headerParser = CSVParser.parse(new InputStreamReader(
+                    openRange(csvFile, 0, headerEnd, maxMappedBytes), StandardCharsets.UTF_8), csvFormat)) {
+                headerMap = headerParser.getHeaderMap();
+            }
+
+            List<CsvChunk> chunks = new ArrayList<>();
+            if (boundaries.isEmpty() && size > 0) {
+                chunks.add(new CsvChunk(csvFile, 0, size, true));
+            }
+            for (int i = 0; i < boundaries.size(); i++) {
+                long end = i + 1 < boundaries.size() ? boundaries.get(i + 1) : size;
+                if (end > boundaries.get(i)) {
+                    chunks.add(new CsvChunk(csvFile, boundaries.get(i), end, false));
+                }
+            }
+            return new CsvFileSplit(csvFile, csvFormat, headerMap, chunks, maxMappedBytes);
+        }
+    }
+
+    /**
+     * @return the end of the header record followed by the start of every further chunk, or no boundary at all if
+     * the end of the header was not found before the end of the file
+     */
+    private static List<Long> findBoundaries(FileChannel channel, long size, byte delimiter, byte quote,
+                                             int chunkCount) throws IOException {
+        BoundaryCollector boundaryCollector = new BoundaryCollector(size, chunkCount);
+        int state = FIELD_START;
+        // a CR outside a quoted field ends the record, together with an LF right after it
+        boolean afterCr = false;
+
+        for (long windowStart = 0; windowStart < size; windowStart += SCAN_WINDOW_BYTES) {
+            MappedByteBuffer window = map(channel, windowStart, Math.min(size, windowStart + SCAN_WINDOW_BYTES));
+            int windowSize = window.limit();
+            for (int i = 0; i < windowSize; i++) {
+                byte b = window.get(i);
+                if (afterCr) {
+                    afterCr = false;
+                    if (b == '\n') {
+                        if (boundaryCollector.endRecord(windowStart + i + 1)) {
+                            return boundaryCollector.boundaries;
+                        }
+                        continue;
+                    }
+                    if (boundaryCollector.endRecord(windowStart + i)) {
+                        return boundaryCollector.boundaries;
+                    }
+                }
+                if (state != QUOTED && (b == '\n' || b == '\r')) {
+                    state = FIELD_START;
+                    if (b == '\r') {
+                        afterCr = true;
+                    } else if (boundaryCollector.endRecord(windowStart + i + 1)) {
+                        return boundaryCollector.boundaries;
+                    }
+                    continue;
+                }
+                boundaryCollector.recordHasContent = true;
+                switch (state) {
+                    case FIELD_START:
+                        state = b == quote ? QUOTED : b == delimiter ? FIELD_START : UNQUOTED;
+                        break;
+                    case UNQUOTED:
+                        state = b == delimiter ? FIELD_START : UNQUOTED;
+                        break;
+                    case QUOTED:
+                        state = b == quote ? QUOTE_IN_QUOTED : QUOTED;
+                        break;
+                    default:
+                        state = b == quote ? QUOTED : b == delimiter ? FIELD_START : UNQUOTED;
+                        break;
+                }
+            }
+        }
+        if (afterCr) {
+            boundaryCollector.endRecord(size);
+        }
+        return boundaryCollector.boundaries;
+    }
+
+    /**
+     * Collects the record ends that become chunk boundaries: the end of the header, then the first record end at or
+     * after each chunk target.
+     */
+    private static final class BoundaryCollector {
+        private final List<Long> boundaries = new ArrayList<>();
+        private final long size;
+        private final int chunkCount;
+        private long chunkSize;
+        private long nextTarget = Long.MAX_VALUE;
+        private boolean recordHasContent;
+
+        private BoundaryCollector(long size, int chunkCount) {
+            this.size = size;
+            this.chunkCount = chunkCount;
+        }
+
+        /**
+         * @param boundary the position right after the line break that ended a record
+         * @return whether all boundaries were found
+         */
+        private boolean endRecord(long boundary) {
+            if (boundaries.isEmpty()) {
+                // empty lines before the header are skipped, like the lexer does
+                if (recordHasContent) {
+                    boundaries.add(boundary);
+                    if (chunkCount < 2) {
+                        return true;
+                    }
+                    chunkSize = Math.max(1, (size - boundary) / chunkCount);
+                    nextTarget = boundary + chunkSize;
+                }
+            } else if (boundary >= nextTarget && boundary < size) {
+                boundaries.add(boundary);
+                if (boundaries.size() > chunkCount - 1) {
+                    return true;
+                }
+                // a record larger than a chunk may have passed several targets
+                while (nextTarget <= boundary) {
+                    nextTarget += chunkSize;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    /**
+     * @return the bytes of the file from start to end, mapped if there are at most maxMappedBytes of them
+     */
+    private static InputStream openRange(Path csvFile, long start, long end, long maxMappedBytes)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+            if (end - start <= maxMappedBytes) {
+                // the mapping stays valid after the channel is closed
+                return new ByteBufferInputStream(map(channel, start, end));
+            }
+        }
+        FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ);
+        try {
+            return new RangeInputStream(Channels.newInputStream(channel.position(start)), end - start);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A file split into chunks, along with the header map every chunk's records should be bound with.
+     */
+    public static class CsvFileSplit {
+        private final Path csvFile;
+        private final CSVFormat csvFormat;
+        private final Map<String, Integer> headerMap;
+        private final List<CsvChunk> chunks;
+        private final long maxMappedBytes;
+
+        private CsvFileSplit(Path csvFile, CSVFormat csvFormat, Map<String, Integer> headerMap, List<CsvChunk> chunks,
+                             long maxMappedBytes) {
+            this.csvFile = csvFile;
+            this.csvFormat = csvFormat;
+            this.headerMap = headerMap;
+            this.chunks = Collections.unmodifiableList(chunks);
+            this.maxMappedBytes = maxMappedBytes;
+        }
+
+        public Path getCsvFile() {
+            return csvFile;
+        }
+
+        public Map<String, Integer> getHeaderMap() {
+            return headerMap;
+        }
+
+        public List<CsvChunk> getChunks() {
+            return chunks;
+        }
+
+        /**
+         * @return a parser over the records of the chunk, after the header if the chunk {@link CsvChunk#hasHeader()
+         * has one}
+         */
+        public CSVParser openChunk(CsvChunk chunk) throws IOException {
+            CSVFormat chunkFormat = chunk.hasHeader() ? csvFormat
+                    : csvFormat.builder().setHeader((String[]) null).setSkipHeaderRecord(false).build();
+            return CSVParser.parse(new InputStreamReader(openRange(csvFile, chunk.getStart(), chunk.getEnd(),
+                    maxMappedBytes), StandardCharsets.UTF_8), chunkFormat);
+        }
+
+        /**
+         * @return whether the chunk is small enough for {@link #mapChunk}; chunks end on the first record end after
+         * their target size, so even a file split by size may have a chunk too large to map
+         */
+        public boolean canMap(CsvChunk chunk) {
+            return chunk.getEnd() - chunk.getStart() <= maxMappedBytes;
+        }
+
+        /**
+         * @return the bytes of the chunk's records, e.g. for a {@link ByteCsvTokenizer}, positioned after the header
+         * if the chunk {@link CsvChunk#hasHeader() has one}
+         * @throws IllegalArgumentException if the chunk {@link #canMap cannot be mapped}
+         */
+        public ByteBuffer mapChunk(CsvChunk chunk) throws IOException {
+            if (!canMap(chunk)) {
+                throw new IllegalArgumentException("chunk " + chunk + " of " + csvFile + " is larger than "
+                        + maxMappedBytes + " bytes and cannot be mapped");
+            }
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+                // the mapping stays valid after the channel is closed
+                buffer = map(channel, chunk.getStart(), chunk.getEnd());
+            }
+            if (chunk.hasHeader() && ByteCsvTokenizer.readHeader(buffer, csvFormat) == null) {
+                throw new IllegalStateException("failed to find the end of the header of " + csvFile);
+            }
+            return buffer;
+        }
+
+        @Override
+        public String toString() {
+            return "CsvFileSplit{" +
+                    "csvFile=" + csvFile +
+                    ", headerMap=" + headerMap +
+                    ", chunks=" + chunks +
+                    '}';
+        }
+    }
+
+    public static class CsvChunk {
+        private final Path csvFile;
+        private final long start;
+        private final long end;
+        private final boolean header;
+
+        private CsvChunk(Path csvFile, long start, long end, boolean header) {
+            this.csvFile = csvFile;
+            this.start = start;
+            this.end = end;
+            this.header = header;
+        }
+
+        public Path getCsvFile() {
+            return csvFile;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return whether the chunk is the whole file, header included, because the file could not be split
+         */
+        public boolean hasHeader() {
+            return header;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + ")";
+        }
+    }
+
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Reads at most a given number of bytes of a stream, for chunks too large to map.
+     */
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        private RangeInputStream(InputStream inputStream, long length) {
+            super(inputStream);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = super.read(bytes, offset, (int) Math.min(length, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(Math.min(count, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
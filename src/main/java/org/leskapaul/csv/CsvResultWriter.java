@@ -0,0 +1,160 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Streams organized csv output through a buffered {@link CSVPrinter}: a header row, then each category's rows and
+ * aggregation trailer rows followed by an empty line. Values containing delimiters, quotes or newlines are quoted.
+ */
+public class CsvResultWriter implements Closeable {
+
+    private static final CSVFormat OUTPUT_FORMAT = CSVFormat.DEFAULT.withRecordSeparator('\n');
+
+    private final CSVPrinter csvPrinter;
+    private final List<String> columnNames;
+
+    public CsvResultWriter(Writer writer, List<String> columnNames) {
+        this.columnNames = columnNames;
+        try {
+            this.csvPrinter = new CSVPrinter(writer instanceof BufferedWriter ? writer : new BufferedWriter(writer),
+                    OUTPUT_FORMAT);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to create csv printer", e);
+        }
+    }
+
+    public static CsvResultWriter toFile(Path outputFile, List<String> columnNames) throws IOException {
+        return new CsvResultWriter(Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8), columnNames);
+    }
+
+    /**
+     * @return a writer to standard out; closing it flushes but leaves standard out open
+     */
+    public static CsvResultWriter toStdout(List<String> columnNames) {
+        FilterOutputStream unclosableOut = new FilterOutputStream(System.out) {
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        return new CsvResultWriter(new OutputStreamWriter(unclosableOut, StandardCharsets.UTF_8), columnNames);
+    }
+
+    public void writeHeader() {
+        try {
+            csvPrinter.printRecord(columnNames);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write csv header", e);
+        }
+    }
+
+    /**
+     * Writes all rows of the category and its trailer rows, followed by the empty line that ends it.
+     */
+    public void writeCategory(CsvCategorizeAndMerge.CategoryCsvLines categoryCsvLines) {
+        RowStore rowStore = categoryCsvLines.getRowStore();
+        int[] columns = new int[columnNames.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = rowStore.getColumnIndex(columnNames.get(i));
+        }
+        try {
+            for (int row = 0; row < rowStore.size(); row++) {
+                for (int column : columns) {
+                    csvPrinter.print(column < 0 ? null : rowStore.get(row, column));
+                }
+                csvPrinter.println();
+            }
+            if (categoryCsvLines.getAggregates() != null) {
+                for (String[] trailerRow : categoryCsvLines.getAggregates()
+                        .getTrailerRows(categoryCsvLines.getCategoryName())) {
+                    for (int column : columns) {
+                        csvPrinter.print(column < 0 ? null : trailerRow[column]);
+                    }
+                    csvPrinter.println();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write category " + categoryCsvLines.getCategoryName(), e);
+        }
+        endCategory();
+    }
+
+    /**
+     * Writes the rows of a category, values in column order, and the trailer rows of its aggregates (if not null),
+     * followed by the empty line that ends it.
+     */
+    public void writeCategory(String categoryName, Iterator<String[]> rows, CategoryAggregates aggregates) {
+        try {
+            while (rows.hasNext()) {
+                for (String value : rows.next()) {
+                    csvPrinter.print(value);
+                }
+                csvPrinter.println();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write category " + categoryName, e);
+        }
+        writeTrailerRows(categoryName, aggregates);
+        endCategory();
+    }
+
+    private void writeTrailerRows(String categoryName, CategoryAggregates aggregates) {
+        if (aggregates != null) {
+            aggregates.getTrailerRows(categoryName).forEach(this::writeRow);
+        }
+    }
+
+    /**
+     * Writes a single row whose values are in column order.
+     */
+    public void writeRow(String[] values) {
+        try {
+            for (String value : values) {
+                csvPrinter.print(value);
+            }
+            csvPrinter.println();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write csv row", e);
+        }
+    }
+
+    public void endCategory() {
+        try {
+            csvPrinter.println();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write csv category separator", e);
+        }
+    }
+
+    public void flush() {
+        try {
+            csvPrinter.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to flush csv output", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        csvPrinter.close(true);
+    }
+}
@@ -0,0 +1,222 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watches an inbox directory and rewrites the merged output whenever csv files (plain, {@code .csv.gz} or
+ * {@code .zip}) are added, changed or removed, so the JVM, the compiled config and the date caches stay warm between
+ * runs. Combine it with an {@link IncrementalState} directory so that files already seen are loaded rather than
+ * parsed again.
+ *
+ * The config file is watched too. A changed config is loaded and compiled on the watch thread and swapped in
+ * atomically; a run in progress finishes with the config it started with and a new run follows. A config that fails
+ * to load is logged and the previous one stays in use.
+ *
+ * Changes are debounced: a run starts once no change has been seen for the settle time. Runs happen one at a time
+ * on a single worker thread, and the output is written to a temp file that replaces the output file when complete.
+ * Files whose name starts with a dot are ignored, so exports can be copied in under a temp name and then renamed.
+ */
+public class CsvWatchDaemon implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(CsvWatchDaemon.class.getSimpleName());
+    private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+
+    private final Path configFile;
+    private final Path inboxDirectory;
+    private final Path outputFile;
+    private final long settleMillis;
+    private final Function<RunMetrics, CsvCategorizeAndMerge> organizerFactory;
+    private final Path metricsFile;
+    private final AtomicReference<CompiledCsvOrganizerConfig> compiledConfig = new AtomicReference<>();
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "csv-watch-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final WatchService watchService;
+    private ScheduledFuture<?> pendingRun;
+    private volatile long completedRuns;
+
+    /**
+     * @param organizerFactory creates the organizer of a run, given the metrics to record the run in
+     * @param metricsFile      file to write the metrics of every run to, or null
+     */
+    public CsvWatchDaemon(Path configFile, Path inboxDirectory, Path outputFile, long settleMillis,
+                          Function<RunMetrics, CsvCategorizeAndMerge> organizerFactory, Path metricsFile) {
+        this.configFile = configFile.toAbsolutePath();
+        this.inboxDirectory = inboxDirectory.toAbsolutePath();
+        this.outputFile = outputFile.toAbsolutePath();
+        this.settleMillis = settleMillis;
+        this.organizerFactory = organizerFactory;
+        this.metricsFile = metricsFile;
+        this.compiledConfig.set(loadConfig());
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            this.inboxDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            if (!this.configFile.getParent().equals(this.inboxDirectory)) {
+                this.configFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to watch " + inboxDirectory + " and " + configFile, e);
+        }
+    }
+
+    /**
+     * Processes the inbox once, then watches it until {@link #close()} is called or the thread is interrupted.
+     */
+    public void run() {
+        LOG.info("watching {} for csv files, writing merged output to {}", inboxDirectory, outputFile);
+        scheduleRun(0);
+        try {
+            while (true) {
+                WatchKey watchKey = watchService.take();
+                boolean inboxChanged = false;
+                boolean configChanged = false;
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        inboxChanged = true;
+                        continue;
+                    }
+                    Path changed = ((Path) watchKey.watchable()).resolve((Path) event.context());
+                    if (changed.equals(configFile)) {
+                        configChanged = true;
+                    } else if (isInput(changed)) {
+                        inboxChanged = true;
+                    }
+                }
+                watchKey.reset();
+                if (configChanged && reloadConfig()) {
+                    inboxChanged = true;
+                }
+                if (inboxChanged) {
+                    scheduleRun(settleMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            LOG.debug("watch service closed");
+        }
+    }
+
+    /**
+     * @return the number of runs completed so far, successful or not
+     */
+    public long getCompletedRuns() {
+        return completedRuns;
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOG.warn("failed to close watch service", e);
+        }
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.warn("a run was still in progress when the daemon stopped");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean reloadConfig() {
+        try {
+            compiledConfig.set(loadConfig());
+            LOG.info("reloaded config from {}", configFile);
+            return true;
+        } catch (RuntimeException e) {
+            LOG.error("failed to reload config from {}, keeping the previous config", configFile, e);
+            return false;
+        }
+    }
+
+    private CompiledCsvOrganizerConfig loadConfig() {
+        try (FileInputStream configInputStream = new FileInputStream(configFile.toFile())) {
+            return new CompiledCsvOrganizerConfig(CsvCategorizeAndMergeCli.loadConfig(configInputStream));
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to load config file " + configFile, e);
+        }
+    }
+
+    /**
+     * Replaces a pending run that has not started yet, so a burst of changes leads to a single run.
+     */
+    private synchronized void scheduleRun(long delayMillis) {
+        if (pendingRun != null) {
+            pendingRun.cancel(false);
+        }
+        pendingRun = worker.schedule(this::processInbox, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void processInbox() {
+        long start = System.nanoTime();
+        CompiledCsvOrganizerConfig runConfig = compiledConfig.get();
+        try {
+            List<Path> csvFiles;
+            try (Stream<Path> inboxFiles = Files.list(inboxDirectory)) {
+                csvFiles = inboxFiles.filter(Files::isRegularFile).filter(this::isInput).sorted()
+                        .collect(Collectors.toList());
+            }
+            RunMetrics runMetrics = metricsFile == null ? RunMetrics.DISABLED : new RunMetrics();
+            Path tempFile = Files.createTempFile(outputFile.getParent(), ".merged-", ".tmp");
+            try {
+                try (CsvResultWriter csvResultWriter = CsvResultWriter.toFile(tempFile, runConfig.getColumnNames())) {
+                    csvResultWriter.writeHeader();
+                    organizerFactory.apply(runMetrics).streamCsvFiles(csvFiles, CSV_FORMAT, runConfig,
+                            csvResultWriter::writeCategory);
+                }
+                Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            if (metricsFile != null) {
+                runMetrics.writeJson(metricsFile);
+            }
+            LOG.info(String.format(Locale.ROOT, "merged %d files into %s in %.1f ms", csvFiles.size(), outputFile,
+                    (System.nanoTime() - start) / 1e6));
+        } catch (IOException | RuntimeException e) {
+            // the daemon keeps running, the next change triggers another attempt
+            LOG.error("failed to merge the csv files in {}", inboxDirectory, e);
+        } finally {
+            completedRuns++;
+        }
+    }
+
+    private boolean isInput(Path file) {
+        String fileName = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return file.getParent().equals(inboxDirectory) && !file.equals(outputFile) && !fileName.startsWith(".")
+                && (fileName.endsWith(".csv") || fileName.endsWith(".csv.gz") || fileName.endsWith(".zip"));
+    }
+}
@@ -0,0 +1,186 @@
+package org.leskapaul.csv;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.text.Format;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link DateTransformerConfig} compiled into immutable {@code java.time} formatters. Instances are thread safe.
+ *
+ * Input formats are tried without exceptions, always in config order, so the result for a value never depends on
+ * the values transformed before it (or on other threads). Since the same dates repeat across many rows, the first
+ * 10,000 distinct raw values are cached with their formatted result; the cache then stops growing and nothing is
+ * evicted, so later values are reformatted every time.
+ *
+ * The input format of a file's dates can also be bound up front (see {@link CsvDialect}): it is tried first, and the
+ * other formats only if it fails. Values are then cached per bound format, so a file whose dates are e.g. day first
+ * does not reuse the results of a file whose dates are month first.
+ */
+public class DateTransformer {
+
+    public static final long NOT_A_DATE = Long.MIN_VALUE;
+    public static final int NO_INPUT_FORMAT = -1;
+
+    private static final Logger LOG = LogManager.getLogger(DateTransformer.class.getSimpleName());
+    private static final int MAX_CACHED_VALUES = 10_000;
+
+    private final List<String> inputPatterns = new ArrayList<>();
+    private final List<Format> inputFormats = new ArrayList<>();
+    private final DateTimeFormatter outputFormatter;
+    private final Format outputFormat;
+    private final List<ConcurrentHashMap<String, String>> rawToFormattedPerBoundFormat = new ArrayList<>();
+
+    public DateTransformer(DateTransformerConfig dateTransformerConfig) {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        for (String inputPattern : dateTransformerConfig.getInputFormats()) {
+            // lenient, like SimpleDateFormat, so e.g. "MM" also accepts a single digit month
+            DateTimeFormatter inputFormatter = new DateTimeFormatterBuilder()
+                    .parseCaseInsensitive()
+                    .parseLenient()
+                    .appendPattern(inputPattern)
+                    .toFormatter(locale);
+            inputPatterns.add(inputPattern);
+            inputFormats.add(inputFormatter.toFormat());
+        }
+        this.outputFormatter = DateTimeFormatter.ofPattern(dateTransformerConfig.getOutputFormat(), locale);
+        this.outputFormat = outputFormatter.toFormat();
+        // one cache for values without a bound format, then one per input format
+        for (int format = NO_INPUT_FORMAT; format < inputFormats.size(); format++) {
+            rawToFormattedPerBoundFormat.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * @return the value reformatted with the output format, or the value unchanged if no input format parses it
+     */
+    public String transform(String cellValue) {
+        return transform(cellValue, null, RunMetrics.DISABLED);
+    }
+
+    /**
+     * Like {@link #transform(String)}, and records how the value was parsed in the run metrics under the column name.
+     */
+    public String transform(String cellValue, String columnName, RunMetrics runMetrics) {
+        return transform(cellValue, NO_INPUT_FORMAT, columnName, runMetrics);
+    }
+
+    /**
+     * Like {@link #transform(String, String, RunMetrics)}, trying the bound input format first.
+     *
+     * @param boundFormat the index of the input format the value is expected in, e.g. as found by
+     *                    {@link #findInputFormat(Collection)}, or {@link #NO_INPUT_FORMAT}
+     */
+    public String transform(String cellValue, int boundFormat, String columnName, RunMetrics runMetrics) {
+        ConcurrentHashMap<String, String> rawToFormatted = rawToFormattedPerBoundFormat.get(boundFormat + 1);
+        String formatted = rawToFormatted.get(cellValue);
+        if (formatted == null) {
+            formatted = reformat(cellValue, boundFormat, columnName, runMetrics);
+            if (rawToFormatted.size() < MAX_CACHED_VALUES) {
+                rawToFormatted.putIfAbsent(cellValue, formatted);
+            }
+        } else {
+            runMetrics.addDateOutcome(columnName, RunMetrics.DateOutcome.CACHED);
+        }
+        return formatted;
+    }
+
+    /**
+     * @return the index of the first input format that parses every value, or {@link #NO_INPUT_FORMAT} if there are
+     * no values or no format parses them all
+     */
+    public int findInputFormat(Collection<String> cellValues) {
+        if (cellValues.isEmpty()) {
+            return NO_INPUT_FORMAT;
+        }
+        for (int format = 0; format < inputFormats.size(); format++) {
+            int parsingFormat = format;
+            if (cellValues.stream().allMatch(cellValue -> tryFormat(parsingFormat, cellValue) != null)) {
+                return format;
+            }
+        }
+        return NO_INPUT_FORMAT;
+    }
+
+    public String getInputPattern(int format) {
+        return inputPatterns.get(format);
+    }
+
+    /**
+     * @return the epoch day of a value in the output format, or {@link #NOT_A_DATE} if the value is not a complete
+     * date in that format (e.g. a raw value no input format parsed)
+     */
+    public long toEpochDay(String formattedValue) {
+        if (formattedValue == null) {
+            return NOT_A_DATE;
+        }
+        ParsePosition position = new ParsePosition(0);
+        TemporalAccessor parsed = (TemporalAccessor) outputFormat.parseObject(formattedValue, position);
+        if (parsed == null || position.getErrorIndex() >= 0 || position.getIndex() != formattedValue.length()
+                || !parsed.isSupported(ChronoField.EPOCH_DAY)) {
+            return NOT_A_DATE;
+        }
+        return parsed.getLong(ChronoField.EPOCH_DAY);
+    }
+
+    private String reformat(String cellValue, int boundFormat, String columnName, RunMetrics runMetrics) {
+        if (boundFormat != NO_INPUT_FORMAT) {
+            String formatted = tryFormat(boundFormat, cellValue);
+            if (formatted != null) {
+                runMetrics.addDateOutcome(columnName, RunMetrics.DateOutcome.PREFERRED_FORMAT);
+                return formatted;
+            }
+        }
+        for (int format = 0; format < inputFormats.size(); format++) {
+            if (format == boundFormat) {
+                continue;
+            }
+            String formatted = tryFormat(format, cellValue);
+            if (formatted != null) {
+                runMetrics.addDateOutcome(columnName, boundFormat == NO_INPUT_FORMAT && format == 0
+                        ? RunMetrics.DateOutcome.PREFERRED_FORMAT : RunMetrics.DateOutcome.FALLBACK_FORMAT);
+                return formatted;
+            }
+        }
+        LOG.debug("no input format of {} parses date={}", inputPatterns, cellValue);
+        runMetrics.addDateOutcome(columnName, RunMetrics.DateOutcome.UNPARSED);
+        return cellValue;
+    }
+
+    /**
+     * Like {@code DateFormat.parse(String)}, a value only needs to start with a date in the given format.
+     */
+    private String tryFormat(int format, String cellValue) {
+        ParsePosition position = new ParsePosition(0);
+        TemporalAccessor parsed = (TemporalAccessor) inputFormats.get(format).parseObject(cellValue, position);
+        if (parsed == null || position.getErrorIndex() >= 0) {
+            return null;
+        }
+        try {
+            return outputFormatter.format(parsed);
+        } catch (DateTimeException e) {
+            LOG.debug("date={} parsed with pattern={} lacks fields for output format: {}",
+                    cellValue, inputPatterns.get(format), e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DateTransformer{" +
+                "inputPatterns=" + inputPatterns +
+                ", outputFormatter=" + outputFormatter +
+                '}';
+    }
+}
@@ -1,6 +1,6 @@
 package org.leskapaul.csv;
 
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,8 +11,9 @@ public class DateTransformerConfig {
 
     public static DateTransformerConfig extractDateTransformerConfig(Map configAsMap) {
         Map<String, Object> dateTransformerAsMap = (Map<String, Object>) configAsMap.get("dateTransformer");
-        if (dateTransformerAsMap != null || !dateTransformerAsMap.isEmpty()) {
-            Set<String> inputFormats = new HashSet((List) dateTransformerAsMap.get("inputFormats"));
+        if (dateTransformerAsMap != null && !dateTransformerAsMap.isEmpty()) {
+            // input formats are tried in the order they are listed
+            Set<String> inputFormats = new LinkedHashSet<>((List<String>) dateTransformerAsMap.get("inputFormats"));
             return new DateTransformerConfig(inputFormats,
                     (String) dateTransformerAsMap.get("outputFormat"));
         }
@@ -32,6 +33,13 @@ public class DateTransformerConfig {
         return outputFormat;
     }
 
+    /**
+     * @return this config compiled into a thread safe {@link DateTransformer}
+     */
+    public DateTransformer compile() {
+        return new DateTransformer(this);
+    }
+
     @Override
     public String toString() {
         return "DateTransformerConfig{" +
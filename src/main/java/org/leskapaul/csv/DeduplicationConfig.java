@@ -0,0 +1,65 @@
+package org.leskapaul.csv;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drops rows that repeat a row of an earlier input, e.g. transactions present in two exports whose download windows
+ * overlap. Rows are compared by the normalized (trimmed and transformed) values of the key columns. Rows of one input
+ * are never dropped as duplicates of each other, since a single export can legitimately list two identical
+ * transactions.
+ */
+public class DeduplicationConfig {
+
+    private static final long DEFAULT_EXPECTED_ROWS = 1_000_000;
+
+    private List<String> columnNames;
+    private boolean bloomFilter;
+    private long expectedRows;
+
+    public static DeduplicationConfig extractDeduplicationConfig(Map configAsMap) {
+        List<String> columnNames = (List<String>) configAsMap.get("columnNames");
+        if (columnNames == null || columnNames.isEmpty()) {
+            return null;
+        }
+        Object bloomFilter = configAsMap.get("bloomFilter");
+        Number expectedRows = (Number) configAsMap.get("expectedRows");
+        return new DeduplicationConfig(columnNames, Boolean.TRUE.equals(bloomFilter),
+                expectedRows == null ? DEFAULT_EXPECTED_ROWS : expectedRows.longValue());
+    }
+
+    /**
+     * @param bloomFilter  whether to test a Bloom filter before the set of seen rows; it answers most lookups of new
+     *                     rows from a small bit array instead of the large set
+     * @param expectedRows the number of distinct rows the Bloom filter is sized for
+     */
+    public DeduplicationConfig(List<String> columnNames, boolean bloomFilter, long expectedRows) {
+        if (columnNames == null || columnNames.isEmpty()) {
+            throw new IllegalStateException("deduplication requires at least one column name");
+        }
+        this.columnNames = List.copyOf(columnNames);
+        this.bloomFilter = bloomFilter;
+        this.expectedRows = expectedRows;
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    public boolean isBloomFilter() {
+        return bloomFilter;
+    }
+
+    public long getExpectedRows() {
+        return expectedRows;
+    }
+
+    @Override
+    public String toString() {
+        return "DeduplicationConfig{" +
+                "columnNames=" + columnNames +
+                ", bloomFilter=" + bloomFilter +
+                ", expectedRows=" + expectedRows +
+                '}';
+    }
+}
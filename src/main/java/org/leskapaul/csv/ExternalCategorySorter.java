@@ -0,0 +1,323 @@
+package org.leskapaul.csv;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Collects categorized rows within a memory budget. When the estimated size of the rows held in memory exceeds the
+ * budget, every category is sorted and written to a temporary run file. At the end each category is produced by a
+ * streaming k-way merge of its runs and the rows still in memory. Rows with equal sort values come out in the order
+ * they were added, exactly as with an in-memory sort.
+ *
+ * Every open run holds a read buffer, so the fan-in of a merge is bounded: once a category has
+ * {@link #DEFAULT_MAX_FAN_IN} runs, a spill merges them into a single run before more are written.
+ */
+public class ExternalCategorySorter implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(ExternalCategorySorter.class.getSimpleName());
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final int DEFAULT_MAX_FAN_IN = 64;
+
+    private final CompiledCsvOrganizerConfig compiledConfig;
+    private final long memoryBudgetBytes;
+    private final Path spillDirectory;
+    private final RowSorter rowSorter;
+    private final RunMetrics runMetrics;
+    private final int maxFanIn;
+    private final Map<String, CsvCategorizeAndMerge.CategoryCsvLines> categoryToLines = new HashMap<>();
+    private final Map<String, List<Path>> categoryToRuns = new HashMap<>();
+    private final Map<String, CategoryAggregates> categoryToAggregates = new HashMap<>();
+    private int spillCount;
+
+    public ExternalCategorySorter(CompiledCsvOrganizerConfig compiledConfig, long memoryBudgetBytes, Path spillDirectory) {
+        this(compiledConfig, memoryBudgetBytes, spillDirectory, RunMetrics.DISABLED);
+    }
+
+    public ExternalCategorySorter(CompiledCsvOrganizerConfig compiledConfig, long memoryBudgetBytes, Path spillDirectory,
+                                  RunMetrics runMetrics) {
+        this(compiledConfig, memoryBudgetBytes, spillDirectory, runMetrics, DEFAULT_MAX_FAN_IN);
+    }
+
+    /**
+     * @param maxFanIn the most runs of a category merged at once, at least two
+     */
+    ExternalCategorySorter(CompiledCsvOrganizerConfig compiledConfig, long memoryBudgetBytes, Path spillDirectory,
+                           RunMetrics runMetrics, int maxFanIn) {
+        if (maxFanIn < 2) {
+            throw new IllegalArgumentException("maxFanIn must be at least 2 but was " + maxFanIn);
+        }
+        this.compiledConfig = compiledConfig;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.spillDirectory = spillDirectory;
+        this.rowSorter = compiledConfig.getRowSorter();
+        this.runMetrics = runMetrics;
+        this.maxFanIn = maxFanIn;
+    }
+
+    /**
+     * Adds a partial result; partial results must be added in input order.
+     */
+    public void addAll(Map<String, CsvCategorizeAndMerge.CategoryCsvLines> partialResult) {
+        partialResult.forEach((category, lines) -> {
+            // aggregates outlive spills, so they are kept apart from the rows
+            if (lines.getAggregates() != null) {
+                categoryToAggregates.computeIfAbsent(category, key -> compiledConfig.newCategoryAggregates())
+                        .addAll(lines.getAggregates());
+            }
+            CsvCategorizeAndMerge.CategoryCsvLines categoryCsvLines = categoryToLines.get(category);
+            if (categoryCsvLines == null) {
+                categoryToLines.put(category, lines);
+            } else {
+                categoryCsvLines.addAll(lines);
+            }
+        });
+        if (estimateBytes() > memoryBudgetBytes) {
+            spill();
+        }
+    }
+
+    public int getSpillCount() {
+        return spillCount;
+    }
+
+    private long estimateBytes() {
+        long bytes = 0;
+        for (CsvCategorizeAndMerge.CategoryCsvLines categoryCsvLines : categoryToLines.values()) {
+            bytes += categoryCsvLines.getRowStore().estimateBytes();
+        }
+        return bytes;
+    }
+
+    private void spill() {
+        spillCount++;
+        runMetrics.addSpill();
+        LOG.info("spilling {} bytes of rows to {} (spill {})", estimateBytes(), spillDirectory, spillCount);
+        for (CsvCategorizeAndMerge.CategoryCsvLines categoryCsvLines : categoryToLines.values()) {
+            long start = runMetrics.startTimer();
+            rowSorter.sort(categoryCsvLines);
+            runMetrics.addTime(RunMetrics.Stage.SORT, start);
+            start = runMetrics.startTimer();
+            try {
+                List<Path> runs = categoryToRuns.computeIfAbsent(categoryCsvLines.getCategoryName(),
+                        key -> new ArrayList<>());
+                if (runs.size() >= maxFanIn) {
+                    compact(categoryCsvLines.getCategoryName(), runs);
+                }
+                runs.add(writeRun(categoryCsvLines.rowIterator()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to spill rows to " + spillDirectory, e);
+            }
+            runMetrics.addTime(RunMetrics.Stage.SPILL, start);
+        }
+        // new stores rather than cleared ones, so dictionaries of spilled values are released too
+        categoryToLines.clear();
+    }
+
+    private Path writeRun(Iterator<String[]> sortedRows) throws IOException {
+        Path run = Files.createTempFile(spillDirectory, "category-run-", ".bin");
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+            while (sortedRows.hasNext()) {
+                RowCodec.writeRow(output, sortedRows.next());
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Replaces the runs, which are in the order they were written, by a single run merged from them, so the merged
+     * run still comes before any run written later.
+     */
+    private void compact(String category, List<Path> runs) throws IOException {
+        LOG.debug("merging {} runs of category={}", runs.size(), category);
+        List<Iterator<String[]>> sources = new ArrayList<>();
+        List<DataInputStream> inputs = new ArrayList<>();
+        Path mergedRun;
+        try {
+            openRuns(runs, sources, inputs);
+            mergedRun = writeRun(new MergingIterator(sources, rowSorter));
+        } finally {
+            closeRuns(inputs);
+        }
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+        runs.add(mergedRun);
+    }
+
+    private void openRuns(List<Path> runs, List<Iterator<String[]>> sources, List<DataInputStream> inputs)
+            throws IOException {
+        for (Path run : runs) {
+            DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE));
+            inputs.add(input);
+            sources.add(new RunIterator(input, compiledConfig.getColumnNames().size()));
+        }
+    }
+
+    private static void closeRuns(List<DataInputStream> inputs) {
+        for (DataInputStream input : inputs) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                LOG.warn("failed to close run file", e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of run files of the category on disk
+     */
+    int getRunCount(String category) {
+        return categoryToRuns.getOrDefault(category, List.of()).size();
+    }
+
+    /**
+     * Hands every category, in config order, to the consumer as a merged stream of sorted rows.
+     */
+    public void finish(SortedCategoryConsumer sortedCategoryConsumer) {
+        for (String category : compiledConfig.getCategoriesInOrder()) {
+            List<Iterator<String[]>> sources = new ArrayList<>();
+            List<DataInputStream> inputs = new ArrayList<>();
+            try {
+                openRuns(categoryToRuns.getOrDefault(category, List.of()), sources, inputs);
+                CsvCategorizeAndMerge.CategoryCsvLines inMemoryLines = categoryToLines.remove(category);
+                if (inMemoryLines != null) {
+                    long start = runMetrics.startTimer();
+                    rowSorter.sort(inMemoryLines);
+                    runMetrics.addTime(RunMetrics.Stage.SORT, start);
+                    sources.add(inMemoryLines.rowIterator());
+                }
+                if (sources.isEmpty()) {
+                    LOG.debug("no rows for category={}", category);
+                    continue;
+                }
+                sortedCategoryConsumer.accept(category, new MergingIterator(sources, rowSorter),
+                        categoryToAggregates.get(category));
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read spilled rows of category " + category, e);
+            } finally {
+                closeRuns(inputs);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        categoryToLines.clear();
+        categoryToRuns.values().forEach(runs -> runs.forEach(run -> {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                LOG.warn("failed to delete run file {}", run, e);
+            }
+        }));
+        categoryToRuns.clear();
+        categoryToAggregates.clear();
+    }
+
+    private static class RunIterator implements Iterator<String[]> {
+        private final DataInputStream input;
+        private final int columnCount;
+        private String[] next;
+
+        private RunIterator(DataInputStream input, int columnCount) throws IOException {
+            this.input = input;
+            this.columnCount = columnCount;
+            this.next = RowCodec.readRow(input, columnCount);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String[] next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String[] current = next;
+            try {
+                next = RowCodec.readRow(input, columnCount);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read run file", e);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Merges sorted sources; ties go to the earlier source, which keeps the merge stable.
+     */
+    static class MergingIterator implements Iterator<String[]> {
+        private final List<Iterator<String[]>> sources;
+        private final RowSorter rowSorter;
+        private final PriorityQueue<Head> heads;
+
+        MergingIterator(List<Iterator<String[]>> sources, RowSorter rowSorter) {
+            this.sources = sources;
+            this.rowSorter = rowSorter;
+            Comparator<Head> headComparator = (head1, head2) -> head1.sortKey.compareTo(head2.sortKey);
+            this.heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                    headComparator.thenComparingInt(head -> head.source));
+            for (int source = 0; source < sources.size(); source++) {
+                advance(source);
+            }
+        }
+
+        private void advance(int source) {
+            Iterator<String[]> iterator = sources.get(source);
+            if (iterator.hasNext()) {
+                String[] row = iterator.next();
+                heads.add(new Head(row, rowSorter.sortKey(row), source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public String[] next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            advance(head.source);
+            return head.row;
+        }
+
+        private static class Head {
+            private final String[] row;
+            private final RowSorter.SortKey sortKey;
+            private final int source;
+
+            private Head(String[] row, RowSorter.SortKey sortKey, int source) {
+                this.row = row;
+                this.sortKey = sortKey;
+                this.source = source;
+            }
+        }
+    }
+}
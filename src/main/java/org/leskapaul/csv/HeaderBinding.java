@@ -0,0 +1,145 @@
+package org.leskapaul.csv;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The header of a single input csv resolved against the column aliases of a {@link CompiledCsvOrganizerConfig}.
+ * Aliases are matched once per file, so rows can be processed by record index: each bound cell is written to the
+ * slot of its normalized column, and columns the config does not mention (e.g. "Running Bal.") are never read.
+ * A binding may also carry the input format the file's dates are in, as sniffed by a {@link CsvDialect}.
+ */
+public class HeaderBinding {
+
+    private static final Logger LOG = LogManager.getLogger(HeaderBinding.class.getSimpleName());
+
+    private final List<String> columnNames;
+    private final int[] recordIndexes;
+    private final int[] columnIndexes;
+    private final int[] dateFormats;
+
+    private HeaderBinding(List<String> columnNames, int[] recordIndexes, int[] columnIndexes, int[] dateFormats) {
+        this.columnNames = columnNames;
+        this.recordIndexes = recordIndexes;
+        this.columnIndexes = columnIndexes;
+        this.dateFormats = dateFormats;
+    }
+
+    /**
+     * @param headerMap header name to record index, as returned by {@code CSVParser.getHeaderMap()}; cells are
+     *                  visited in the iteration order of this map
+     */
+    public static HeaderBinding bind(Map<String, Integer> headerMap, CompiledCsvOrganizerConfig compiledConfig) {
+        CsvCategorizeAndMerge.CsvOrganizerConfig csvOrganizerConfig = compiledConfig.getConfig();
+        List<String> columnNames = compiledConfig.getColumnNames();
+        List<int[]> bindings = new ArrayList<>();
+        if (headerMap != null) {
+            headerMap.forEach((rawHeader, recordIndex) -> {
+                String rawColumnName = rawHeader == null ? null : rawHeader.trim();
+                String normalizedColumnName = extractNormalizedColumnName(rawColumnName, csvOrganizerConfig);
+                if (normalizedColumnName == null) {
+                    LOG.warn("skipping column unspecified by input config: {}", rawColumnName);
+                } else {
+                    LOG.debug("determined normalized column name {} for column {}", normalizedColumnName, rawHeader);
+                    bindings.add(new int[] {recordIndex, columnNames.indexOf(normalizedColumnName)});
+                }
+            });
+        }
+
+        int[] recordIndexes = new int[bindings.size()];
+        int[] columnIndexes = new int[bindings.size()];
+        for (int i = 0; i < bindings.size(); i++) {
+            recordIndexes[i] = bindings.get(i)[0];
+            columnIndexes[i] = bindings.get(i)[1];
+        }
+        int[] dateFormats = new int[bindings.size()];
+        Arrays.fill(dateFormats, DateTransformer.NO_INPUT_FORMAT);
+        return new HeaderBinding(columnNames, recordIndexes, columnIndexes, dateFormats);
+    }
+
+    /**
+     * @param dateFormats per binding, the index of the input format of the column's {@link DateTransformer} that the
+     *                    file's values are in, or {@link DateTransformer#NO_INPUT_FORMAT}
+     * @return a copy of this binding with the given date formats
+     */
+    public HeaderBinding withDateFormats(int[] dateFormats) {
+        if (dateFormats.length != recordIndexes.length) {
+            throw new IllegalArgumentException("expected " + recordIndexes.length + " date formats but got "
+                    + dateFormats.length);
+        }
+        return new HeaderBinding(columnNames, recordIndexes, columnIndexes, dateFormats.clone());
+    }
+
+    private static String extractNormalizedColumnName(String cellColumn,
+                                                      CsvCategorizeAndMerge.CsvOrganizerConfig csvOrganizerConfig) {
+        if (cellColumn == null) {
+            return null;
+        }
+        for (Map.Entry<String, Set<String>> columnNameToAliasEntry :
+                csvOrganizerConfig.getColumnNameToAliases().entrySet()) {
+            if (cellColumn.equalsIgnoreCase(columnNameToAliasEntry.getKey())) {
+                return columnNameToAliasEntry.getKey();
+            } else {
+                for (String alias : columnNameToAliasEntry.getValue()) {
+                    if (cellColumn.equalsIgnoreCase(alias)) {
+                        return columnNameToAliasEntry.getKey();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the normalized column names in config order; row values are laid out in this order
+     */
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * @return the number of input cells that are bound to a normalized column
+     */
+    public int size() {
+        return recordIndexes.length;
+    }
+
+    /**
+     * @return the record index of every binding, in binding order
+     */
+    public int[] getRecordIndexes() {
+        return recordIndexes.clone();
+    }
+
+    public int getRecordIndex(int binding) {
+        return recordIndexes[binding];
+    }
+
+    public int getColumnIndex(int binding) {
+        return columnIndexes[binding];
+    }
+
+    public String getColumnName(int binding) {
+        return columnNames.get(columnIndexes[binding]);
+    }
+
+    public int getDateFormat(int binding) {
+        return dateFormats[binding];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("HeaderBinding{");
+        for (int i = 0; i < recordIndexes.length; i++) {
+            if (i > 0) { sb.append(", "); }
+            sb.append(recordIndexes[i]).append("->").append(getColumnName(i));
+        }
+        return sb.append('}').toString();
+    }
+}
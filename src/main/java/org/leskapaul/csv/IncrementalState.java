@@ -0,0 +1,335 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The state directory of incremental runs. For every input file it keeps the categorized, normalized rows (before
+ * sorting), keyed by the SHA-256 hash of the file's content, so a later run only parses files whose content it has
+ * not seen. Files are only re-hashed when their size or modification time changed.
+ *
+ * The state is tied to a fingerprint of everything that determines the stored rows: columns and aliases, category
+ * rules and the regex step budget, date transformers, the default category, the csv format and whether the dialect
+ * of each file is sniffed (see {@link CsvDialect}). When the fingerprint differs, the stored rows are discarded.
+ * Sorting and aggregations are applied after loading, so changing them keeps the state valid.
+ *
+ * The manifest is only replaced by {@link #save()} at the end of a successful run; rows of files no longer in the
+ * input are deleted then.
+ */
+public class IncrementalState {
+
+    private static final Logger LOG = LogManager.getLogger(IncrementalState.class.getSimpleName());
+    private static final String MANIFEST_FILE = "state.properties";
+    private static final String ROWS_SUFFIX = ".rows";
+    private static final String FORMAT_VERSION = "1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path stateDirectory;
+    private final CompiledCsvOrganizerConfig compiledConfig;
+    private final String configFingerprint;
+    private final Map<String, Integer> storedEntries = new HashMap<>();
+    private final Map<String, String[]> storedFiles = new HashMap<>();
+    private final Map<String, Integer> entries = new ConcurrentHashMap<>();
+    private final Map<String, String[]> files = new ConcurrentHashMap<>();
+
+    private IncrementalState(Path stateDirectory, CompiledCsvOrganizerConfig compiledConfig, String configFingerprint) {
+        this.stateDirectory = stateDirectory;
+        this.compiledConfig = compiledConfig;
+        this.configFingerprint = configFingerprint;
+    }
+
+    /**
+     * Opens (creating it if needed) the state directory for a run with the given config and csv format.
+     */
+    public static IncrementalState open(Path stateDirectory, CompiledCsvOrganizerConfig compiledConfig,
+                                        CSVFormat csvFormat) {
+        return open(stateDirectory, compiledConfig, csvFormat, false);
+    }
+
+    /**
+     * Like {@link #open(Path, CompiledCsvOrganizerConfig, CSVFormat)}, for a run that sniffs the dialect of each file
+     * from the given csv format if {@code sniffDialect} is set.
+     */
+    public static IncrementalState open(Path stateDirectory, CompiledCsvOrganizerConfig compiledConfig,
+                                        CSVFormat csvFormat, boolean sniffDialect) {
+        String fingerprint = fingerprint(compiledConfig.getConfig(), csvFormat);
+        IncrementalState state = new IncrementalState(stateDirectory, compiledConfig,
+                sniffDialect ? digest(List.of(fingerprint, "sniffDialect")) : fingerprint);
+        try {
+            Files.createDirectories(stateDirectory);
+            Path manifestFile = stateDirectory.resolve(MANIFEST_FILE);
+            if (!Files.exists(manifestFile)) {
+                LOG.info("no incremental state in {} yet", stateDirectory);
+                return state;
+            }
+            Properties manifest = new Properties();
+            try (InputStream input = Files.newInputStream(manifestFile)) {
+                manifest.load(input);
+            }
+            if (!FORMAT_VERSION.equals(manifest.getProperty("formatVersion"))
+                    || !state.configFingerprint.equals(manifest.getProperty("configFingerprint"))) {
+                LOG.info("config changed since the incremental state in {} was saved, so it is discarded",
+                        stateDirectory);
+                return state;
+            }
+            for (String key : manifest.stringPropertyNames()) {
+                if (key.startsWith("entry.")) {
+                    state.storedEntries.put(key.substring("entry.".length()),
+                            Integer.parseInt(manifest.getProperty(key)));
+                } else if (key.startsWith("file.")) {
+                    state.storedFiles.put(key.substring("file.".length()), manifest.getProperty(key).split(":", 3));
+                }
+            }
+            LOG.info("loaded incremental state of {} files from {}", state.storedEntries.size(), stateDirectory);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("ignoring unreadable incremental state in {}", stateDirectory, e);
+            state.storedEntries.clear();
+            state.storedFiles.clear();
+        }
+        return state;
+    }
+
+    /**
+     * @return the content hash of the file, reusing the stored hash when its size and modification time are unchanged
+     */
+    public String hash(Path csvFile) {
+        try {
+            String key = csvFile.toAbsolutePath().normalize().toString();
+            String size = Long.toString(Files.size(csvFile));
+            String lastModified = Long.toString(Files.getLastModifiedTime(csvFile).toMillis());
+            String[] stored = storedFiles.get(key);
+            String hash;
+            if (stored != null && stored.length == 3 && stored[0].equals(size) && stored[1].equals(lastModified)) {
+                hash = stored[2];
+            } else {
+                MessageDigest digest = sha256();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                try (InputStream input = Files.newInputStream(csvFile)) {
+                    for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+                hash = toHex(digest.digest());
+            }
+            files.put(key, new String[] {size, lastModified, hash});
+            return hash;
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to hash " + csvFile, e);
+        }
+    }
+
+    /**
+     * @return the number of stored chunks of rows for the content hash, or -1 if there are none; the stored rows are
+     * kept by {@link #save()}
+     */
+    public int getStoredChunkCount(String hash) {
+        Integer chunkCount = storedEntries.get(hash);
+        if (chunkCount == null) {
+            return -1;
+        }
+        entries.put(hash, chunkCount);
+        return chunkCount;
+    }
+
+    /**
+     * Registers rows about to be stored in {@code chunkCount} chunks; they are kept by {@link #save()} once every
+     * chunk is stored.
+     */
+    public void addEntry(String hash, int chunkCount) {
+        entries.put(hash, chunkCount);
+    }
+
+    /**
+     * @return the categorized rows stored for the chunk, with aggregates computed afresh
+     */
+    public Map<String, CsvCategorizeAndMerge.CategoryCsvLines> load(String hash, int chunk) {
+        Path rowsFile = rowsFile(hash, chunk);
+        List<String> columnNames = compiledConfig.getColumnNames();
+        Map<String, CsvCategorizeAndMerge.CategoryCsvLines> categoryToLines = new HashMap<>();
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(rowsFile), BUFFER_SIZE))) {
+            int categoryCount = RowCodec.readVarInt(input);
+            for (int i = 0; i < categoryCount; i++) {
+                String category = RowCodec.readValue(input);
+                int rowCount = RowCodec.readVarInt(input);
+                CsvCategorizeAndMerge.CategoryCsvLines lines = new CsvCategorizeAndMerge.CategoryCsvLines(category,
+                        columnNames, compiledConfig.newCategoryAggregates());
+                for (int row = 0; row < rowCount; row++) {
+                    lines.addRow(RowCodec.readRow(input, columnNames.size()));
+                }
+                categoryToLines.put(category, lines);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to load stored rows from " + rowsFile, e);
+        }
+        return categoryToLines;
+    }
+
+    public void store(String hash, int chunk, Map<String, CsvCategorizeAndMerge.CategoryCsvLines> categoryToLines) {
+        Path rowsFile = rowsFile(hash, chunk);
+        try {
+            Path tempFile = Files.createTempFile(stateDirectory, "rows-", ".tmp");
+            try (DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE))) {
+                RowCodec.writeVarInt(output, categoryToLines.size());
+                for (CsvCategorizeAndMerge.CategoryCsvLines lines : categoryToLines.values()) {
+                    RowCodec.writeValue(output, lines.getCategoryName());
+                    RowCodec.writeVarInt(output, lines.size());
+                    RowStore rowStore = lines.getRowStore();
+                    for (int row = 0; row < rowStore.size(); row++) {
+                        RowCodec.writeRow(output, rowStore.getRow(row));
+                    }
+                }
+            }
+            Files.move(tempFile, rowsFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to store rows in " + rowsFile, e);
+        }
+    }
+
+    /**
+     * Replaces the manifest with the files and rows of this run, and deletes rows and temp files not in it.
+     */
+    public void save() {
+        Properties manifest = new Properties();
+        manifest.setProperty("formatVersion", FORMAT_VERSION);
+        manifest.setProperty("configFingerprint", configFingerprint);
+        entries.forEach((hash, chunkCount) -> manifest.setProperty("entry." + hash, Integer.toString(chunkCount)));
+        files.forEach((file, fileState) -> manifest.setProperty("file." + file, String.join(":", fileState)));
+        Path manifestFile = stateDirectory.resolve(MANIFEST_FILE);
+        try {
+            Path tempFile = Files.createTempFile(stateDirectory, "state-", ".tmp");
+            try (OutputStream output = Files.newOutputStream(tempFile)) {
+                manifest.store(output, "incremental state of CsvCategorizeAndMerge");
+            }
+            Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            Set<String> keptFiles = new HashSet<>();
+            keptFiles.add(MANIFEST_FILE);
+            entries.forEach((hash, chunkCount) -> {
+                for (int chunk = 0; chunk < chunkCount; chunk++) {
+                    keptFiles.add(rowsFile(hash, chunk).getFileName().toString());
+                }
+            });
+            List<Path> staleFiles = new ArrayList<>();
+            try (Stream<Path> stateFiles = Files.list(stateDirectory)) {
+                stateFiles.filter(file -> !keptFiles.contains(file.getFileName().toString()))
+                        .filter(file -> file.getFileName().toString().endsWith(ROWS_SUFFIX)
+                                || file.getFileName().toString().endsWith(".tmp"))
+                        .forEach(staleFiles::add);
+            }
+            for (Path staleFile : staleFiles) {
+                Files.deleteIfExists(staleFile);
+            }
+            LOG.info("saved incremental state of {} files to {}, deleted {} stale files", entries.size(),
+                    stateDirectory, staleFiles.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to save incremental state to " + stateDirectory, e);
+        }
+    }
+
+    private Path rowsFile(String hash, int chunk) {
+        return stateDirectory.resolve(hash + "-" + chunk + ROWS_SUFFIX);
+    }
+
+    /**
+     * Hashes the parts of the config that determine how rows are categorized and normalized. Sets whose order does
+     * not matter are sorted, so an equivalent config loaded again yields the same fingerprint.
+     */
+    static String fingerprint(CsvCategorizeAndMerge.CsvOrganizerConfig config, CSVFormat csvFormat) {
+        List<String> parts = new ArrayList<>();
+        addNormalizationParts(config, parts);
+        parts.add("categories");
+        for (CsvCategorizeAndMerge.CsvOrganizerCategoryConfig categoryConfig : config.getCategoryConfigs()) {
+            parts.add(categoryConfig.getCategory());
+            parts.add(categoryConfig.getColumnName());
+            parts.add(categoryConfig.getRegexes() == null ? "" : String.join("\n", categoryConfig.getRegexes()));
+        }
+        parts.add(config.getDefaultCategoryName());
+        parts.add(Integer.toString(config.getRegexStepBudget()));
+        parts.add(Boolean.toString(config.isRegexStepBudgetConfigured()));
+        parts.add(csvFormat.toString());
+        return digest(parts);
+    }
+
+    /**
+     * Hashes the parts of the config that determine how parsed values are normalized, but not how rows are
+     * categorized: columns and aliases, and date transformers.
+     */
+    static String normalizationFingerprint(CsvCategorizeAndMerge.CsvOrganizerConfig config) {
+        List<String> parts = new ArrayList<>();
+        addNormalizationParts(config, parts);
+        return digest(parts);
+    }
+
+    private static void addNormalizationParts(CsvCategorizeAndMerge.CsvOrganizerConfig config, List<String> parts) {
+        parts.add("columns");
+        config.getColumnNameToAliases().forEach((columnName, aliases) -> {
+            parts.add(columnName);
+            parts.add(String.join("\n", new TreeSet<>(aliases)));
+        });
+        parts.add("dates");
+        config.getColumnNameToDateTransformer().forEach((columnName, dateTransformerConfig) -> {
+            parts.add(columnName);
+            parts.add(String.join("\n", dateTransformerConfig.getInputFormats()));
+            parts.add(dateTransformerConfig.getOutputFormat());
+        });
+        // date patterns are resolved with the default locale
+        parts.add(Locale.getDefault(Locale.Category.FORMAT).toLanguageTag());
+    }
+
+    static String digest(List<String> parts) {
+        MessageDigest digest = sha256();
+        for (String part : parts) {
+            byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+            // length-prefixed, so that no two different configs concatenate to the same bytes
+            digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) ':');
+            digest.update(bytes);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
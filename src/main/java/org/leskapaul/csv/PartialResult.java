@@ -0,0 +1,399 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The organized rows of a subset of the inputs, written by one run of a sharded job (e.g. one machine of a historical
+ * backfill), so that {@link #merge} can combine any number of partial results into the output of a single run over
+ * all of their inputs.
+ *
+ * The file starts with a magic number, the {@link #fingerprint} of the config and csv format the rows were organized
+ * with, and the column names. Then follows every category with rows, in config order: its name, its aggregates, and
+ * its normalized rows in sorted order, each preceded by a marker, then an end marker. Rows with equal sort values are
+ * in input order, so a merge of partial results whose inputs follow each other in the order of a single run, ties
+ * going to the earlier partial result, keeps the order of that run.
+ */
+public class PartialResult {
+
+    private static final Logger LOG = LogManager.getLogger(PartialResult.class.getSimpleName());
+    // "CSVPART1"
+    private static final long MAGIC = 0x4353_5650_4152_5431L;
+    private static final int END = 0;
+    private static final int CATEGORY = 1;
+    private static final int ROW = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private PartialResult() {
+    }
+
+    /**
+     * Hashes everything that determines the output: what {@link IncrementalState#fingerprint} covers, plus sorting,
+     * aggregations and deduplication. Partial results only merge with a config of the same fingerprint.
+     */
+    static String fingerprint(CsvCategorizeAndMerge.CsvOrganizerConfig config, CSVFormat csvFormat) {
+        List<String> parts = new ArrayList<>();
+        parts.add(IncrementalState.fingerprint(config, csvFormat));
+        parts.add("sort");
+        parts.add(String.valueOf(config.getSortColumnName()));
+        parts.add(String.valueOf(config.getSortType()));
+        parts.add("aggregations");
+        for (AggregationConfig aggregationConfig : config.getAggregationConfigs()) {
+            parts.add(aggregationConfig.getName());
+            parts.add(aggregationConfig.getFunction().name());
+            parts.add(String.valueOf(aggregationConfig.getColumnName()));
+            parts.add(String.valueOf(aggregationConfig.getLabelColumnName()));
+        }
+        parts.add("deduplication");
+        if (config.getDeduplicationConfig() != null) {
+            parts.add(String.join("\n", config.getDeduplicationConfig().getColumnNames()));
+        }
+        return IncrementalState.digest(parts);
+    }
+
+    /**
+     * Merges partial results into the categories a single run over all of their inputs would produce, streaming
+     * each category as a k-way merge of the partial results' sorted rows.
+     *
+     * With deduplication, a row is dropped if an earlier partial result has a row with the same key, as if each
+     * partial result were one input. Since the partial results were deduplicated within themselves, this drops the
+     * same rows as a single run. This takes a first pass over the partial results to find the dropped rows and to
+     * aggregate the remaining ones.
+     *
+     * @param partialFiles partial results, in the order of their inputs
+     * @throws IllegalStateException if a partial result was written with another config or csv format
+     */
+    static void merge(List<Path> partialFiles, CompiledCsvOrganizerConfig compiledConfig, CSVFormat csvFormat,
+                      SortedCategoryConsumer sortedCategoryConsumer, RunMetrics runMetrics) {
+        String fingerprint = fingerprint(compiledConfig.getConfig(), csvFormat);
+        RowDeduplicator rowDeduplicator = compiledConfig.newRowDeduplicator();
+        DeduplicatedRows deduplicatedRows = rowDeduplicator == null || partialFiles.size() < 2 ? null
+                : deduplicate(partialFiles, fingerprint, compiledConfig, rowDeduplicator, runMetrics);
+        List<PartialReader> partialReaders = new ArrayList<>();
+        long mergeStart = runMetrics.startTimer();
+        try {
+            for (int partial = 0; partial < partialFiles.size(); partial++) {
+                Path partialFile = partialFiles.get(partial);
+                partialReaders.add(new PartialReader(partialFile, fingerprint, compiledConfig,
+                        deduplicatedRows == null ? null : deduplicatedRows.droppedRows.get(partial),
+                        runMetrics.addInput(partialFile.toString(), Files.size(partialFile))));
+            }
+            for (String category : compiledConfig.getCategoriesInOrder()) {
+                List<PartialReader> categoryReaders = new ArrayList<>();
+                List<Iterator<String[]>> sources = new ArrayList<>();
+                CategoryAggregates aggregates = deduplicatedRows == null ? compiledConfig.newCategoryAggregates()
+                        : deduplicatedRows.categoryToAggregates.get(category);
+                for (PartialReader partialReader : partialReaders) {
+                    if (category.equals(partialReader.nextCategory)) {
+                        partialReader.readAggregates(deduplicatedRows == null ? aggregates : null);
+                        categoryReaders.add(partialReader);
+                        sources.add(partialReader.rowIterator());
+                    }
+                }
+                if (sources.isEmpty()
+                        || deduplicatedRows != null && !deduplicatedRows.categories.contains(category)) {
+                    LOG.debug("no rows for category={}", category);
+                } else {
+                    long start = runMetrics.startTimer();
+                    sortedCategoryConsumer.accept(category, new ExternalCategorySorter.MergingIterator(sources,
+                            compiledConfig.getRowSorter()), aggregates);
+                    runMetrics.addTime(RunMetrics.Stage.OUTPUT, start);
+                }
+                for (PartialReader partialReader : categoryReaders) {
+                    partialReader.finishCategory();
+                }
+            }
+            for (PartialReader partialReader : partialReaders) {
+                if (partialReader.nextCategory != null) {
+                    throw new IllegalStateException("partial result " + partialReader.partialFile
+                            + " has category " + partialReader.nextCategory + " out of config order");
+                }
+                runMetrics.addInputRows(partialReader.inputMetrics, partialReader.rowCount, mergeStart);
+            }
+            LOG.info("merged {} partial results", partialFiles.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read partial results", e);
+        } finally {
+            partialReaders.forEach(PartialReader::close);
+        }
+    }
+
+    /**
+     * Reads the partial results one after another, each as one input of the deduplicator.
+     */
+    private static DeduplicatedRows deduplicate(List<Path> partialFiles, String fingerprint,
+                                                CompiledCsvOrganizerConfig compiledConfig,
+                                                RowDeduplicator rowDeduplicator, RunMetrics runMetrics) {
+        DeduplicatedRows deduplicatedRows = new DeduplicatedRows();
+        for (Path partialFile : partialFiles) {
+            BitSet droppedRows = new BitSet();
+            RowDeduplicator.ChunkFilter chunkFilter = rowDeduplicator.newChunkFilter();
+            try (PartialReader partialReader = new PartialReader(partialFile, fingerprint, compiledConfig, null,
+                    null)) {
+                while (partialReader.nextCategory != null) {
+                    String category = partialReader.nextCategory;
+                    partialReader.readAggregates(null);
+                    for (String[] row = partialReader.readRow(); row != null; row = partialReader.readRow()) {
+                        if (chunkFilter.isDuplicate(row)) {
+                            droppedRows.set((int) (partialReader.rowCount - 1));
+                            continue;
+                        }
+                        deduplicatedRows.categories.add(category);
+                        CategoryAggregates aggregates = deduplicatedRows.categoryToAggregates.computeIfAbsent(
+                                category, key -> compiledConfig.newCategoryAggregates());
+                        if (aggregates != null) {
+                            aggregates.addRow(row);
+                        }
+                    }
+                    partialReader.finishCategory();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read partial result " + partialFile, e);
+            }
+            rowDeduplicator.addChunk(chunkFilter);
+            rowDeduplicator.finishInput();
+            deduplicatedRows.droppedRows.add(droppedRows);
+        }
+        LOG.info("dropped {} duplicate rows", rowDeduplicator.getDuplicateCount());
+        runMetrics.addDuplicateRows(rowDeduplicator.getDuplicateCount());
+        return deduplicatedRows;
+    }
+
+    private static class DeduplicatedRows {
+        /** per partial result, the numbers of its dropped rows, counted across categories */
+        private final List<BitSet> droppedRows = new ArrayList<>();
+        private final Set<String> categories = new HashSet<>();
+        private final Map<String, CategoryAggregates> categoryToAggregates = new HashMap<>();
+    }
+
+    /**
+     * Reads a partial result category by category, as they are merged.
+     */
+    private static class PartialReader implements Closeable {
+        private final Path partialFile;
+        private final DataInputStream input;
+        private final CompiledCsvOrganizerConfig compiledConfig;
+        private final int columnCount;
+        private final BitSet droppedRows;
+        private final RunMetrics.InputMetrics inputMetrics;
+        private String nextCategory;
+        /** the rows read so far, including dropped ones */
+        private long rowCount;
+        private boolean rowsEnded;
+
+        /**
+         * @param droppedRows the numbers of the rows to skip, or null to read every row
+         */
+        private PartialReader(Path partialFile, String fingerprint, CompiledCsvOrganizerConfig compiledConfig,
+                              BitSet droppedRows, RunMetrics.InputMetrics inputMetrics) throws IOException {
+            this.partialFile = partialFile;
+            this.compiledConfig = compiledConfig;
+            this.droppedRows = droppedRows;
+            this.inputMetrics = inputMetrics;
+            this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(partialFile), BUFFER_SIZE));
+            try {
+                if (input.readLong() != MAGIC) {
+                    throw new IllegalStateException(partialFile + " is not a partial result");
+                }
+                if (!fingerprint.equals(RowCodec.readValue(input))) {
+                    throw new IllegalStateException("partial result " + partialFile
+                            + " was written with another config or csv format");
+                }
+                columnCount = RowCodec.readVarInt(input);
+                for (int column = 0; column < columnCount; column++) {
+                    RowCodec.readValue(input);
+                }
+                nextCategory();
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private void nextCategory() throws IOException {
+            int marker = input.readByte();
+            if (marker == END) {
+                nextCategory = null;
+            } else if (marker == CATEGORY) {
+                nextCategory = RowCodec.readValue(input);
+                rowsEnded = false;
+            } else {
+                throw new IOException("malformed partial result " + partialFile);
+            }
+        }
+
+        /**
+         * Reads the aggregates of the next category into the given ones, or skips them if null.
+         */
+        private void readAggregates(CategoryAggregates aggregates) throws IOException {
+            if (input.readBoolean()) {
+                (aggregates == null ? compiledConfig.newCategoryAggregates() : aggregates).addFrom(input);
+            }
+        }
+
+        /**
+         * @return the rows of the next category, without dropped rows
+         */
+        private Iterator<String[]> rowIterator() {
+            return new Iterator<>() {
+                private String[] next = readRow();
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public String[] next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    String[] current = next;
+                    next = readRow();
+                    return current;
+                }
+            };
+        }
+
+        private String[] readRow() {
+            try {
+                while (!rowsEnded) {
+                    int marker = input.readByte();
+                    if (marker == END) {
+                        rowsEnded = true;
+                    } else if (marker != ROW) {
+                        throw new IOException("malformed partial result " + partialFile);
+                    } else {
+                        String[] row = RowCodec.readRow(input, columnCount);
+                        long rowNumber = rowCount++;
+                        if (droppedRows == null || !droppedRows.get((int) rowNumber)) {
+                            return row;
+                        }
+                    }
+                }
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read partial result " + partialFile, e);
+            }
+        }
+
+        /**
+         * Skips the rows of the current category the consumer did not read and moves to the next category.
+         */
+        private void finishCategory() throws IOException {
+            while (readRow() != null) {
+                // skipped
+            }
+            nextCategory();
+        }
+
+        @Override
+        public void close() {
+            try {
+                input.close();
+            } catch (IOException e) {
+                LOG.warn("failed to close partial result {}", partialFile, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the organized categories of a run as a partial result. The rows go to a temp file next to the partial
+     * result file, which replaces it once {@link #finish() finished}; closing the writer deletes the temp file.
+     */
+    public static class Writer implements SortedCategoryConsumer, Closeable {
+        private final Path partialFile;
+        private final Path tempFile;
+        private DataOutputStream output;
+        private int categoryCount;
+        private long rowCount;
+
+        public Writer(Path partialFile, CompiledCsvOrganizerConfig compiledConfig, CSVFormat csvFormat) {
+            this.partialFile = partialFile.toAbsolutePath();
+            try {
+                this.tempFile = Files.createTempFile(this.partialFile.getParent(), ".partial-", ".tmp");
+                this.output = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE));
+                output.writeLong(MAGIC);
+                RowCodec.writeValue(output, fingerprint(compiledConfig.getConfig(), csvFormat));
+                RowCodec.writeVarInt(output, compiledConfig.getColumnNames().size());
+                for (String columnName : compiledConfig.getColumnNames()) {
+                    RowCodec.writeValue(output, columnName);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to write partial result " + partialFile, e);
+            }
+        }
+
+        @Override
+        public void accept(String categoryName, Iterator<String[]> sortedRows, CategoryAggregates aggregates) {
+            try {
+                output.writeByte(CATEGORY);
+                RowCodec.writeValue(output, categoryName);
+                output.writeBoolean(aggregates != null);
+                if (aggregates != null) {
+                    aggregates.writeTo(output);
+                }
+                while (sortedRows.hasNext()) {
+                    output.writeByte(ROW);
+                    RowCodec.writeRow(output, sortedRows.next());
+                    rowCount++;
+                }
+                output.writeByte(END);
+                categoryCount++;
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to write category " + categoryName + " to partial result "
+                        + partialFile, e);
+            }
+        }
+
+        /**
+         * Ends the partial result and moves it into place.
+         */
+        public void finish() {
+            try {
+                output.writeByte(END);
+                output.close();
+                output = null;
+                Files.move(tempFile, partialFile, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to write partial result " + partialFile, e);
+            }
+            LOG.info("wrote a partial result of {} rows in {} categories to {}", rowCount, categoryCount,
+                    partialFile);
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (output != null) {
+                    output.close();
+                }
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                LOG.warn("failed to delete partial result temp file {}", tempFile, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.leskapaul.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a source stream on its own thread into a bounded queue of blocks, so that expensive reads (decompression)
+ * overlap with whatever the consumer does with the bytes. The reader thread blocks once the queue is full, so at
+ * most {@code blockSize * blockCount} bytes are buffered. Errors of the source are rethrown to the consumer after
+ * the bytes read before them. Closing this stream stops the reader thread and closes the source.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final byte[] END = new byte[0];
+
+    private final String name;
+    private final BlockingQueue<byte[]> blocks;
+    private final Thread readerThread;
+    private volatile IOException failure;
+    private byte[] block;
+    private int position;
+
+    /**
+     * @param name used in the reader thread's name and in errors
+     */
+    public ReadAheadInputStream(String name, InputStream source, int blockSize, int blockCount) {
+        this.name = name;
+        this.blocks = new ArrayBlockingQueue<>(blockCount);
+        this.readerThread = new Thread(() -> readAhead(source, blockSize), "read-ahead-" + name);
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+
+    private void readAhead(InputStream source, int blockSize) {
+        try (InputStream inputStream = source) {
+            while (true) {
+                byte[] readBlock = new byte[blockSize];
+                int length = inputStream.readNBytes(readBlock, 0, blockSize);
+                if (length == 0) {
+                    break;
+                }
+                blocks.put(length == blockSize ? readBlock : Arrays.copyOf(readBlock, length));
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new IOException(e);
+        } catch (InterruptedException e) {
+            // closed by the consumer, nobody waits for the end
+            return;
+        }
+        try {
+            blocks.put(END);
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureBlock()) {
+            return -1;
+        }
+        int count = Math.min(length, block.length - position);
+        System.arraycopy(block, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return block == null ? 0 : block.length - position;
+    }
+
+    /**
+     * @return false at the end of the source
+     */
+    private boolean ensureBlock() throws IOException {
+        while (block == null || position == block.length) {
+            if (block == END) {
+                return false;
+            }
+            try {
+                block = blocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while reading " + name);
+            }
+            position = 0;
+            if (block == END && failure != null) {
+                throw new IOException("failed to read " + name, failure);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        block = END;
+        readerThread.interrupt();
+    }
+}
@@ -0,0 +1,121 @@
+package org.leskapaul.csv;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of normalized rows for temporary and state files: every value is written as a varint of its
+ * UTF-8 length plus one (zero for null) followed by its bytes. Rows can be read from a stream or, for
+ * memory-mapped files, straight from a {@link ByteBuffer}.
+ */
+public final class RowCodec {
+
+    private RowCodec() {
+    }
+
+    public static void writeRow(DataOutput output, String[] values) throws IOException {
+        for (String value : values) {
+            writeValue(output, value);
+        }
+    }
+
+    /**
+     * @return the row, or null at the end of the input
+     */
+    public static String[] readRow(DataInput input, int columnCount) throws IOException {
+        String[] values = new String[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            int header;
+            try {
+                header = readVarInt(input);
+            } catch (EOFException e) {
+                if (column == 0) {
+                    return null;
+                }
+                throw e;
+            }
+            values[column] = readValue(input, header);
+        }
+        return values;
+    }
+
+    /**
+     * Reads a row from the buffer's position, which must be followed by a complete row.
+     */
+    public static String[] readRow(ByteBuffer buffer, int columnCount) throws IOException {
+        String[] values = new String[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            values[column] = readValue(buffer);
+        }
+        return values;
+    }
+
+    public static String readValue(ByteBuffer buffer) throws IOException {
+        int header = readVarInt(buffer);
+        if (header == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[header - 1];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeValue(DataOutput output, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(output, bytes.length + 1);
+        output.write(bytes);
+    }
+
+    public static String readValue(DataInput input) throws IOException {
+        return readValue(input, readVarInt(input));
+    }
+
+    private static String readValue(DataInput input, int header) throws IOException {
+        if (header == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[header - 1];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeVarInt(DataOutput output, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            output.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = input.readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    public static int readVarInt(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
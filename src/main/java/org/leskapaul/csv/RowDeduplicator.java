@@ -0,0 +1,232 @@
+package org.leskapaul.csv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Deduplication state of a single run (see {@link DeduplicationConfig}). Every row is reduced to a 64-bit
+ * fingerprint of its key columns, and the fingerprints of all inputs finished so far are kept in an open-addressing
+ * set of longs, about 8 to 16 bytes per distinct row. An optional blocked Bloom filter in front of the set answers
+ * most lookups of new rows with a single read of one word.
+ *
+ * Inputs must be processed one after another, while the chunks of one input may be processed concurrently: each
+ * chunk tests its rows against the finished inputs through its own {@link ChunkFilter}, and
+ * {@link #finishInput()} adds the chunks' fingerprints to the set. Which rows are dropped therefore only depends on
+ * the input order.
+ */
+public class RowDeduplicator {
+
+    private final int[] keyColumns;
+    private final LongHashSet seenFingerprints = new LongHashSet();
+    private final BloomFilter bloomFilter;
+    private final List<LongHashSet> pendingFingerprints = new ArrayList<>();
+    private final LongAdder duplicateCount = new LongAdder();
+
+    RowDeduplicator(DeduplicationConfig deduplicationConfig, int[] keyColumns) {
+        this.keyColumns = keyColumns;
+        this.bloomFilter = deduplicationConfig.isBloomFilter()
+                ? new BloomFilter(deduplicationConfig.getExpectedRows()) : null;
+    }
+
+    /**
+     * @return a filter for the rows of one chunk of the current input; pass it to {@link #addChunk} when done
+     */
+    public ChunkFilter newChunkFilter() {
+        return new ChunkFilter();
+    }
+
+    public synchronized void addChunk(ChunkFilter chunkFilter) {
+        pendingFingerprints.add(chunkFilter.chunkFingerprints);
+    }
+
+    /**
+     * Makes the rows of all chunks added since the last call visible to the following inputs.
+     */
+    public synchronized void finishInput() {
+        for (LongHashSet chunkFingerprints : pendingFingerprints) {
+            chunkFingerprints.forEach(fingerprint -> {
+                seenFingerprints.add(fingerprint);
+                if (bloomFilter != null) {
+                    bloomFilter.add(fingerprint);
+                }
+            });
+        }
+        pendingFingerprints.clear();
+    }
+
+    public long getDuplicateCount() {
+        return duplicateCount.sum();
+    }
+
+    /**
+     * FNV-1a over the values with a separator after each, so that e.g. ("ab", "c") and ("a", "bc") differ, then
+     * the murmur3 finalizer to spread the bits.
+     */
+    long fingerprint(String[] row) {
+        long hash = 0xcbf29ce484222325L;
+        for (int keyColumn : keyColumns) {
+            String value = row[keyColumn];
+            if (value == null) {
+                hash = (hash ^ 0x1ff) * 0x100000001b3L;
+                continue;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ 0x2ff) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Tests the rows of one chunk against the inputs finished so far. Not thread safe; the finished inputs are only
+     * read, so filters of concurrent chunks do not contend.
+     */
+    public class ChunkFilter {
+        private final LongHashSet chunkFingerprints = new LongHashSet();
+
+        private ChunkFilter() {
+        }
+
+        /**
+         * @return true if the row repeats a row of a finished input and must be dropped
+         */
+        public boolean isDuplicate(String[] row) {
+            long fingerprint = fingerprint(row);
+            if ((bloomFilter == null || bloomFilter.mightContain(fingerprint))
+                    && seenFingerprints.contains(fingerprint)) {
+                duplicateCount.increment();
+                return true;
+            }
+            chunkFingerprints.add(fingerprint);
+            return false;
+        }
+    }
+
+    /**
+     * A set of longs with linear probing; 0 marks an empty slot, so the value 0 is stored as a flag.
+     */
+    static class LongHashSet {
+        private static final float MAX_LOAD = 0.75f;
+
+        private long[] slots = new long[16];
+        private int size;
+        private boolean containsZero;
+
+        boolean add(long value) {
+            if (value == 0) {
+                boolean added = !containsZero;
+                containsZero = true;
+                return added;
+            }
+            int mask = slots.length - 1;
+            for (int slot = index(value, mask); ; slot = (slot + 1) & mask) {
+                if (slots[slot] == value) {
+                    return false;
+                }
+                if (slots[slot] == 0) {
+                    slots[slot] = value;
+                    if (++size > slots.length * MAX_LOAD) {
+                        grow();
+                    }
+                    return true;
+                }
+            }
+        }
+
+        boolean contains(long value) {
+            if (value == 0) {
+                return containsZero;
+            }
+            int mask = slots.length - 1;
+            for (int slot = index(value, mask); ; slot = (slot + 1) & mask) {
+                if (slots[slot] == value) {
+                    return true;
+                }
+                if (slots[slot] == 0) {
+                    return false;
+                }
+            }
+        }
+
+        int size() {
+            return size + (containsZero ? 1 : 0);
+        }
+
+        void forEach(LongConsumer consumer) {
+            if (containsZero) {
+                consumer.accept(0);
+            }
+            for (long value : slots) {
+                if (value != 0) {
+                    consumer.accept(value);
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldSlots = slots;
+            slots = new long[oldSlots.length * 2];
+            int mask = slots.length - 1;
+            for (long value : oldSlots) {
+                if (value != 0) {
+                    int slot = index(value, mask);
+                    while (slots[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots[slot] = value;
+                }
+            }
+        }
+
+        private static int index(long value, int mask) {
+            // fingerprints are already mixed, so folding the halves is enough
+            return (int) (value ^ (value >>> 32)) & mask;
+        }
+    }
+
+    /**
+     * A Bloom filter whose bits for a value all lie in one 64-bit word, so a lookup reads a single word. The high half
+     * of a fingerprint picks the word and the low half the bits. With about 10 bits per expected value, a few percent
+     * of new values pass it and go on to the set.
+     */
+    static class BloomFilter {
+        private static final int BITS_PER_VALUE = 10;
+        private static final int HASH_COUNT = 5;
+
+        private final long[] words;
+        private final int mask;
+
+        BloomFilter(long expectedValues) {
+            long wordCount = Long.highestOneBit(Math.max(64, expectedValues * BITS_PER_VALUE / 64) - 1) << 1;
+            this.words = new long[(int) Math.min(wordCount, 1 << 30)];
+            this.mask = words.length - 1;
+        }
+
+        void add(long value) {
+            words[(int) (value >>> 32) & mask] |= bits(value);
+        }
+
+        boolean mightContain(long value) {
+            long bits = bits(value);
+            return (words[(int) (value >>> 32) & mask] & bits) == bits;
+        }
+
+        private static long bits(long value) {
+            long bits = 0;
+            int hash = (int) value;
+            for (int i = 0; i < HASH_COUNT; i++) {
+                bits |= 1L << (hash & 63);
+                hash >>>= 6;
+            }
+            return bits;
+        }
+    }
+}
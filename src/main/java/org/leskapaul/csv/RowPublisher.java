@@ -0,0 +1,127 @@
+package org.leskapaul.csv;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the rows of a single run to a single subscriber. The run starts on its own thread once subscribed and
+ * pushes its rows into a sink that blocks while the subscriber has no outstanding demand, so a slow subscriber
+ * holds back the run instead of rows piling up in memory. Cancelling aborts the run at the next row.
+ */
+class RowPublisher implements Flow.Publisher<CategorizedRow> {
+
+    private static final Logger LOG = LogManager.getLogger(RowPublisher.class.getSimpleName());
+
+    private final String name;
+    private final Consumer<Consumer<CategorizedRow>> run;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param run pushes the rows of the run into the sink it is given, from the calling thread
+     */
+    RowPublisher(String name, Consumer<Consumer<CategorizedRow>> run) {
+        this.name = name;
+        this.run = run;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CategorizedRow> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("the rows of " + name + " can only be subscribed to once"));
+            return;
+        }
+        RowSubscription subscription = new RowSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        Thread runThread = new Thread(subscription::runAndSignal, "row-publisher-" + name);
+        runThread.setDaemon(true);
+        runThread.start();
+    }
+
+    private class RowSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super CategorizedRow> subscriber;
+        private long demand;
+        private boolean cancelled;
+        private IllegalArgumentException invalidRequest;
+
+        private RowSubscription(Flow.Subscriber<? super CategorizedRow> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("requested " + n + " rows, must be positive");
+                cancelled = true;
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        private void runAndSignal() {
+            try {
+                run.accept(this::emit);
+            } catch (CancellationException e) {
+                LOG.debug("run of {} cancelled", name);
+            } catch (RuntimeException e) {
+                if (!isCancelled()) {
+                    subscriber.onError(e);
+                }
+                return;
+            }
+            synchronized (this) {
+                if (invalidRequest != null) {
+                    subscriber.onError(invalidRequest);
+                    return;
+                }
+            }
+            if (!isCancelled()) {
+                subscriber.onComplete();
+            }
+        }
+
+        private void emit(CategorizedRow row) {
+            synchronized (this) {
+                while (demand == 0 && !cancelled) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancelled = true;
+                    }
+                }
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+            }
+            subscriber.onNext(row);
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
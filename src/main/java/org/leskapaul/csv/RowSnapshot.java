@@ -0,0 +1,434 @@
+package org.leskapaul.csv;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * A binary snapshot of the normalized rows of a run, taken before categories are assigned, so that changed category
+ * rules can be applied without parsing, resolving aliases and transforming dates again (see
+ * {@link CsvCategorizeAndMerge#streamSnapshot}).
+ *
+ * The file starts with a magic number, the {@link IncrementalState#normalizationFingerprint fingerprint} of the
+ * columns, aliases and date transformers the rows were normalized with, and the column names. Then follows one part
+ * per categorize task (a file, a chunk of a split file or a zip entry), made of blocks of about a megabyte of rows,
+ * and an end marker. A part records its input and the order in which the input's columns are tried for a category.
+ * A row holds its normalized values, followed by the raw value of every date column whose value the transformer
+ * changed, because category rules match the raw value. Blocks start with their length, so a reader finds all blocks
+ * with a quick scan and decodes them in parallel from the memory-mapped file.
+ */
+public class RowSnapshot {
+
+    private static final Logger LOG = LogManager.getLogger(RowSnapshot.class.getSimpleName());
+    // "CSVSNAP1"
+    private static final long MAGIC = 0x4353_5653_4e41_5031L;
+    private static final int END = 0;
+    private static final int PART = 1;
+    private static final int BLOCK = 2;
+    private static final int BLOCK_BYTES = 1 << 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private RowSnapshot() {
+    }
+
+    private static int[] dateColumns(CompiledCsvOrganizerConfig compiledConfig) {
+        List<Integer> dateColumns = new ArrayList<>();
+        for (int column = 0; column < compiledConfig.getColumnNames().size(); column++) {
+            if (compiledConfig.getDateTransformer(column) != null) {
+                dateColumns.add(column);
+            }
+        }
+        return dateColumns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Collects the parts of a run in temp files next to the snapshot file and writes the snapshot once the run is
+     * done. Closing the writer deletes the temp files; a snapshot not {@link #finish() finished} is not written.
+     */
+    public static class Writer implements Closeable {
+        private final Path snapshotFile;
+        private final CompiledCsvOrganizerConfig compiledConfig;
+        private final int[] dateColumns;
+        private final List<Part> parts = new ArrayList<>();
+
+        public Writer(Path snapshotFile, CompiledCsvOrganizerConfig compiledConfig) {
+            this.snapshotFile = snapshotFile.toAbsolutePath();
+            this.compiledConfig = compiledConfig;
+            this.dateColumns = dateColumns(compiledConfig);
+        }
+
+        /**
+         * @return a part for the rows of one categorize task; parts appear in the snapshot in the order they are
+         * created
+         */
+        public Part newPart(int inputIndex, String inputName) {
+            Part part = new Part(inputIndex, inputName);
+            parts.add(part);
+            return part;
+        }
+
+        /**
+         * Writes the snapshot from the finished parts, replacing the snapshot file.
+         */
+        public void finish() {
+            try {
+                Path tempFile = Files.createTempFile(snapshotFile.getParent(), ".snapshot-", ".tmp");
+                try {
+                    try (DataOutputStream output = new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE))) {
+                        output.writeLong(MAGIC);
+                        RowCodec.writeValue(output, IncrementalState.normalizationFingerprint(compiledConfig.getConfig()));
+                        RowCodec.writeVarInt(output, compiledConfig.getColumnNames().size());
+                        for (String columnName : compiledConfig.getColumnNames()) {
+                            RowCodec.writeValue(output, columnName);
+                        }
+                        for (Part part : parts) {
+                            part.writeTo(output);
+                        }
+                        output.writeByte(END);
+                    }
+                    Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+                LOG.info("wrote a snapshot of {} parts to {}", parts.size(), snapshotFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to write snapshot " + snapshotFile, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            for (Part part : parts) {
+                part.delete();
+            }
+        }
+
+        /**
+         * The rows of one categorize task. Not thread safe; every task writes its own part.
+         */
+        public class Part {
+            private final int inputIndex;
+            private final String inputName;
+            private int[] columnOrder;
+            private Path tempFile;
+            private DataOutputStream output;
+            private final ExposedByteArrayOutputStream block = new ExposedByteArrayOutputStream();
+            private final DataOutputStream blockOutput = new DataOutputStream(block);
+            private int blockRows;
+
+            private Part(int inputIndex, String inputName) {
+                this.inputIndex = inputIndex;
+                this.inputName = inputName;
+            }
+
+            /**
+             * @param columnOrder the columns in the order they are tried for a category
+             */
+            public void begin(int[] columnOrder) {
+                this.columnOrder = columnOrder;
+                try {
+                    tempFile = Files.createTempFile(snapshotFile.getParent(), ".snapshot-part-", ".tmp");
+                    output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile),
+                            BUFFER_SIZE));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("failed to create a snapshot part next to " + snapshotFile, e);
+                }
+            }
+
+            /**
+             * @param rawValues the raw value of every date column whose normalized value differs, other slots null
+             */
+            public void addRow(String[] normalizedValues, String[] rawValues) {
+                try {
+                    RowCodec.writeRow(blockOutput, normalizedValues);
+                    for (int dateColumn : dateColumns) {
+                        RowCodec.writeValue(blockOutput, rawValues[dateColumn]);
+                    }
+                    blockRows++;
+                    if (block.size() >= BLOCK_BYTES) {
+                        flushBlock();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("failed to write snapshot part " + tempFile, e);
+                }
+            }
+
+            public void finish() {
+                try {
+                    flushBlock();
+                    output.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("failed to write snapshot part " + tempFile, e);
+                }
+            }
+
+            private void flushBlock() throws IOException {
+                if (blockRows == 0) {
+                    return;
+                }
+                output.writeByte(BLOCK);
+                output.writeInt(block.size());
+                output.writeInt(blockRows);
+                output.write(block.getBuffer(), 0, block.size());
+                block.reset();
+                blockRows = 0;
+            }
+
+            private void writeTo(DataOutputStream snapshotOutput) throws IOException {
+                if (tempFile == null) {
+                    throw new IllegalStateException("part of " + inputName + " was never written");
+                }
+                snapshotOutput.writeByte(PART);
+                RowCodec.writeVarInt(snapshotOutput, inputIndex);
+                RowCodec.writeValue(snapshotOutput, inputName);
+                RowCodec.writeVarInt(snapshotOutput, columnOrder.length);
+                for (int column : columnOrder) {
+                    RowCodec.writeVarInt(snapshotOutput, column);
+                }
+                Files.copy(tempFile, snapshotOutput);
+            }
+
+            private void delete() {
+                try {
+                    if (output != null) {
+                        output.close();
+                    }
+                    if (tempFile != null) {
+                        Files.deleteIfExists(tempFile);
+                    }
+                } catch (IOException e) {
+                    LOG.warn("failed to delete snapshot part {}", tempFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot written for the same columns, aliases and date transformers.
+     */
+    public static class Reader implements Closeable {
+        private final Path snapshotFile;
+        private final FileChannel channel;
+        private final int columnCount;
+        private final int[] dateColumns;
+        private final List<Input> inputs = new ArrayList<>();
+
+        /**
+         * @throws IllegalStateException if the snapshot was written with other columns, aliases or date transformers
+         */
+        public Reader(Path snapshotFile, CompiledCsvOrganizerConfig compiledConfig) {
+            this.snapshotFile = snapshotFile;
+            this.columnCount = compiledConfig.getColumnNames().size();
+            this.dateColumns = dateColumns(compiledConfig);
+            try {
+                this.channel = FileChannel.open(snapshotFile, StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to open snapshot " + snapshotFile, e);
+            }
+            try {
+                scan(compiledConfig);
+            } catch (IOException | RuntimeException e) {
+                close();
+                if (e instanceof IllegalStateException) {
+                    throw (IllegalStateException) e;
+                }
+                throw new IllegalStateException("failed to read snapshot " + snapshotFile, e);
+            }
+        }
+
+        private void scan(CompiledCsvOrganizerConfig compiledConfig) throws IOException {
+            try (CountingInputStream counter = new CountingInputStream(
+                    new BufferedInputStream(Files.newInputStream(snapshotFile), BUFFER_SIZE))) {
+                DataInputStream input = new DataInputStream(counter);
+                if (input.readLong() != MAGIC) {
+                    throw new IllegalStateException(snapshotFile + " is not a snapshot");
+                }
+                String fingerprint = RowCodec.readValue(input);
+                List<String> columnNames = new ArrayList<>();
+                int snapshotColumnCount = RowCodec.readVarInt(input);
+                for (int column = 0; column < snapshotColumnCount; column++) {
+                    columnNames.add(RowCodec.readValue(input));
+                }
+                if (!fingerprint.equals(IncrementalState.normalizationFingerprint(compiledConfig.getConfig()))
+                        || !columnNames.equals(compiledConfig.getColumnNames())) {
+                    throw new IllegalStateException("snapshot " + snapshotFile + " was written with other columns, "
+                            + "aliases or date transformers than the config; write it again from the csv files");
+                }
+                int[] columnOrder = null;
+                int inputIndex = -1;
+                Input currentInput = null;
+                for (int marker = input.readByte(); marker != END; marker = input.readByte()) {
+                    if (marker == PART) {
+                        int partInputIndex = RowCodec.readVarInt(input);
+                        String inputName = RowCodec.readValue(input);
+                        columnOrder = new int[RowCodec.readVarInt(input)];
+                        for (int i = 0; i < columnOrder.length; i++) {
+                            columnOrder[i] = RowCodec.readVarInt(input);
+                        }
+                        if (partInputIndex != inputIndex) {
+                            inputIndex = partInputIndex;
+                            currentInput = new Input(inputName);
+                            inputs.add(currentInput);
+                        }
+                    } else if (marker == BLOCK && currentInput != null) {
+                        int length = input.readInt();
+                        int rowCount = input.readInt();
+                        currentInput.blocks.add(new Block(counter.getCount(), length, rowCount, columnOrder));
+                        input.skipNBytes(length);
+                    } else {
+                        throw new IOException("malformed snapshot at byte " + counter.getCount());
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the inputs of the snapshot, in the order they were given to the run that wrote it
+         */
+        public List<Input> getInputs() {
+            return Collections.unmodifiableList(inputs);
+        }
+
+        /**
+         * Decodes the rows of the block from the memory-mapped snapshot and hands each to the consumer as its
+         * normalized values and the values to match category rules against. Blocks can be read concurrently.
+         */
+        public void readBlock(Block block, BiConsumer<String[], String[]> rowConsumer) {
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, block.offset, block.length);
+                for (int row = 0; row < block.rowCount; row++) {
+                    String[] values = RowCodec.readRow(buffer, columnCount);
+                    String[] categoryValues = values;
+                    for (int dateColumn : dateColumns) {
+                        String rawValue = RowCodec.readValue(buffer);
+                        if (rawValue != null) {
+                            if (categoryValues == values) {
+                                categoryValues = values.clone();
+                            }
+                            categoryValues[dateColumn] = rawValue;
+                        }
+                    }
+                    rowConsumer.accept(values, categoryValues);
+                }
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalStateException("failed to read snapshot " + snapshotFile + " at byte "
+                        + block.offset, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("failed to close snapshot {}", snapshotFile, e);
+            }
+        }
+    }
+
+    public static class Input {
+        private final String name;
+        private final List<Block> blocks = new ArrayList<>();
+
+        private Input(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Block> getBlocks() {
+            return Collections.unmodifiableList(blocks);
+        }
+
+        public long getBytes() {
+            return blocks.stream().mapToLong(block -> block.length).sum();
+        }
+    }
+
+    public static class Block {
+        private final long offset;
+        private final int length;
+        private final int rowCount;
+        private final int[] columnOrder;
+
+        private Block(long offset, int length, int rowCount, int[] columnOrder) {
+            this.offset = offset;
+            this.length = length;
+            this.rowCount = rowCount;
+            this.columnOrder = columnOrder;
+        }
+
+        /**
+         * @return the columns of the block's input in the order they are tried for a category
+         */
+        public int[] getColumnOrder() {
+            return columnOrder;
+        }
+    }
+
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        private byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        private long getCount() {
+            return count;
+        }
+    }
+}
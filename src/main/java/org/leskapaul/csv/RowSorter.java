@@ -0,0 +1,245 @@
+package org.leskapaul.csv;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sorts the rows of a category by the configured sort column and sort type. The sort is stable, so rows with
+ * equal sort keys keep their input order, and {@link #rowComparator()} orders rows the same way so that sorted
+ * runs can be merged.
+ *
+ * Values are compared by typed keys: columns with a date transformer by the epoch day of their (transformed) date,
+ * other columns by amount when the value is a number (see {@link AmountParser}), and by text otherwise. Empty values
+ * come first, then typed keys, then text. Keys are computed once per distinct value of the column and ranked, so the
+ * row sort itself only compares ints. Input that is already sorted in stretches (bank exports usually are, newest or
+ * oldest first) is sorted by merging those stretches rather than from scratch.
+ */
+public class RowSorter {
+
+    private static final int EMPTY = 0;
+    private static final int TYPED = 1;
+    private static final int TEXT = 2;
+
+    private final int sortColumn;
+    private final boolean descending;
+    private final DateTransformer dateTransformer;
+
+    public RowSorter(CompiledCsvOrganizerConfig compiledConfig) {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = compiledConfig.getConfig();
+        this.sortColumn = compiledConfig.getColumnNames().indexOf(config.getSortColumnName());
+        this.descending = CsvCategorizeAndMerge.SortType.DESC.equals(config.getSortType());
+        this.dateTransformer = sortColumn < 0 ? null : compiledConfig.getDateTransformer(sortColumn);
+    }
+
+    public void sort(CsvCategorizeAndMerge.CategoryCsvLines categoryCsvLines) {
+        RowStore rowStore = categoryCsvLines.getRowStore();
+        if (sortColumn < 0 || rowStore.size() < 2) {
+            return;
+        }
+        int[] rankByCode = rankDistinctValues(rowStore);
+        int[] order = new int[rowStore.size()];
+        int[] ranks = new int[order.length];
+        for (int row = 0; row < order.length; row++) {
+            order[row] = row;
+            ranks[row] = rankByCode[rowStore.getCode(row, sortColumn)];
+        }
+        if (naturalMergeSort(order, ranks)) {
+            rowStore.reorder(order);
+        }
+    }
+
+    /**
+     * @return a comparator over rows (values in normalized column order) consistent with {@link #sort}
+     */
+    public Comparator<String[]> rowComparator() {
+        if (sortColumn < 0) {
+            return (row1, row2) -> 0;
+        }
+        return (row1, row2) -> sortKey(row1).compareTo(sortKey(row2));
+    }
+
+    /**
+     * @return the key {@link #rowComparator()} compares the row by; worth keeping when a row is compared repeatedly
+     */
+    public SortKey sortKey(String[] row) {
+        return sortColumn < 0 ? new SortKey(EMPTY, 0, null, descending) : sortKey(row[sortColumn]);
+    }
+
+    private SortKey sortKey(String value) {
+        if (value == null || value.isEmpty()) {
+            return new SortKey(EMPTY, 0, null, descending);
+        }
+        if (dateTransformer != null) {
+            long epochDay = dateTransformer.toEpochDay(value);
+            if (epochDay != DateTransformer.NOT_A_DATE) {
+                return new SortKey(TYPED, epochDay, null, descending);
+            }
+        } else {
+            long amount = AmountParser.parse(value);
+            if (amount != AmountParser.NOT_AN_AMOUNT) {
+                return new SortKey(TYPED, amount, null, descending);
+            }
+        }
+        return new SortKey(TEXT, 0, value, descending);
+    }
+
+    /**
+     * @return for every dictionary code of the sort column, the position of its value in sort order; equal keys
+     * share a rank
+     */
+    private int[] rankDistinctValues(RowStore rowStore) {
+        int codeCount = rowStore.getCodeCount(sortColumn);
+        SortKey[] keys = new SortKey[codeCount];
+        Integer[] codesInOrder = new Integer[codeCount];
+        for (int code = 0; code < codeCount; code++) {
+            keys[code] = sortKey(rowStore.decode(sortColumn, code));
+            codesInOrder[code] = code;
+        }
+        Arrays.sort(codesInOrder, (code1, code2) -> keys[code1].compareTo(keys[code2]));
+        int[] rankByCode = new int[codeCount];
+        int rank = 0;
+        for (int i = 1; i < codeCount; i++) {
+            if (keys[codesInOrder[i]].compareTo(keys[codesInOrder[i - 1]]) != 0) {
+                rank++;
+            }
+            rankByCode[codesInOrder[i]] = rank;
+        }
+        return rankByCode;
+    }
+
+    /**
+     * Stable sort of {@code order} by {@code ranks} (kept parallel to it). Maximal non-descending runs are kept as
+     * they are and non-ascending ones reversed (equal ranks within them keep their order), then neighbouring runs
+     * are merged pairwise until one is left.
+     *
+     * @return false if the rows were already in order
+     */
+    static boolean naturalMergeSort(int[] order, int[] ranks) {
+        int[] sortedOrder = order;
+        int[] sortedRanks = ranks;
+        int size = order.length;
+        int[] runStarts = new int[size + 1];
+        int runCount = 0;
+        boolean reversed = false;
+        int start = 0;
+        while (start < size) {
+            int end = start + 1;
+            if (end < size && ranks[end] < ranks[start]) {
+                while (end < size && ranks[end] <= ranks[end - 1]) {
+                    end++;
+                }
+                reverseRun(order, ranks, start, end);
+                reversed = true;
+            } else {
+                while (end < size && ranks[end] >= ranks[end - 1]) {
+                    end++;
+                }
+            }
+            runStarts[runCount++] = start;
+            start = end;
+        }
+        runStarts[runCount] = size;
+        if (runCount == 1) {
+            return reversed;
+        }
+
+        int[] order2 = new int[size];
+        int[] ranks2 = new int[size];
+        while (runCount > 1) {
+            int merged = 0;
+            for (int run = 0; run < runCount; run += 2) {
+                int from = runStarts[run];
+                int middle = runStarts[Math.min(run + 1, runCount)];
+                int to = runStarts[Math.min(run + 2, runCount)];
+                merge(order, ranks, from, middle, to, order2, ranks2);
+                runStarts[merged++] = from;
+            }
+            runStarts[merged] = size;
+            runCount = merged;
+            int[] swap = order;
+            order = order2;
+            order2 = swap;
+            swap = ranks;
+            ranks = ranks2;
+            ranks2 = swap;
+        }
+        if (order != sortedOrder) {
+            // the last pass merged into the scratch arrays
+            System.arraycopy(order, 0, sortedOrder, 0, size);
+            System.arraycopy(ranks, 0, sortedRanks, 0, size);
+        }
+        return true;
+    }
+
+    /**
+     * Reverses a non-ascending run, then restores the input order within each block of equal ranks.
+     */
+    private static void reverseRun(int[] order, int[] ranks, int from, int to) {
+        reverse(order, ranks, from, to);
+        int blockStart = from;
+        for (int i = from + 1; i <= to; i++) {
+            if (i == to || ranks[i] != ranks[blockStart]) {
+                reverse(order, ranks, blockStart, i);
+                blockStart = i;
+            }
+        }
+    }
+
+    private static void reverse(int[] order, int[] ranks, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+            swap = ranks[i];
+            ranks[i] = ranks[j];
+            ranks[j] = swap;
+        }
+    }
+
+    /**
+     * Merges the sorted ranges [from, middle) and [middle, to) into the same range of the target arrays; on equal
+     * ranks the left range goes first.
+     */
+    private static void merge(int[] order, int[] ranks, int from, int middle, int to, int[] targetOrder,
+                              int[] targetRanks) {
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && ranks[left] <= ranks[right])) {
+                targetOrder[i] = order[left];
+                targetRanks[i] = ranks[left++];
+            } else {
+                targetOrder[i] = order[right];
+                targetRanks[i] = ranks[right++];
+            }
+        }
+    }
+
+    /**
+     * The typed sort key of a value: its kind (empty, typed or text), then the epoch day or scaled amount of a
+     * typed value, or the text itself.
+     */
+    public static final class SortKey implements Comparable<SortKey> {
+        private final int kind;
+        private final long typedKey;
+        private final String text;
+        private final boolean descending;
+
+        private SortKey(int kind, long typedKey, String text, boolean descending) {
+            this.kind = kind;
+            this.typedKey = typedKey;
+            this.text = text;
+            this.descending = descending;
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            int comparison = Integer.compare(kind, other.kind);
+            if (comparison == 0) {
+                comparison = kind == TYPED ? Long.compare(typedKey, other.typedKey)
+                        : kind == TEXT ? text.compareTo(other.text) : 0;
+            }
+            return descending ? -comparison : comparison;
+        }
+    }
+}
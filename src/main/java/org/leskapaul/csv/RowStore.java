@@ -0,0 +1,206 @@
+package org.leskapaul.csv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented storage for normalized csv rows. Each column keeps a dictionary of its distinct values and one
+ * int code per row, so a row costs four bytes per column and repeated values (merchant names, dates) are stored
+ * once. Code 0 stands for a missing (null) value.
+ */
+public class RowStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final List<String> columnNames;
+    private final ValueDictionary[] dictionaries;
+    private int[][] codes;
+    private int size;
+
+    public RowStore(List<String> columnNames) {
+        this.columnNames = columnNames;
+        this.dictionaries = new ValueDictionary[columnNames.size()];
+        this.codes = new int[columnNames.size()][INITIAL_CAPACITY];
+        for (int column = 0; column < dictionaries.length; column++) {
+            dictionaries[column] = new ValueDictionary();
+        }
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    public int getColumnCount() {
+        return dictionaries.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends a row; the values are copied, so the array may be reused by the caller.
+     */
+    public void addRow(String[] values) {
+        ensureCapacity(size + 1);
+        for (int column = 0; column < dictionaries.length; column++) {
+            codes[column][size] = dictionaries[column].encode(values[column]);
+        }
+        size++;
+    }
+
+    /**
+     * Appends all rows of another store with the same columns, re-encoding them against this store's dictionaries.
+     */
+    public void addAll(RowStore other) {
+        ensureCapacity(size + other.size);
+        for (int column = 0; column < dictionaries.length; column++) {
+            int[] remappedCodes = dictionaries[column].encodeAll(other.dictionaries[column]);
+            int[] otherCodes = other.codes[column];
+            int[] columnCodes = codes[column];
+            for (int row = 0; row < other.size; row++) {
+                columnCodes[size + row] = remappedCodes[otherCodes[row]];
+            }
+        }
+        size += other.size;
+    }
+
+    public String get(int row, int column) {
+        checkRow(row);
+        return dictionaries[column].decode(codes[column][row]);
+    }
+
+    /**
+     * @return the values of the row, in column order
+     */
+    public String[] getRow(int row) {
+        checkRow(row);
+        String[] values = new String[dictionaries.length];
+        for (int column = 0; column < values.length; column++) {
+            values[column] = dictionaries[column].decode(codes[column][row]);
+        }
+        return values;
+    }
+
+    /**
+     * @return the dictionary code of the row's value in the column; equal values have equal codes
+     */
+    public int getCode(int row, int column) {
+        checkRow(row);
+        return codes[column][row];
+    }
+
+    /**
+     * @return the number of codes used by the column, i.e. its distinct values plus one for null (code 0)
+     */
+    public int getCodeCount(int column) {
+        return dictionaries[column].values.size();
+    }
+
+    public String decode(int column, int code) {
+        return dictionaries[column].decode(code);
+    }
+
+    public int getColumnIndex(String columnName) {
+        return columnNames.indexOf(columnName);
+    }
+
+    /**
+     * Rearranges the rows so that row i becomes the row previously at {@code order[i]}.
+     */
+    public void reorder(int[] order) {
+        if (order.length != size) {
+            throw new IllegalArgumentException("order has " + order.length + " entries but store has " + size + " rows");
+        }
+        for (int column = 0; column < codes.length; column++) {
+            int[] columnCodes = codes[column];
+            int[] reordered = new int[columnCodes.length];
+            for (int row = 0; row < size; row++) {
+                reordered[row] = columnCodes[order[row]];
+            }
+            codes[column] = reordered;
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        codes = new int[dictionaries.length][INITIAL_CAPACITY];
+        for (int column = 0; column < dictionaries.length; column++) {
+            dictionaries[column] = new ValueDictionary();
+        }
+    }
+
+    /**
+     * @return an estimate of the heap retained by this store, in bytes
+     */
+    public long estimateBytes() {
+        long bytes = 0;
+        for (int column = 0; column < dictionaries.length; column++) {
+            bytes += 16L + 4L * codes[column].length + dictionaries[column].estimateBytes();
+        }
+        return bytes;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (codes.length == 0 || codes[0].length >= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, codes[0].length + (codes[0].length >> 1));
+        for (int column = 0; column < codes.length; column++) {
+            codes[column] = Arrays.copyOf(codes[column], newCapacity);
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " out of bounds for size " + size);
+        }
+    }
+
+    private static class ValueDictionary {
+        private final Map<String, Integer> valueToCode = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private long valueBytes;
+
+        private ValueDictionary() {
+            values.add(null);
+        }
+
+        private int encode(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer code = valueToCode.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                valueToCode.put(value, code);
+                valueBytes += 40L + value.length();
+            }
+            return code;
+        }
+
+        /**
+         * @return for every code of the other dictionary, the code of the same value in this dictionary
+         */
+        private int[] encodeAll(ValueDictionary other) {
+            int[] remapped = new int[other.values.size()];
+            for (int code = 1; code < remapped.length; code++) {
+                remapped[code] = encode(other.values.get(code));
+            }
+            return remapped;
+        }
+
+        private String decode(int code) {
+            return values.get(code);
+        }
+
+        private long estimateBytes() {
+            // string payload plus a hash map entry and list slot for every distinct value
+            return valueBytes + 48L * valueToCode.size() + 8L * values.size();
+        }
+    }
+}
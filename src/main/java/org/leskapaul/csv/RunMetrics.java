@@ -0,0 +1,461 @@
+package org.leskapaul.csv;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers of a single run: time per stage, rows per input, rows per category, evaluations and match
+ * latency per category rule, and how dates were parsed. Instances are thread safe; stage times are summed over all
+ * threads.
+ *
+ * {@link #DISABLED} records nothing, and its timers do not read the clock, so instrumented code costs a field read
+ * and a branch when metrics are off.
+ */
+public class RunMetrics {
+
+    public static final RunMetrics DISABLED = new RunMetrics(false);
+
+    public enum Stage {
+        /** reading and tokenizing csv records */
+        PARSE,
+        /** binding input headers to configured columns and their aliases */
+        ALIAS_RESOLUTION,
+        /** finding the category of a record */
+        CATEGORIZE,
+        /** transforming date values */
+        DATE_TRANSFORM,
+        /** sorting categories, in memory and before spilling */
+        SORT,
+        /** writing sorted runs to disk under a memory budget */
+        SPILL,
+        /** handing sorted categories to the consumer, including the merge of spilled runs */
+        OUTPUT
+    }
+
+    public enum DateOutcome {
+        /** the raw value was in the cache of recent values */
+        CACHED,
+        /**
+         * parsed by the first input format tried: the one bound for the file, or the first configured
+         */
+        PREFERRED_FORMAT,
+        /** parsed only after the first input format tried failed */
+        FALLBACK_FORMAT,
+        /** no input format parsed the value, so it was kept as is */
+        UNPARSED
+    }
+
+    private final boolean enabled;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+    private final Map<String, InputMetrics> inputs = new LinkedHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> categoryRows = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<RuleKey, RuleMetrics> rules = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder[]> columnToDateOutcomes = new ConcurrentHashMap<>();
+    private final LongAdder spills = new LongAdder();
+    private final LongAdder duplicateRows = new LongAdder();
+    private final LongAdder overBudgetRows = new LongAdder();
+    private final LongAdder categoryCacheHits = new LongAdder();
+    private final LongAdder categoryCacheMisses = new LongAdder();
+
+    public RunMetrics() {
+        this(true);
+    }
+
+    private RunMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (int stage = 0; stage < stageNanos.length; stage++) {
+            stageNanos[stage] = new LongAdder();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the start time to pass to {@link #addTime}, or 0 without reading the clock when disabled
+     */
+    public long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void addTime(Stage stage, long startNanos) {
+        if (enabled) {
+            stageNanos[stage.ordinal()].add(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Registers an input; inputs are reported in registration order.
+     *
+     * @return the metrics to record the input's rows in, or null when disabled
+     */
+    public InputMetrics addInput(String name, long bytes) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (inputs) {
+            return inputs.computeIfAbsent(name, key -> new InputMetrics(name, bytes));
+        }
+    }
+
+    /**
+     * Records rows categorized from (a chunk of) an input, along with the time since {@code startNanos}.
+     */
+    public void addInputRows(InputMetrics input, long rows, long startNanos) {
+        if (enabled && input != null) {
+            input.rows.add(rows);
+            input.nanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records the dialect sniffed for an input, see {@link CsvDialect}.
+     */
+    public void setInputDialect(InputMetrics input, String dialect) {
+        if (enabled && input != null) {
+            input.dialect = dialect;
+        }
+    }
+
+    public void addCategoryRows(String category, long rows) {
+        if (enabled) {
+            categoryRows.computeIfAbsent(category, key -> new LongAdder()).add(rows);
+        }
+    }
+
+    public void addRuleEvaluation(RuleKey ruleKey, long nanos, boolean matched) {
+        if (enabled) {
+            RuleMetrics ruleMetrics = rules.computeIfAbsent(ruleKey, RuleMetrics::new);
+            ruleMetrics.evaluations.increment();
+            ruleMetrics.totalNanos.add(nanos);
+            ruleMetrics.maxNanos.accumulate(nanos);
+            if (matched) {
+                ruleMetrics.matches.increment();
+            }
+        }
+    }
+
+    public void addDateOutcome(String columnName, DateOutcome dateOutcome) {
+        if (enabled) {
+            columnToDateOutcomes.computeIfAbsent(columnName, key -> newAdders(DateOutcome.values().length))
+                    [dateOutcome.ordinal()].increment();
+        }
+    }
+
+    public void addSpill() {
+        if (enabled) {
+            spills.increment();
+        }
+    }
+
+    public void addDuplicateRows(long rows) {
+        if (enabled) {
+            duplicateRows.add(rows);
+        }
+    }
+
+    /**
+     * Records rows given the default category because a category rule exceeded the regex step budget.
+     */
+    public void addOverBudgetRows(long rows) {
+        if (enabled) {
+            overBudgetRows.add(rows);
+        }
+    }
+
+    public long getOverBudgetRows() {
+        return overBudgetRows.sum();
+    }
+
+    public void addCategoryCacheLookups(long hits, long misses) {
+        if (enabled) {
+            categoryCacheHits.add(hits);
+            categoryCacheMisses.add(misses);
+        }
+    }
+
+    public long getCategoryCacheHits() {
+        return categoryCacheHits.sum();
+    }
+
+    public long getCategoryCacheMisses() {
+        return categoryCacheMisses.sum();
+    }
+
+    public long getStageNanos(Stage stage) {
+        return stageNanos[stage.ordinal()].sum();
+    }
+
+    public long getCategoryRows(String category) {
+        LongAdder rows = categoryRows.get(category);
+        return rows == null ? 0 : rows.sum();
+    }
+
+    public long getDateOutcomes(String columnName, DateOutcome dateOutcome) {
+        LongAdder[] outcomes = columnToDateOutcomes.get(columnName);
+        return outcomes == null ? 0 : outcomes[dateOutcome.ordinal()].sum();
+    }
+
+    /**
+     * @return the metrics of every rule evaluated at least once, in no particular order
+     */
+    public List<RuleMetrics> getRuleMetrics() {
+        return new ArrayList<>(rules.values());
+    }
+
+    public void writeJson(Path reportFile) {
+        try (Writer writer = Files.newBufferedWriter(reportFile)) {
+            writer.write(toJson());
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write run report to " + reportFile, e);
+        }
+    }
+
+    /**
+     * @return the report as a JSON object; times are in milliseconds, except per rule latencies in nanoseconds, and
+     * rules are listed slowest (by total time) first
+     */
+    public String toJson() {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long totalRows = 0;
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"stageMillis\": {");
+        for (Stage stage : Stage.values()) {
+            json.append(stage.ordinal() == 0 ? "\n" : ",\n");
+            json.append("    ").append(quote(jsonName(stage))).append(": ").append(millis(getStageNanos(stage)));
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"inputs\": [");
+        List<InputMetrics> inputsInOrder;
+        synchronized (inputs) {
+            inputsInOrder = new ArrayList<>(inputs.values());
+        }
+        for (int i = 0; i < inputsInOrder.size(); i++) {
+            InputMetrics input = inputsInOrder.get(i);
+            long rows = input.rows.sum();
+            long nanos = input.nanos.sum();
+            totalRows += rows;
+            json.append(i == 0 ? "\n" : ",\n").append("    {")
+                    .append("\"name\": ").append(quote(input.name))
+                    .append(", \"bytes\": ").append(input.bytes)
+                    .append(", \"rows\": ").append(rows)
+                    .append(", \"millis\": ").append(millis(nanos))
+                    .append(", \"rowsPerSecond\": ").append(perSecond(rows, nanos));
+            if (input.dialect != null) {
+                json.append(", \"dialect\": ").append(quote(input.dialect));
+            }
+            json.append('}');
+        }
+        json.append(inputsInOrder.isEmpty() ? "],\n" : "\n  ],\n");
+
+        json.append("  \"categoryRows\": {");
+        Map<String, Long> sortedCategoryRows = new TreeMap<>();
+        categoryRows.forEach((category, rows) -> sortedCategoryRows.put(category, rows.sum()));
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : sortedCategoryRows.entrySet()) {
+            json.append(first ? "\n" : ",\n").append("    ").append(quote(entry.getKey())).append(": ")
+                    .append(entry.getValue());
+            first = false;
+        }
+        json.append(first ? "},\n" : "\n  },\n");
+
+        json.append("  \"rules\": [");
+        List<RuleMetrics> ruleMetrics = getRuleMetrics();
+        ruleMetrics.sort(Comparator.comparingLong(RuleMetrics::getTotalNanos).reversed()
+                .thenComparing(rule -> rule.getRuleKey().toString()));
+        for (int i = 0; i < ruleMetrics.size(); i++) {
+            RuleMetrics rule = ruleMetrics.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append("    {")
+                    .append("\"column\": ").append(quote(rule.ruleKey.columnName))
+                    .append(", \"category\": ").append(quote(rule.ruleKey.category))
+                    .append(", \"regex\": ").append(quote(rule.ruleKey.regex))
+                    .append(", \"evaluations\": ").append(rule.getEvaluations())
+                    .append(", \"matches\": ").append(rule.getMatches())
+                    .append(", \"totalMillis\": ").append(millis(rule.getTotalNanos()))
+                    .append(", \"meanNanos\": ").append(rule.getTotalNanos() / Math.max(1, rule.getEvaluations()))
+                    .append(", \"maxNanos\": ").append(rule.maxNanos.get())
+                    .append('}');
+        }
+        json.append(ruleMetrics.isEmpty() ? "],\n" : "\n  ],\n");
+
+        json.append("  \"dateOutcomes\": {");
+        Map<String, LongAdder[]> sortedDateOutcomes = new TreeMap<>(columnToDateOutcomes);
+        first = true;
+        for (Map.Entry<String, LongAdder[]> entry : sortedDateOutcomes.entrySet()) {
+            json.append(first ? "\n" : ",\n").append("    ").append(quote(entry.getKey())).append(": {");
+            for (DateOutcome dateOutcome : DateOutcome.values()) {
+                json.append(dateOutcome.ordinal() == 0 ? "" : ", ").append(quote(jsonName(dateOutcome)))
+                        .append(": ").append(entry.getValue()[dateOutcome.ordinal()].sum());
+            }
+            json.append('}');
+            first = false;
+        }
+        json.append(first ? "},\n" : "\n  },\n");
+
+        json.append("  \"spills\": ").append(spills.sum()).append(",\n");
+        json.append("  \"duplicateRows\": ").append(duplicateRows.sum()).append(",\n");
+        json.append("  \"overBudgetRows\": ").append(overBudgetRows.sum()).append(",\n");
+        json.append("  \"categoryCache\": {\"hits\": ").append(categoryCacheHits.sum())
+                .append(", \"misses\": ").append(categoryCacheMisses.sum()).append("},\n");
+        json.append("  \"rows\": ").append(totalRows).append(",\n");
+        json.append("  \"wallClockMillis\": ").append(millis(elapsedNanos)).append(",\n");
+        json.append("  \"rowsPerSecond\": ").append(perSecond(totalRows, elapsedNanos)).append('\n');
+        return json.append('}').toString();
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * E.g. DATE_TRANSFORM becomes "dateTransform".
+     */
+    private static String jsonName(Enum<?> value) {
+        StringBuilder name = new StringBuilder();
+        boolean upper = false;
+        for (char c : value.name().toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else {
+                name.append(upper ? c : Character.toLowerCase(c));
+                upper = false;
+            }
+        }
+        return name.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static long perSecond(long count, long nanos) {
+        return nanos <= 0 ? 0 : Math.round(count * 1e9 / nanos);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c == '\n') {
+                quoted.append("\\n");
+            } else if (c == '\r') {
+                quoted.append("\\r");
+            } else if (c == '\t') {
+                quoted.append("\\t");
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    public static final class InputMetrics {
+        private final String name;
+        private final long bytes;
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private volatile String dialect;
+
+        private InputMetrics(String name, long bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+    }
+
+    /**
+     * Identifies a category rule; built once per rule, so that recording an evaluation allocates nothing.
+     */
+    public static final class RuleKey {
+        private final String columnName;
+        private final String category;
+        private final String regex;
+        private final int hashCode;
+
+        public RuleKey(String columnName, String category, String regex) {
+            this.columnName = columnName;
+            this.category = category;
+            this.regex = regex;
+            this.hashCode = Objects.hash(columnName, category, regex);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RuleKey)) {
+                return false;
+            }
+            RuleKey other = (RuleKey) o;
+            return columnName.equals(other.columnName) && category.equals(other.category) && regex.equals(other.regex);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return columnName + "/" + category + "/" + regex;
+        }
+    }
+
+    public static final class RuleMetrics {
+        private final RuleKey ruleKey;
+        private final LongAdder evaluations = new LongAdder();
+        private final LongAdder matches = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private RuleMetrics(RuleKey ruleKey) {
+            this.ruleKey = ruleKey;
+        }
+
+        public RuleKey getRuleKey() {
+            return ruleKey;
+        }
+
+        public long getEvaluations() {
+            return evaluations.sum();
+        }
+
+        public long getMatches() {
+            return matches.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+    }
+}
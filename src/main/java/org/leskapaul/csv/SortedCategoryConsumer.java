@@ -0,0 +1,15 @@
+package org.leskapaul.csv;
+
+import java.util.Iterator;
+
+/**
+ * Receives organized output one category at a time, in config order. The rows (values in normalized column order)
+ * are already sorted and may be streamed from disk, so they are only valid until the call returns.
+ */
+public interface SortedCategoryConsumer {
+
+    /**
+     * @param aggregates the aggregates of all rows of the category, or null if no aggregations are configured
+     */
+    void accept(String categoryName, Iterator<String[]> sortedRows, CategoryAggregates aggregates);
+}
@@ -0,0 +1,33 @@
+package org.leskapaul.csv;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AmountParserTest {
+
+    @Test
+    public void testParse() {
+        assertEquals(-12345000, AmountParser.parse("-1,234.50"));
+        assertEquals(-699500, AmountParser.parse("-$69.95"));
+        assertEquals(217857200, AmountParser.parse("21,785.72"));
+        assertEquals(120000, AmountParser.parse("$12"));
+        assertEquals(-120000, AmountParser.parse("$-12"));
+        assertEquals(3000, AmountParser.parse("+0.3"));
+        assertEquals(-120000, AmountParser.parse("(12.00)"));
+        assertEquals(5, AmountParser.parse(".0005"));
+        assertEquals(AmountParser.NOT_AN_AMOUNT, AmountParser.parse("1.00005"));
+        assertEquals(AmountParser.NOT_AN_AMOUNT, AmountParser.parse("12 apples"));
+        assertEquals(AmountParser.NOT_AN_AMOUNT, AmountParser.parse(",12"));
+        assertEquals(AmountParser.NOT_AN_AMOUNT, AmountParser.parse("$"));
+        assertEquals(AmountParser.NOT_AN_AMOUNT, AmountParser.parse("123456789012345"));
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("-1234.50", AmountParser.format(-12345000));
+        assertEquals("0.00", AmountParser.format(0));
+        assertEquals("0.0005", AmountParser.format(5));
+        assertEquals("12.00", AmountParser.format(120000));
+    }
+}
@@ -0,0 +1,123 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ByteCsvTokenizerTest {
+
+    private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+    private static final String[] FRAGMENTS = {"a", "b", "xyz", " ", "  ", "\t", ",", ",", "\"", "\"\"", "\n", "\r\n",
+            "\r", "é", "€", "💳", "03/18/2024", "-$69.95"};
+
+    private final CompiledCsvOrganizerConfig compiledConfig = compiledConfig();
+
+    @Test
+    public void testRecordsMatchCommonsCsv() throws IOException {
+        String csv = "\n Date , Description,Running Bal.,Amount\n"
+                + " 03/18/2024, Freepeople.com #2899 , 1.00, -$69.95\r\n"
+                + "\r\n"
+                + "2024-03-04,\"COMPUTIL LLC \"\"WATER\"\" Bill Payment\",\"21,785.72\",\" -109.80 \"\r"
+                + "2024-03-07,\"multi\nline\"\n"
+                + "only date\n"
+                + "a,b,c,d,e,f,";
+        HeaderBinding headerBinding = bind(csv);
+
+        ByteCsvTokenizer byteCsvTokenizer = tokenize(csv, headerBinding);
+
+        assertEquals(parse(csv, headerBinding), readAll(byteCsvTokenizer));
+        assertFalse(byteCsvTokenizer.hasFallenBack());
+    }
+
+    @Test
+    public void testFallsBackToCommonsCsvAfterClosingQuote() throws IOException {
+        String csv = "Date,Description,Amount\n1,\"a\",2\n3,\"b\" c,4\n5,\"d\",6\n";
+        HeaderBinding headerBinding = bind(csv);
+
+        ByteCsvTokenizer byteCsvTokenizer = tokenize(csv, headerBinding);
+
+        assertEquals("[[1, a, 2], failed]", parse(csv, headerBinding));
+        assertEquals(parse(csv, headerBinding), readAll(byteCsvTokenizer));
+        assertTrue(byteCsvTokenizer.hasFallenBack());
+    }
+
+    @Test
+    public void testFuzzedRecordsMatchCommonsCsv() throws IOException {
+        String header = "Date, Description ,Running Bal.,\"Amount\"\n";
+        HeaderBinding headerBinding = bind(header);
+        Random random = new Random(21);
+        for (int iteration = 0; iteration < 5000; iteration++) {
+            StringBuilder csv = new StringBuilder(random.nextBoolean() ? "" : "\r\n").append(header);
+            int fragmentCount = random.nextInt(60);
+            for (int i = 0; i < fragmentCount; i++) {
+                csv.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+
+            assertEquals("iteration " + iteration + ": " + csv, parse(csv.toString(), headerBinding),
+                    readAll(tokenize(csv.toString(), headerBinding)));
+        }
+    }
+
+    private HeaderBinding bind(String csv) throws IOException {
+        try (CSVParser csvParser = CSVParser.parse(new StringReader(csv), CSV_FORMAT)) {
+            return HeaderBinding.bind(csvParser.getHeaderMap(), compiledConfig);
+        }
+    }
+
+    /**
+     * @return a tokenizer over the records of the csv, after checking that it found the same header as commons-csv
+     */
+    private static ByteCsvTokenizer tokenize(String csv, HeaderBinding headerBinding) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8));
+        Map<String, Integer> headerMap = ByteCsvTokenizer.readHeader(buffer, CSV_FORMAT);
+        try (CSVParser csvParser = CSVParser.parse(new StringReader(csv), CSV_FORMAT)) {
+            assertEquals(csvParser.getHeaderMap(), headerMap);
+        }
+        return new ByteCsvTokenizer("test", buffer, CSV_FORMAT, headerBinding.getRecordIndexes());
+    }
+
+    private static String parse(String csv, HeaderBinding headerBinding) throws IOException {
+        return readAll(BoundRecordReader.of(CSVParser.parse(new StringReader(csv), CSV_FORMAT),
+                headerBinding.getRecordIndexes()));
+    }
+
+    /**
+     * @return the bound cells of every record, followed by "failed" if reading failed after them
+     */
+    private static String readAll(BoundRecordReader recordReader) throws IOException {
+        List<String> records = new ArrayList<>();
+        try (recordReader) {
+            String[] cells = new String[3];
+            while (recordReader.next(cells)) {
+                records.add(Arrays.toString(cells));
+            }
+        } catch (IOException | RuntimeException e) {
+            records.add("failed");
+        }
+        return records.toString();
+    }
+
+    private static CompiledCsvOrganizerConfig compiledConfig() {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = new CsvCategorizeAndMerge.CsvOrganizerConfig("Date",
+                CsvCategorizeAndMerge.SortType.ASC, "Other");
+        config.getColumnNameToAliases().put("Date", new LinkedHashSet<>());
+        config.getColumnNameToAliases().put("Description", new LinkedHashSet<>(List.of("Desc")));
+        config.getColumnNameToAliases().put("Amount", new LinkedHashSet<>());
+        return new CompiledCsvOrganizerConfig(config);
+    }
+}
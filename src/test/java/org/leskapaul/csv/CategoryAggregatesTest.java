@@ -0,0 +1,50 @@
+package org.leskapaul.csv;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class CategoryAggregatesTest {
+
+    private static final List<String> COLUMN_NAMES = List.of("Description", "Amount");
+    // the most digits an amount may have, so ten of these exceed a long once scaled
+    private static final String LARGEST_AMOUNT = "99999999999999";
+
+    @Test
+    public void testSumOverflowFailsInsteadOfWrapping() {
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(config());
+        CategoryAggregates aggregates = compiledConfig.newCategoryAggregates();
+        aggregates.addRow(new String[] {"a", LARGEST_AMOUNT});
+        aggregates.addRow(new String[] {"b", "-" + LARGEST_AMOUNT});
+        assertEquals("0.00", aggregates.getResult(0));
+
+        for (int row = 0; row < 9; row++) {
+            aggregates.addRow(new String[] {"c", LARGEST_AMOUNT});
+        }
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> aggregates.addRow(new String[] {"d", LARGEST_AMOUNT}));
+        assertTrue(e.getMessage(), e.getMessage().startsWith("aggregation Total overflows"));
+
+        // combining partial results checks the sum just the same
+        CategoryAggregates otherAggregates = compiledConfig.newCategoryAggregates();
+        otherAggregates.addRow(new String[] {"e", LARGEST_AMOUNT});
+        assertThrows(IllegalStateException.class, () -> aggregates.addAll(otherAggregates));
+    }
+
+    private static CsvCategorizeAndMerge.CsvOrganizerConfig config() {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config =
+                new CsvCategorizeAndMerge.CsvOrganizerConfig("Amount", CsvCategorizeAndMerge.SortType.ASC, "Other");
+        LinkedHashMap<String, Set<String>> columnNameToAliases = config.getColumnNameToAliases();
+        COLUMN_NAMES.forEach(columnName -> columnNameToAliases.put(columnName, new LinkedHashSet<>()));
+        config.getAggregationConfigs().add(
+                new AggregationConfig("Total", AggregationConfig.Function.SUM, "Amount", null));
+        return config;
+    }
+}
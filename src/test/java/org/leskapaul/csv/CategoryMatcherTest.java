@@ -0,0 +1,202 @@
+package org.leskapaul.csv;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CategoryMatcherTest {
+
+    @Test
+    public void testRequiredLiteral() {
+        assertEquals("shoprite", CategoryMatcher.requiredLiteral("Shoprite.*"));
+        assertEquals("ridgewood water", CategoryMatcher.requiredLiteral(".*ridgewood water.*"));
+        assertEquals("public service", CategoryMatcher.requiredLiteral("public service.*pseg.*"));
+        assertEquals("the home depot #", CategoryMatcher.requiredLiteral("the home depot #\\d+"));
+        assertEquals("amazon.co", CategoryMatcher.requiredLiteral("amazon\\.com?"));
+        assertEquals(" market", CategoryMatcher.requiredLiteral("(rock|99 ranch) market.*"));
+        assertNull(CategoryMatcher.requiredLiteral("verizon|t-mobile"));
+        assertNull(CategoryMatcher.requiredLiteral("(?x) verizon .*"));
+        assertNull(CategoryMatcher.requiredLiteral(".*\\d+.*"));
+        // the arguments of an escape are not literals
+        assertEquals("caf", CategoryMatcher.requiredLiteral("caf\\u00e9.*"));
+        assertEquals("mazon", CategoryMatcher.requiredLiteral("\\x41mazon.*"));
+        assertEquals("mazon", CategoryMatcher.requiredLiteral("\\x{41}mazon.*"));
+        assertEquals("mazon", CategoryMatcher.requiredLiteral("\\0101mazon.*"));
+        assertEquals("mazon", CategoryMatcher.requiredLiteral("\\N{LATIN CAPITAL LETTER A}mazon.*"));
+        assertEquals("mazon", CategoryMatcher.requiredLiteral("\\p{Lu}mazon.*"));
+        assertEquals("ash", CategoryMatcher.requiredLiteral("\\cIash.*"));
+        assertNull(CategoryMatcher.requiredLiteral("(?<m>ab)\\k<m>.*"));
+    }
+
+    @Test
+    public void testFindBacktrackingRisk() {
+        assertNull(CategoryMatcher.findBacktrackingRisk("public service.*pseg.*"));
+        assertNull(CategoryMatcher.findBacktrackingRisk("(rock|99 ranch) market.*"));
+        assertNull(CategoryMatcher.findBacktrackingRisk("x(yz)*w.*"));
+        assertNull(CategoryMatcher.findBacktrackingRisk(".*\\d+.*"));
+        assertNull(CategoryMatcher.findBacktrackingRisk("(\\w++\\s?)+"));
+        assertNull(CategoryMatcher.findBacktrackingRisk("\\Q(a+)+\\E"));
+        assertNotNull(CategoryMatcher.findBacktrackingRisk("(.*pseg.*)*"));
+        assertNotNull(CategoryMatcher.findBacktrackingRisk("(\\w+\\s?)+verizon"));
+        assertNotNull(CategoryMatcher.findBacktrackingRisk("((ach )+debit)*"));
+        assertNotNull(CategoryMatcher.findBacktrackingRisk("[a-z]{2,}(x[0-9]{1,})+"));
+        assertNotNull(CategoryMatcher.findBacktrackingRisk("(.*pseg){2,4}"));
+        assertNull(CategoryMatcher.findBacktrackingRisk("(.*pseg){1}"));
+        assertNotNull(CategoryMatcher.findBacktrackingRisk("verizon.*.*wireless"));
+
+        String yaml = "sortColumnName: Date\nsortType: ASC\ndefaultCategoryName: Other\nrejectRiskyRegexes: true\n"
+                + "columnNameToCategoryConfig:\n  - Description:\n      - category: Utilities\n"
+                + "        regexes: [\"(.*pseg.*)*\"]\n";
+        try {
+            CsvCategorizeAndMergeCli.loadConfig(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)));
+            fail("expected the risky regex to be rejected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("(.*pseg.*)*"));
+        }
+    }
+
+    @Test
+    public void testRegexStepBudgetGivesDefaultCategory() {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config =
+                new CsvCategorizeAndMerge.CsvOrganizerConfig("Date", CsvCategorizeAndMerge.SortType.ASC, "Other");
+        config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("Utilities",
+                "Description", new LinkedHashSet<>(List.of("(.*\\s.*)*pseg"))));
+        config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("Bills",
+                "Description", new LinkedHashSet<>(List.of(".*payment.*"))));
+        config.setRegexStepBudget(10_000);
+        String achDescription = "public service electric and gas pseg ach bill payment web id 1234567890";
+
+        CategoryMatcher categoryMatcher = new CategoryMatcher(config);
+        assertEquals("Utilities", categoryMatcher.findCategory("Description", "public service pseg"));
+        for (int i = 0; i < 2; i++) {
+            assertEquals("Other", categoryMatcher.findCategory("Description", achDescription));
+        }
+        assertEquals(2, categoryMatcher.getOverBudgetLookups());
+
+        config.setCategoryCacheSize(0);
+        RunMetrics runMetrics = new RunMetrics();
+        CategoryMatcher uncachedMatcher = new CategoryMatcher(config);
+        assertEquals("Other", uncachedMatcher.findCategory("Description", achDescription, runMetrics));
+        assertEquals(1, uncachedMatcher.getOverBudgetLookups());
+        assertEquals(1, runMetrics.getRuleMetrics().get(0).getEvaluations());
+
+        config.setRegexStepBudget(0);
+        assertEquals("Bills", new CategoryMatcher(config).findCategory("Description", "ach bill payment"));
+    }
+
+    @Test
+    public void testDefaultStepBudgetOnlyLimitsRiskyRegexes() {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config =
+                new CsvCategorizeAndMerge.CsvOrganizerConfig("Date", CsvCategorizeAndMerge.SortType.ASC, "Other");
+        config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("Wires",
+                "Description", new LinkedHashSet<>(List.of(".*x"))));
+        config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("Utilities",
+                "Reference", new LinkedHashSet<>(List.of("(.*\\s.*)*pseg"))));
+        // ".*x" backs off one character at a time, reading this value about twice, over the default budget
+        String longValue = "a".repeat(CsvCategorizeAndMerge.CsvOrganizerConfig.DEFAULT_REGEX_STEP_BUDGET) + "xb";
+        // the risky rule reads some two million characters of a description this long
+        String achDescription = "public service electric and gas pseg ach bill payment web id 1234567890 ".repeat(4);
+
+        CategoryMatcher categoryMatcher = new CategoryMatcher(config);
+        assertNull(categoryMatcher.findCategory("Description", longValue));
+        assertEquals("Other", categoryMatcher.findCategory("Reference", achDescription));
+        assertEquals(1, categoryMatcher.getOverBudgetLookups());
+
+        config.setRegexStepBudget(CsvCategorizeAndMerge.CsvOrganizerConfig.DEFAULT_REGEX_STEP_BUDGET);
+        CategoryMatcher budgetedMatcher = new CategoryMatcher(config);
+        assertEquals("Other", budgetedMatcher.findCategory("Description", longValue));
+        assertEquals(1, budgetedMatcher.getOverBudgetLookups());
+    }
+
+    @Test
+    public void testFirstCategoryInConfigOrderWins() {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config =
+                new CsvCategorizeAndMerge.CsvOrganizerConfig("Date", CsvCategorizeAndMerge.SortType.ASC, "Other");
+        config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("Groceries",
+                "Description", new LinkedHashSet<>(Arrays.asList("shoprite.*", ".*market.*"))));
+        config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("Farmers",
+                "Description", new LinkedHashSet<>(List.of("rock farmers market.*"))));
+
+        CategoryMatcher categoryMatcher = new CategoryMatcher(config);
+        assertEquals("Groceries", categoryMatcher.findCategory("Description", "Rock farmers market"));
+        assertEquals("Groceries", categoryMatcher.findCategory("Description", "SHOPRITE mple & hemlck"));
+        assertNull(categoryMatcher.findCategory("Description", "The home depot #0983"));
+        assertNull(categoryMatcher.findCategory("Amount", "shoprite"));
+    }
+
+    @Test
+    public void testCategoryCache() {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config =
+                new CsvCategorizeAndMerge.CsvOrganizerConfig("Date", CsvCategorizeAndMerge.SortType.ASC, "Other");
+        config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("Groceries",
+                "Description", new LinkedHashSet<>(List.of("shoprite.*"))));
+        CategoryMatcher categoryMatcher = new CategoryMatcher(config);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Groceries", categoryMatcher.findCategory("Description", "Shoprite #1"));
+            assertNull(categoryMatcher.findCategory("Description", "The home depot #0983"));
+        }
+        assertEquals(4, categoryMatcher.getCacheHits());
+        assertEquals(2, categoryMatcher.getCacheMisses());
+
+        config.setCategoryCacheSize(0);
+        CategoryMatcher uncachedMatcher = new CategoryMatcher(config);
+        assertEquals("Groceries", uncachedMatcher.findCategory("Description", "Shoprite #1"));
+        assertEquals("Groceries", uncachedMatcher.findCategory("Description", "Shoprite #1"));
+        assertEquals(0, uncachedMatcher.getCacheHits() + uncachedMatcher.getCacheMisses());
+
+        CategoryMatcher.CategoryCache categoryCache = new CategoryMatcher.CategoryCache(16);
+        for (int i = 0; i < 1000; i++) {
+            categoryCache.put("value" + i, "category");
+        }
+        assertTrue(categoryCache.size() <= 16);
+        assertEquals("category", categoryCache.get("value999"));
+        assertNull(categoryCache.get("value0"));
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        List<String> regexes = Arrays.asList("abc.*", ".*b+c.*", "a?bd", "x(yz)*w.*", ".*q\\.r", "[ab]cd.*",
+                ".*dd|ee.*", "\\Qa.b\\E.*", "zz.*y", "c{2}a.*", "\\x61bc.*", "\\x{71}r.*", "\\0144q.*",
+                "\\u0077x.*", "\\N{LATIN SMALL LETTER Z}y.*", "(?<m>[ab])\\k<m>.*", "\\p{Lu}q.*", "\\cAb.*");
+        Random random = new Random(42);
+        CsvCategorizeAndMerge.CsvOrganizerConfig config =
+                new CsvCategorizeAndMerge.CsvOrganizerConfig("Date", CsvCategorizeAndMerge.SortType.ASC, "Other");
+        for (int i = 0; i < regexes.size(); i++) {
+            config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("category" + i,
+                    "Description", new LinkedHashSet<>(List.of(regexes.get(i)))));
+        }
+        List<Pattern> patterns = new ArrayList<>();
+        regexes.forEach(regex -> patterns.add(Pattern.compile(regex, Pattern.CASE_INSENSITIVE)));
+
+        CategoryMatcher categoryMatcher = new CategoryMatcher(config);
+        String alphabet = "abcdqrwxyzABCDQ.é ";
+        for (int n = 0; n < 20000; n++) {
+            StringBuilder value = new StringBuilder();
+            int length = random.nextInt(8);
+            for (int i = 0; i < length; i++) {
+                value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String expected = null;
+            for (int i = 0; i < patterns.size() && expected == null; i++) {
+                if (patterns.get(i).matcher(value).matches()) {
+                    expected = "category" + i;
+                }
+            }
+            assertEquals("category for '" + value + "'", expected,
+                    categoryMatcher.findCategory("Description", value.toString()));
+        }
+    }
+}
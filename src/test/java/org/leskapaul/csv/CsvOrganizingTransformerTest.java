@@ -2,25 +2,52 @@ package org.leskapaul.csv;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.leskapaul.csv.CsvTestFixtures.copyResource;
+import static org.leskapaul.csv.CsvTestFixtures.loadTestConfig;
+import static org.leskapaul.csv.CsvTestFixtures.openTestCsvs;
+import static org.leskapaul.csv.CsvTestFixtures.streamToString;
+import static org.leskapaul.csv.CsvTestFixtures.writeLargeCsv;
 
 public class CsvOrganizingTransformerTest {
 
     private static final Logger LOG = LogManager.getLogger(CsvCategorizeAndMerge.class.getSimpleName());
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private CsvCategorizeAndMerge csvOrganizingTransformer;
     @Before
     public void beforeTest() {
@@ -29,8 +56,7 @@ public class CsvOrganizingTransformerTest {
 
     @Test
     public void testSimpleExample() throws IOException {
-        CsvCategorizeAndMerge.CsvOrganizerConfig config = CsvCategorizeAndMergeCli
-                .loadConfig(getClass().getResourceAsStream("/testConfig.yaml"));
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = loadTestConfig();
 
         List<CSVParser> csvParsers = new ArrayList<>();
         csvParsers.add(CSVParser.parse(getClass().getResourceAsStream("/testCsv.csv"),
@@ -75,11 +101,411 @@ public class CsvOrganizingTransformerTest {
         }
     }
 
+    @Test
+    public void testParallelMatchesSequential() throws IOException {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = loadTestConfig();
+
+        List<CsvCategorizeAndMerge.CategoryCsvLines> sequentialLines =
+                new CsvCategorizeAndMerge().organizeCsvLines(openTestCsvs(4), config);
+        List<CsvCategorizeAndMerge.CategoryCsvLines> parallelLines =
+                new CsvCategorizeAndMerge(3).organizeCsvLines(openTestCsvs(4), config);
+
+        assertEquals(sequentialLines.toString(), parallelLines.toString());
+    }
+
+    @Test
+    public void testSplitFileMatchesSequentialParse() throws IOException {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = loadTestConfig();
+        Path lfFile = writeLargeCsv(temporaryFolder, "large.csv", 2000);
+        // a lone CR ends records (and lines inside quoted fields) just like LF
+        Path crFile = temporaryFolder.getRoot().toPath().resolve("large-cr.csv");
+        Files.writeString(crFile, Files.readString(lfFile).replace("\r\n", "\r").replace('\n', '\r'));
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+
+        for (Path csvFile : List.of(lfFile, crFile)) {
+            CsvFileSplitter.CsvFileSplit csvFileSplit = CsvFileSplitter.split(csvFile, csvFormat, 16);
+            assertEquals("expected the requested number of chunks", 16, csvFileSplit.getChunks().size());
+
+            List<CsvCategorizeAndMerge.CategoryCsvLines> sequentialLines = csvOrganizingTransformer.organizeCsvLines(
+                    List.of(CSVParser.parse(csvFile, StandardCharsets.UTF_8, csvFormat)), config);
+            List<CsvCategorizeAndMerge.CategoryCsvLines> splitLines = CsvCategorizeAndMerge.builder().threadCount(4)
+                    .minChunkBytes(1024).build()
+                    .organizeCsvFiles(List.of(csvFile), csvFormat, new CompiledCsvOrganizerConfig(config));
+
+            assertEquals(2000, splitLines.stream().mapToInt(CsvCategorizeAndMerge.CategoryCsvLines::size).sum());
+            assertEquals(sequentialLines.toString(), splitLines.toString());
+        }
+
+        Path headerOnlyFile = temporaryFolder.getRoot().toPath().resolve("header-only.csv");
+        Files.writeString(headerOnlyFile, "Date,Description,Amount");
+        CsvFileSplitter.CsvFileSplit headerOnlySplit = CsvFileSplitter.split(headerOnlyFile, csvFormat, 4);
+        assertEquals(3, headerOnlySplit.getHeaderMap().size());
+        assertEquals("expected the whole file as a single chunk", 1, headerOnlySplit.getChunks().size());
+        try (CSVParser chunkParser = headerOnlySplit.openChunk(headerOnlySplit.getChunks().get(0))) {
+            assertEquals(0, chunkParser.getRecords().size());
+        }
+    }
+
+    @Test
+    public void testChunksLargerThanMappedLimitAreStreamed() throws IOException {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = loadTestConfig();
+        Path csvFile = writeLargeCsv(temporaryFolder, "large.csv", 2000);
+        long size = Files.size(csvFile);
+        long maxMappedBytes = (size + 19) / 20;
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+
+        // 2 threads would otherwise split the file into at most 8 chunks
+        assertEquals(20, CsvCategorizeAndMerge.builder().threadCount(2).maxMappedBytes(maxMappedBytes).build()
+                .getChunkCount(size, Long.MAX_VALUE));
+        assertEquals(20, CsvCategorizeAndMerge.builder().maxMappedBytes(maxMappedBytes).build()
+                .getChunkCount(size, Long.MAX_VALUE));
+
+        List<CsvCategorizeAndMerge.CategoryCsvLines> sequentialLines = csvOrganizingTransformer.organizeCsvLines(
+                List.of(CSVParser.parse(csvFile, StandardCharsets.UTF_8, csvFormat)), config);
+        for (boolean byteTokenizer : List.of(false, true)) {
+            List<CsvCategorizeAndMerge.CategoryCsvLines> splitLines = CsvCategorizeAndMerge.builder().threadCount(2)
+                    .maxMappedBytes(maxMappedBytes).byteTokenizer(byteTokenizer).build()
+                    .organizeCsvFiles(List.of(csvFile), csvFormat, new CompiledCsvOrganizerConfig(config));
+            assertEquals(sequentialLines.toString(), splitLines.toString());
+        }
+
+        // a format with an escape character cannot be split, so its only chunk is the whole file
+        CSVFormat escapeFormat = csvFormat.builder().setEscape('\\').build();
+        CsvFileSplitter.CsvFileSplit csvFileSplit = CsvFileSplitter.split(csvFile, escapeFormat, 4, maxMappedBytes);
+        CsvFileSplitter.CsvChunk chunk = csvFileSplit.getChunks().get(0);
+        assertEquals(1, csvFileSplit.getChunks().size());
+        Assert.assertFalse(csvFileSplit.canMap(chunk));
+        try (CSVParser chunkParser = csvFileSplit.openChunk(chunk)) {
+            assertEquals(2000, chunkParser.getRecords().size());
+        }
+        try {
+            csvFileSplit.mapChunk(chunk);
+            Assert.fail("expected a chunk over the limit not to be mapped");
+        } catch (IllegalArgumentException e) {
+            LOG.info("chunk not mapped as expected: {}", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testByteTokenizerMatchesCommonsCsv() throws IOException {
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(loadTestConfig());
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+        List<Path> csvFiles = new ArrayList<>();
+        for (String resource : List.of("testCsv.csv", "testCsv2.csv")) {
+            csvFiles.add(copyResource(temporaryFolder, "/" + resource, resource));
+        }
+        csvFiles.add(writeLargeCsv(temporaryFolder, "large.csv", 2000));
+
+        String parsedLines = new CsvCategorizeAndMerge().organizeCsvFiles(csvFiles, csvFormat, compiledConfig)
+                .toString();
+        for (int threadCount : new int[] {1, 4}) {
+            assertEquals(parsedLines, CsvCategorizeAndMerge.builder().threadCount(threadCount).minChunkBytes(1024)
+                    .byteTokenizer(true).build().organizeCsvFiles(csvFiles, csvFormat, compiledConfig).toString());
+        }
+    }
+
+    @Test
+    public void testCompressedInputsMatchPlainFiles() throws IOException {
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(loadTestConfig());
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+        // larger than the read-ahead buffer, so decompression has to wait for the parser
+        Path csvFile = writeLargeCsv(temporaryFolder, "compressed.csv", 20000);
+        Path csvFile2 = copyResource(temporaryFolder, "/testCsv2.csv", "compressed2.csv");
+        Path gzipFile = temporaryFolder.getRoot().toPath().resolve("compressed.csv.gz");
+        try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(gzipFile))) {
+            Files.copy(csvFile, outputStream);
+        }
+        Path zipFile = temporaryFolder.getRoot().toPath().resolve("exports.zip");
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            for (Path entryFile : List.of(csvFile, csvFile2)) {
+                zipOutputStream.putNextEntry(new ZipEntry("2024/" + entryFile.getFileName()));
+                Files.copy(entryFile, zipOutputStream);
+            }
+            zipOutputStream.putNextEntry(new ZipEntry("__MACOSX/2024/._compressed.csv"));
+            zipOutputStream.putNextEntry(new ZipEntry("readme.txt"));
+            zipOutputStream.write("not an export".getBytes(StandardCharsets.UTF_8));
+        }
+
+        String plainLines = CsvCategorizeAndMerge.builder().threadCount(4).minChunkBytes(1024).build()
+                .organizeCsvFiles(List.of(csvFile, csvFile2), csvFormat, compiledConfig).toString();
+        assertEquals(plainLines, CsvCategorizeAndMerge.builder().threadCount(4).minChunkBytes(1024).build()
+                .organizeCsvFiles(List.of(gzipFile, csvFile2), csvFormat, compiledConfig).toString());
+        assertEquals(plainLines, CsvCategorizeAndMerge.builder().threadCount(4).minChunkBytes(1024).build()
+                .organizeCsvFiles(List.of(zipFile), csvFormat, compiledConfig).toString());
+
+        Path truncatedGzipFile = temporaryFolder.getRoot().toPath().resolve("truncated.csv.gz");
+        Files.write(truncatedGzipFile, Arrays.copyOf(Files.readAllBytes(gzipFile), (int) Files.size(gzipFile) / 2));
+        try {
+            new CsvCategorizeAndMerge().organizeCsvFiles(List.of(truncatedGzipFile), csvFormat, compiledConfig);
+            Assert.fail("expected the truncated gzip file to fail");
+        } catch (RuntimeException e) {
+            LOG.info("truncated gzip file failed as expected: {}", e.toString());
+        }
+    }
+
+    @Test
+    public void testFanOutMatchesSeparateRuns() throws IOException {
+        CompiledCsvOrganizerConfig householdConfig = new CompiledCsvOrganizerConfig(loadTestConfig());
+        // a ledger view with other aliases, an extra column, other rules and sorting, and deduplication
+        CsvCategorizeAndMerge.CsvOrganizerConfig ledger = new CsvCategorizeAndMerge.CsvOrganizerConfig("Amount",
+                CsvCategorizeAndMerge.SortType.DESC, "Uncategorized");
+        ledger.getColumnNameToAliases().put("Amount", Set.of());
+        ledger.getColumnNameToAliases().put("Memo", Set.of("Description", "transaction"));
+        ledger.getColumnNameToAliases().put("Balance", Set.of("Running Bal."));
+        ledger.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("Shops", "Memo",
+                new LinkedHashSet<>(List.of("shop.*", ".*home depot.*"))));
+        ledger.setDeduplicationConfig(new DeduplicationConfig(List.of("Memo", "Amount"), false, 100));
+        CompiledCsvOrganizerConfig ledgerConfig = new CompiledCsvOrganizerConfig(ledger);
+        List<Path> csvFiles = new ArrayList<>();
+        for (String resource : List.of("testCsv.csv", "testCsv2.csv")) {
+            csvFiles.add(copyResource(temporaryFolder, "/" + resource, "fanOut-" + resource));
+        }
+        csvFiles.add(writeLargeCsv(temporaryFolder, "fanOut1.csv", 2000));
+        csvFiles.add(writeLargeCsv(temporaryFolder, "fanOut2.csv", 2000));
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+
+        List<CompiledCsvOrganizerConfig> compiledConfigs = List.of(householdConfig, ledgerConfig);
+        List<String> separateOutputs = new ArrayList<>();
+        for (CompiledCsvOrganizerConfig compiledConfig : compiledConfigs) {
+            separateOutputs.add(streamToString(compiledConfig, config -> writer -> new CsvCategorizeAndMerge()
+                    .streamCsvFiles(csvFiles, csvFormat, config, writer::writeCategory)));
+        }
+        for (boolean byteTokenizer : new boolean[] {false, true}) {
+            List<StringWriter> outputs = List.of(new StringWriter(), new StringWriter());
+            List<CsvResultWriter> csvResultWriters = List.of(
+                    new CsvResultWriter(outputs.get(0), householdConfig.getColumnNames()),
+                    new CsvResultWriter(outputs.get(1), ledgerConfig.getColumnNames()));
+            csvResultWriters.forEach(CsvResultWriter::writeHeader);
+            CsvCategorizeAndMerge.builder().threadCount(4).minChunkBytes(1024).memoryBudgetBytes(1 << 20)
+                    .byteTokenizer(byteTokenizer).build()
+                    .fanOutCsvFiles(csvFiles, csvFormat, compiledConfigs, List.of(
+                            csvResultWriters.get(0)::writeCategory, csvResultWriters.get(1)::writeCategory));
+            for (CsvResultWriter csvResultWriter : csvResultWriters) {
+                csvResultWriter.close();
+            }
+
+            assertEquals(separateOutputs, List.of(outputs.get(0).toString(), outputs.get(1).toString()));
+        }
+        // only the ledger binds the running balance
+        Assert.assertTrue(separateOutputs.get(1).contains("21,785.72"));
+        Assert.assertFalse(separateOutputs.get(0).contains("21,785.72"));
+    }
+
+    @Test
+    public void testSniffedDialectsMatchCommaSeparatedFiles() throws IOException {
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(loadTestConfig());
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+        Path csvFile = copyResource(temporaryFolder, "/testCsv.csv", "testCsv.csv");
+        Path csvFile2 = copyResource(temporaryFolder, "/testCsv2.csv", "testCsv2.csv");
+        Path largeCsvFile = writeLargeCsv(temporaryFolder, "large.csv", 2000);
+        String commaLines = new CsvCategorizeAndMerge().organizeCsvFiles(List.of(csvFile, csvFile2, largeCsvFile),
+                csvFormat, compiledConfig).toString();
+
+        List<Path> csvFiles = List.of(csvFile, rewriteWithDelimiter(csvFile2, ';'),
+                rewriteWithDelimiter(largeCsvFile, '\t'));
+        for (boolean byteTokenizer : new boolean[] {false, true}) {
+            RunMetrics runMetrics = new RunMetrics();
+            assertEquals(commaLines, CsvCategorizeAndMerge.builder().threadCount(4).minChunkBytes(1024)
+                    .runMetrics(runMetrics).byteTokenizer(byteTokenizer).sniffDialect(true).build()
+                    .organizeCsvFiles(csvFiles, csvFormat, compiledConfig).toString());
+            String json = runMetrics.toJson();
+            Assert.assertTrue(json, json.contains("\"dialect\": \"CsvDialect{delimiter=',', quoted=false, "
+                    + "padded=true, datePatterns={Date=MM/dd/yyyy}}\""));
+            Assert.assertTrue(json, json.contains("\"dialect\": \"CsvDialect{delimiter=';', quoted=false, "
+                    + "padded=false, datePatterns={Date=yyyy-MM-dd}}\""));
+            Assert.assertTrue(json, json.contains("\"dialect\": \"CsvDialect{delimiter='\\\\t', quoted=true, "
+                    + "padded=true, datePatterns={Date=yyyy-MM-dd}}\""));
+        }
+    }
+
+    @Test
+    public void testSniffedDateFormatIsPerFile() throws IOException {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = new CsvCategorizeAndMerge.CsvOrganizerConfig("Date",
+                CsvCategorizeAndMerge.SortType.ASC, "Other");
+        config.getColumnNameToAliases().put("Date", new LinkedHashSet<>());
+        config.getColumnNameToAliases().put("Description", new LinkedHashSet<>());
+        config.getColumnNameToDateTransformer().put("Date", new DateTransformerConfig(
+                new LinkedHashSet<>(List.of("MM/dd/yyyy", "dd/MM/yyyy")), "yyyy-MM-dd"));
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(config);
+        Path monthFirstFile = temporaryFolder.newFile("monthFirst.csv").toPath();
+        Files.writeString(monthFirstFile, "Date,Description\n12/31/2023,month first\n03/04/2024,month first\n");
+        Path dayFirstFile = temporaryFolder.newFile("dayFirst.csv").toPath();
+        Files.writeString(dayFirstFile, "Date;Description\n31/12/2023;day first\n03/04/2024;day first\n");
+
+        String lines = CsvCategorizeAndMerge.builder().sniffDialect(true).build()
+                .organizeCsvFiles(List.of(monthFirstFile, dayFirstFile), CSVFormat.DEFAULT.withFirstRecordAsHeader(),
+                        compiledConfig).toString();
+
+        Assert.assertTrue(lines, lines.contains("{Date=2024-03-04, Description=month first}"));
+        Assert.assertTrue(lines, lines.contains("{Date=2024-04-03, Description=day first}"));
+    }
+
+    @Test
+    public void testPublishedRowsMatchOrganizedRows() throws Exception {
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(loadTestConfig());
+        List<Path> csvFiles = List.of(writeLargeCsv(temporaryFolder, "publish1.csv", 2000),
+                writeLargeCsv(temporaryFolder, "publish2.csv", 500));
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+        List<CsvCategorizeAndMerge.CategoryCsvLines> organizedLines = new CsvCategorizeAndMerge(2)
+                .organizeCsvFiles(csvFiles, csvFormat, compiledConfig);
+
+        // unsorted rows arrive chunk by chunk, one at a time as requested
+        List<CategorizedRow> rows = collectRows(CsvCategorizeAndMerge.builder().threadCount(2).minChunkBytes(1024)
+                .build().publishCsvFiles(csvFiles, csvFormat, compiledConfig), Long.MAX_VALUE);
+        assertEquals(2500, rows.size());
+        for (CsvCategorizeAndMerge.CategoryCsvLines lines : organizedLines) {
+            assertEquals(lines.size(), rows.stream()
+                    .filter(row -> row.getCategoryName().equals(lines.getCategoryName())).count());
+        }
+
+        // sorted rows arrive category by category in the order organizeCsvFiles gives
+        List<String> sortedRows = collectRows(new CsvCategorizeAndMerge(2)
+                .publishSortedCsvFiles(csvFiles, csvFormat, compiledConfig), Long.MAX_VALUE).stream()
+                .map(row -> row.getCategoryName() + Arrays.toString(row.getValues())).collect(Collectors.toList());
+        List<String> expectedRows = new ArrayList<>();
+        for (CsvCategorizeAndMerge.CategoryCsvLines lines : organizedLines) {
+            lines.rowIterator().forEachRemaining(values ->
+                    expectedRows.add(lines.getCategoryName() + Arrays.toString(values)));
+        }
+        assertEquals(expectedRows, sortedRows);
+
+        // cancelling stops the run without completing
+        assertEquals(10, collectRows(CsvCategorizeAndMerge.builder().threadCount(2).minChunkBytes(1024).build()
+                .publishCsvFiles(csvFiles, csvFormat, compiledConfig), 10).size());
+    }
+
+    @Test
+    public void testAggregationTrailerRows() throws IOException {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = loadTestConfig();
+        List<CsvCategorizeAndMerge.CategoryCsvLines> lines = new CsvCategorizeAndMerge(2)
+                .organizeCsvLines(openTestCsvs(1), config);
+
+        CsvCategorizeAndMerge.CategoryCsvLines groceries = lines.stream()
+                .filter(categoryCsvLines -> categoryCsvLines.getCategoryName().equals("Groceries"))
+                .findFirst().get();
+        List<String[]> trailerRows = groceries.getAggregates().getTrailerRows("Groceries");
+        assertArrayEquals(new String[] {"Groceries Total", null, "119.80"}, trailerRows.get(0));
+        assertArrayEquals(new String[] {"Groceries Transactions", null, "3"}, trailerRows.get(1));
+
+        CsvCategorizeAndMerge.CategoryCsvLines discretionary = lines.get(0);
+        assertEquals("-57.89", discretionary.getAggregates().getResult(0));
+
+        StringWriter output = new StringWriter();
+        try (CsvResultWriter csvResultWriter = new CsvResultWriter(output, List.of("Amount", "Date"))) {
+            csvResultWriter.writeCategory(groceries);
+        }
+        assertEquals("95.00,03/09/2024\n4.77,03/10/2024\n20.03,03/12/2024\n119.80,Groceries Total\n"
+                + "3,Groceries Transactions\n\n", output.toString().replace("$", ""));
+    }
+
+    @Test
+    public void testDeduplicationDropsRowsRepeatedAcrossInputs() throws IOException {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = loadTestConfig();
+        String singleExports = new CsvCategorizeAndMerge().organizeCsvLines(openTestCsvs(1), config).toString();
+
+        for (boolean bloomFilter : new boolean[] {false, true}) {
+            config.setDeduplicationConfig(new DeduplicationConfig(List.of("Date", "Description", "Amount"),
+                    bloomFilter, 100));
+            RunMetrics runMetrics = new RunMetrics();
+            List<CsvCategorizeAndMerge.CategoryCsvLines> lines = CsvCategorizeAndMerge.builder().threadCount(2)
+                    .runMetrics(runMetrics).build()
+                    .organizeCsvLines(openTestCsvs(3), new CompiledCsvOrganizerConfig(config));
+
+            assertEquals(singleExports, lines.toString());
+            Assert.assertTrue(runMetrics.toJson().contains("\"duplicateRows\": 16"));
+        }
+
+        // rows repeated within one input are kept, and chunks of a split file are deduplicated as one input
+        Path csvFile = writeLargeCsv(temporaryFolder, "dedup1.csv", 1000);
+        Path overlappingCsvFile = writeLargeCsv(temporaryFolder, "dedup2.csv", 1000);
+        Files.writeString(csvFile, Files.readString(csvFile) + "2024-12-31,Shoprite #x,-1.00,0\n".repeat(2));
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+        List<CsvCategorizeAndMerge.CategoryCsvLines> splitLines = CsvCategorizeAndMerge.builder().threadCount(4)
+                .minChunkBytes(1024).build().organizeCsvFiles(List.of(csvFile, overlappingCsvFile), csvFormat,
+                        new CompiledCsvOrganizerConfig(config));
+        assertEquals(1002, splitLines.stream().mapToInt(CsvCategorizeAndMerge.CategoryCsvLines::size).sum());
+    }
+
+    @Test
+    public void testRunMetrics() throws IOException {
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(loadTestConfig());
+        RunMetrics runMetrics = new RunMetrics();
+        CsvCategorizeAndMerge.builder().runMetrics(runMetrics).build().organizeCsvLines(openTestCsvs(1),
+                compiledConfig);
+
+        assertEquals(3, runMetrics.getCategoryRows("Groceries"));
+        assertEquals(2, runMetrics.getCategoryRows("Discretionary"));
+        long dateOutcomes = Stream.of(RunMetrics.DateOutcome.values())
+                .mapToLong(dateOutcome -> runMetrics.getDateOutcomes("Date", dateOutcome)).sum();
+        assertEquals("expected one date outcome per row", 8, dateOutcomes);
+        RunMetrics.RuleMetrics verizon = runMetrics.getRuleMetrics().stream()
+                .filter(ruleMetrics -> ruleMetrics.getRuleKey().toString().equals("Description/Data/verizon.*"))
+                .findFirst().get();
+        assertEquals(1, verizon.getEvaluations());
+        assertEquals(1, verizon.getMatches());
+        Assert.assertTrue(runMetrics.getStageNanos(RunMetrics.Stage.PARSE) > 0);
+
+        String json = runMetrics.toJson();
+        Assert.assertTrue(json, json.contains("\"Groceries\": 3"));
+        Assert.assertTrue(json, json.contains("\"name\": \"input-2\", \"bytes\": -1, \"rows\": 3"));
+    }
+
+    /**
+     * @return a copy of the csv file with the given delimiter, in a file named after the original
+     */
+    private Path rewriteWithDelimiter(Path csvFile, char delimiter) throws IOException {
+        Path rewrittenFile = temporaryFolder.getRoot().toPath().resolve("delimited-" + csvFile.getFileName());
+        try (CSVParser csvParser = CSVParser.parse(csvFile, StandardCharsets.UTF_8, CSVFormat.DEFAULT);
+             CSVPrinter csvPrinter = new CSVPrinter(Files.newBufferedWriter(rewrittenFile),
+                     CSVFormat.DEFAULT.builder().setDelimiter(delimiter).build())) {
+            csvPrinter.printRecords(csvParser);
+        }
+        return rewrittenFile;
+    }
+
+    /**
+     * Subscribes, requesting one row at a time, and cancels after {@code limit} rows.
+     */
+    private static List<CategorizedRow> collectRows(Flow.Publisher<CategorizedRow> publisher, long limit)
+            throws Exception {
+        List<CategorizedRow> rows = new ArrayList<>();
+        CompletableFuture<List<CategorizedRow>> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(CategorizedRow row) {
+                rows.add(row);
+                if (rows.size() == limit) {
+                    subscription.cancel();
+                    done.complete(rows);
+                } else {
+                    subscription.request(1);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(rows);
+            }
+        });
+        return done.get(30, TimeUnit.SECONDS);
+    }
 
     private long countLinesForCategory(List<CsvCategorizeAndMerge.CategoryCsvLines> lines, String category) {
         return lines.stream().filter(categoryCsvLines -> categoryCsvLines.getCategoryName().equals(category))
                 .map(CsvCategorizeAndMerge.CategoryCsvLines::getCsvLines)
                 .mapToLong(List::size).sum();
     }
-
 }
@@ -0,0 +1,41 @@
+package org.leskapaul.csv;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CsvResultWriterTest {
+
+    private static final List<String> COLUMN_NAMES = List.of("Description", "Notes", "Amount");
+
+    @Test
+    public void testValuesWithDelimitersQuotesAndNewlinesAreQuoted() throws IOException {
+        String[] row = {"Lunch, downtown", "Joe's \"Diner\"", "-12.50"};
+        String[] multilineRow = {"Refund\nfrom store", null, "3"};
+        String expected = "Description,Notes,Amount\n"
+                + "\"Lunch, downtown\",\"Joe's \"\"Diner\"\"\",-12.50\n"
+                + "\"Refund\nfrom store\",,3\n"
+                + "\n";
+
+        CsvCategorizeAndMerge.CategoryCsvLines lines = new CsvCategorizeAndMerge.CategoryCsvLines("Other", COLUMN_NAMES);
+        lines.addRow(row);
+        lines.addRow(multilineRow);
+        StringWriter storedOutput = new StringWriter();
+        try (CsvResultWriter csvResultWriter = new CsvResultWriter(storedOutput, COLUMN_NAMES)) {
+            csvResultWriter.writeHeader();
+            csvResultWriter.writeCategory(lines);
+        }
+        assertEquals(expected, storedOutput.toString());
+
+        StringWriter streamedOutput = new StringWriter();
+        try (CsvResultWriter csvResultWriter = new CsvResultWriter(streamedOutput, COLUMN_NAMES)) {
+            csvResultWriter.writeHeader();
+            csvResultWriter.writeCategory("Other", List.of(row, multilineRow).iterator(), null);
+        }
+        assertEquals(expected, streamedOutput.toString());
+    }
+}
@@ -0,0 +1,86 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Inputs shared by the end-to-end tests: the test config and exports under src/test/resources, and generated csv
+ * files large enough to be split into chunks.
+ */
+final class CsvTestFixtures {
+
+    private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+
+    private CsvTestFixtures() {
+    }
+
+    static CsvCategorizeAndMerge.CsvOrganizerConfig loadTestConfig() {
+        return CsvCategorizeAndMergeCli.loadConfig(CsvTestFixtures.class.getResourceAsStream("/testConfig.yaml"));
+    }
+
+    /**
+     * @return parsers of {@code copies} pairs of the two test exports, testCsv.csv and testCsv2.csv
+     */
+    static List<CSVParser> openTestCsvs(int copies) throws IOException {
+        List<CSVParser> csvParsers = new ArrayList<>();
+        for (int i = 0; i < copies; i++) {
+            csvParsers.add(CSVParser.parse(CsvTestFixtures.class.getResourceAsStream("/testCsv.csv"),
+                    StandardCharsets.UTF_8, CSV_FORMAT));
+            csvParsers.add(CSVParser.parse(CsvTestFixtures.class.getResourceAsStream("/testCsv2.csv"),
+                    StandardCharsets.UTF_8, CSV_FORMAT));
+        }
+        return csvParsers;
+    }
+
+    /**
+     * @return a new file of the temporary folder with the content of the test resource
+     */
+    static Path copyResource(TemporaryFolder temporaryFolder, String resource, String fileName) throws IOException {
+        Path csvFile = temporaryFolder.newFile(fileName).toPath();
+        Files.copy(CsvTestFixtures.class.getResourceAsStream(resource), csvFile, StandardCopyOption.REPLACE_EXISTING);
+        return csvFile;
+    }
+
+    static Path writeLargeCsv(TemporaryFolder temporaryFolder, String fileName, int recordCount) throws IOException {
+        // most bytes are inside quoted multi-line descriptions, so chunk targets land inside them
+        StringBuilder csv = new StringBuilder("Date,Description,Amount,Running Bal.\r\n");
+        Random random = new Random(7);
+        String[] merchants = {"Shoprite", "VERIZON", "Public service pseg", "The home depot", "Rock farmers market"};
+        for (int i = 0; i < recordCount; i++) {
+            csv.append(String.format("2024-%02d-%02d,\"%s #%d\nline two, with \"\"quotes\"\"\r\nline three\",",
+                    1 + random.nextInt(12), 1 + random.nextInt(28), merchants[random.nextInt(merchants.length)], i));
+            csv.append(random.nextBoolean() ? "-1.00" : " 5 \" screen").append(",\"1,000.00\"");
+            csv.append(random.nextInt(10) == 0 ? "\n\n" : "\n");
+        }
+        Path csvFile = temporaryFolder.newFile(fileName).toPath();
+        Files.writeString(csvFile, csv.toString());
+        return csvFile;
+    }
+
+    /**
+     * @return the csv output, header included, that the run writes for the config
+     */
+    static String streamToString(CompiledCsvOrganizerConfig compiledConfig,
+                                 Function<CompiledCsvOrganizerConfig, Consumer<CsvResultWriter>> run)
+            throws IOException {
+        StringWriter output = new StringWriter();
+        try (CsvResultWriter csvResultWriter = new CsvResultWriter(output, compiledConfig.getColumnNames())) {
+            csvResultWriter.writeHeader();
+            run.apply(compiledConfig).accept(csvResultWriter);
+        }
+        return output.toString();
+    }
+}
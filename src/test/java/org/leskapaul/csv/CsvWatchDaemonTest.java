@@ -0,0 +1,63 @@
+package org.leskapaul.csv;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static org.leskapaul.csv.CsvTestFixtures.copyResource;
+
+public class CsvWatchDaemonTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testWatchDaemonMergesNewFilesAndReloadsConfig() throws Exception {
+        Path configFile = copyResource(temporaryFolder, "/testConfig.yaml", "watchConfig.yaml");
+        Path inboxDirectory = temporaryFolder.newFolder("inbox").toPath();
+        Path outputFile = temporaryFolder.getRoot().toPath().resolve("merged.csv");
+        try (CsvWatchDaemon csvWatchDaemon = new CsvWatchDaemon(configFile, inboxDirectory, outputFile, 20,
+                runMetrics -> CsvCategorizeAndMerge.builder().threadCount(2).runMetrics(runMetrics).build(), null)) {
+            Thread watchThread = new Thread(csvWatchDaemon::run, "csv-watch");
+            watchThread.start();
+
+            dropIntoInbox("/testCsv2.csv", inboxDirectory.resolve("export2.csv"));
+            awaitOutput(outputFile, "Data Transactions");
+
+            Files.writeString(configFile, Files.readString(configFile).replace("category: Data", "category: Phone"));
+            awaitOutput(outputFile, "Phone Transactions");
+
+            dropIntoInbox("/testCsv.csv", inboxDirectory.resolve("export1.csv"));
+            awaitOutput(outputFile, "Groceries Transactions");
+            Assert.assertTrue(Files.readString(outputFile).contains("Phone Transactions"));
+
+            watchThread.interrupt();
+            watchThread.join(10_000);
+        }
+    }
+
+    /**
+     * Writes the resource next to the inbox file and moves it in, so the daemon never sees a partial file.
+     */
+    private void dropIntoInbox(String resource, Path csvFile) throws IOException {
+        Path tempFile = csvFile.resolveSibling("." + csvFile.getFileName());
+        Files.copy(getClass().getResourceAsStream(resource), tempFile);
+        Files.move(tempFile, csvFile, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void awaitOutput(Path outputFile, String expected) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Files.exists(outputFile) || !Files.readString(outputFile).contains(expected)) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("expected " + outputFile + " to contain " + expected);
+            }
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.leskapaul.csv;
+
+import org.junit.Test;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DateTransformerTest {
+
+    @Test
+    public void testDateTransformer() {
+        DateTransformer dateTransformer = new DateTransformerConfig(
+                new LinkedHashSet<>(List.of("yyyy-MM-dd", "MM/dd/yyyy")), "MM/dd/yyyy").compile();
+
+        assertEquals("03/04/2024", dateTransformer.transform("2024-03-04"));
+        assertEquals("03/18/2024", dateTransformer.transform("03/18/2024"));
+        assertEquals("03/05/2024", dateTransformer.transform("3/5/2024"));
+        assertEquals("12/31/2023", dateTransformer.transform("2023-12-31"));
+        assertEquals("not a date", dateTransformer.transform("not a date"));
+        // cached values resolve the same way
+        assertEquals("03/04/2024", dateTransformer.transform("2024-03-04"));
+    }
+
+    @Test
+    public void testAmbiguousDatesFollowConfigOrder() {
+        DateTransformerConfig dateTransformerConfig = new DateTransformerConfig(
+                new LinkedHashSet<>(List.of("dd/MM/yyyy", "MM/dd/yyyy")), "yyyy-MM-dd");
+        DateTransformer freshTransformer = dateTransformerConfig.compile();
+        DateTransformer usedTransformer = dateTransformerConfig.compile();
+
+        // only the second format parses this value, which must not make it win for values both formats parse
+        assertEquals("2024-03-18", usedTransformer.transform("03/18/2024"));
+        assertEquals("2024-04-03", usedTransformer.transform("03/04/2024"));
+        assertEquals("2024-04-03", freshTransformer.transform("03/04/2024"));
+        assertEquals("2024-04-03", usedTransformer.transform("03/04/2024"));
+    }
+}
@@ -0,0 +1,116 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.leskapaul.csv.CsvTestFixtures.loadTestConfig;
+import static org.leskapaul.csv.CsvTestFixtures.writeLargeCsv;
+
+public class ExternalCategorySorterTest {
+
+    private static final List<String> COLUMN_NAMES = List.of("Date", "Description", "Amount");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testMoreRunsThanFanInMergeStably() throws IOException {
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(config());
+        Path spillDirectory = temporaryFolder.newFolder("spill").toPath();
+        Random random = new Random(5);
+        List<String[]> addedRows = new ArrayList<>();
+        List<String> sortedDescriptions = new ArrayList<>();
+        int maxFanIn = 3;
+        try (ExternalCategorySorter externalCategorySorter = new ExternalCategorySorter(compiledConfig, 1,
+                spillDirectory, RunMetrics.DISABLED, maxFanIn)) {
+            // a one byte budget spills every partial result, so 20 of them write far more runs than the fan-in
+            for (int partial = 0; partial < 20; partial++) {
+                CsvCategorizeAndMerge.CategoryCsvLines lines =
+                        new CsvCategorizeAndMerge.CategoryCsvLines("Other", COLUMN_NAMES);
+                int rowCount = 1 + random.nextInt(30);
+                for (int i = 0; i < rowCount; i++) {
+                    // few distinct amounts, so most rows tie and only the input order tells them apart
+                    String[] row = {null, String.valueOf(addedRows.size()), String.valueOf(random.nextInt(5))};
+                    addedRows.add(row);
+                    lines.addRow(row);
+                }
+                Map<String, CsvCategorizeAndMerge.CategoryCsvLines> partialResult = new LinkedHashMap<>();
+                partialResult.put("Other", lines);
+                externalCategorySorter.addAll(partialResult);
+                assertTrue("expected at most " + maxFanIn + " runs",
+                        externalCategorySorter.getRunCount("Other") <= maxFanIn);
+            }
+            assertEquals(20, externalCategorySorter.getSpillCount());
+            try (Stream<Path> runFiles = Files.list(spillDirectory)) {
+                assertTrue("expected merged runs to be deleted", runFiles.count() <= maxFanIn);
+            }
+
+            externalCategorySorter.finish((category, sortedRows, aggregates) ->
+                    sortedRows.forEachRemaining(row -> sortedDescriptions.add(row[1])));
+        }
+
+        List<String> expected = addedRows.stream()
+                .sorted(Comparator.comparingInt(row -> Integer.parseInt(row[2])))
+                .map(row -> row[1])
+                .toList();
+        assertEquals(expected, sortedDescriptions);
+        try (Stream<Path> runFiles = Files.list(spillDirectory)) {
+            assertEquals("expected runs to be deleted", 0, runFiles.count());
+        }
+    }
+
+    @Test
+    public void testSpillToDiskMatchesInMemory() throws IOException {
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(loadTestConfig());
+        List<Path> csvFiles = List.of(writeLargeCsv(temporaryFolder, "large1.csv", 3000),
+                writeLargeCsv(temporaryFolder, "large2.csv", 3000));
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+        List<String> columnNames = compiledConfig.getColumnNames();
+
+        StringWriter inMemoryOutput = new StringWriter();
+        try (CsvResultWriter csvResultWriter = new CsvResultWriter(inMemoryOutput, columnNames)) {
+            new CsvCategorizeAndMerge().organizeCsvFiles(csvFiles, csvFormat, compiledConfig,
+                    csvResultWriter::writeCategory);
+        }
+
+        // a budget far below the input size forces a spill after every chunk
+        Path spillDirectory = temporaryFolder.newFolder("spill").toPath();
+        StringWriter spilledOutput = new StringWriter();
+        try (CsvResultWriter csvResultWriter = new CsvResultWriter(spilledOutput, columnNames)) {
+            CsvCategorizeAndMerge.builder().threadCount(2).minChunkBytes(1024).memoryBudgetBytes(4096)
+                    .spillDirectory(spillDirectory).build()
+                    .streamCsvFiles(csvFiles, csvFormat, compiledConfig, csvResultWriter::writeCategory);
+        }
+
+        assertEquals(inMemoryOutput.toString(), spilledOutput.toString());
+        try (Stream<Path> spillFiles = Files.list(spillDirectory)) {
+            assertEquals("expected spilled runs to be deleted", 0, spillFiles.count());
+        }
+    }
+
+    private static CsvCategorizeAndMerge.CsvOrganizerConfig config() {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config =
+                new CsvCategorizeAndMerge.CsvOrganizerConfig("Amount", CsvCategorizeAndMerge.SortType.ASC, "Other");
+        LinkedHashMap<String, Set<String>> columnNameToAliases = config.getColumnNameToAliases();
+        COLUMN_NAMES.forEach(columnName -> columnNameToAliases.put(columnName, new LinkedHashSet<>()));
+        return config;
+    }
+}
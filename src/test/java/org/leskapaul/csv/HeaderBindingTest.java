@@ -0,0 +1,73 @@
+package org.leskapaul.csv;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class HeaderBindingTest {
+
+    @Test
+    public void testAliasesMatchTrimmedHeadersIgnoringCase() {
+        HeaderBinding headerBinding = HeaderBinding.bind(
+                headerMap(" posting date ", "DESCRIPTION", "Running Bal.", "amt"), compiledConfig());
+
+        assertEquals("HeaderBinding{0->Date, 1->Description, 3->Amount}", headerBinding.toString());
+        assertEquals(3, headerBinding.size());
+        assertArrayEquals(new int[] {0, 1, 3}, headerBinding.getRecordIndexes());
+        assertEquals(List.of("Date", "Description", "Amount"), headerBinding.getColumnNames());
+        assertEquals(2, headerBinding.getColumnIndex(2));
+        assertEquals("Amount", headerBinding.getColumnName(2));
+        assertEquals(DateTransformer.NO_INPUT_FORMAT, headerBinding.getDateFormat(0));
+    }
+
+    @Test
+    public void testBindingFollowsHeaderOrderAndSkipsMissingColumns() {
+        // "Date" is configured but missing, "Memo" is not configured
+        HeaderBinding headerBinding = HeaderBinding.bind(headerMap("Amount", "Memo", "Description"), compiledConfig());
+
+        assertEquals("HeaderBinding{0->Amount, 2->Description}", headerBinding.toString());
+        assertArrayEquals(new int[] {0, 2}, headerBinding.getRecordIndexes());
+        assertEquals(2, headerBinding.getColumnIndex(0));
+        assertEquals(1, headerBinding.getColumnIndex(1));
+
+        assertEquals(0, HeaderBinding.bind(null, compiledConfig()).size());
+    }
+
+    @Test
+    public void testWithDateFormatsCopiesFormats() {
+        HeaderBinding headerBinding = HeaderBinding.bind(headerMap("Date", "Amount"), compiledConfig());
+        int[] dateFormats = {1, DateTransformer.NO_INPUT_FORMAT};
+        HeaderBinding datedBinding = headerBinding.withDateFormats(dateFormats);
+        dateFormats[0] = 0;
+
+        assertEquals(1, datedBinding.getDateFormat(0));
+        assertEquals(DateTransformer.NO_INPUT_FORMAT, headerBinding.getDateFormat(0));
+        assertThrows(IllegalArgumentException.class, () -> headerBinding.withDateFormats(new int[1]));
+    }
+
+    private static Map<String, Integer> headerMap(String... headers) {
+        Map<String, Integer> headerMap = new LinkedHashMap<>();
+        for (int i = 0; i < headers.length; i++) {
+            headerMap.put(headers[i], i);
+        }
+        return headerMap;
+    }
+
+    private static CompiledCsvOrganizerConfig compiledConfig() {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config =
+                new CsvCategorizeAndMerge.CsvOrganizerConfig("Date", CsvCategorizeAndMerge.SortType.ASC, "Other");
+        LinkedHashMap<String, Set<String>> columnNameToAliases = config.getColumnNameToAliases();
+        columnNameToAliases.put("Date", new LinkedHashSet<>(List.of("Posting Date", "Trans. Date")));
+        columnNameToAliases.put("Description", new LinkedHashSet<>());
+        columnNameToAliases.put("Amount", new LinkedHashSet<>(List.of("Amt")));
+        return new CompiledCsvOrganizerConfig(config);
+    }
+}
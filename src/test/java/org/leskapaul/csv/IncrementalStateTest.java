@@ -0,0 +1,87 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.leskapaul.csv.CsvTestFixtures.copyResource;
+import static org.leskapaul.csv.CsvTestFixtures.loadTestConfig;
+import static org.leskapaul.csv.CsvTestFixtures.writeLargeCsv;
+
+public class IncrementalStateTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testIncrementalRunsReuseUnchangedFiles() throws IOException {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = loadTestConfig();
+        Path csvFile1 = writeLargeCsv(temporaryFolder, "incremental1.csv", 500);
+        Path csvFile2 = copyResource(temporaryFolder, "/testCsv2.csv", "incremental2.csv");
+        List<Path> csvFiles = List.of(csvFile1, csvFile2);
+        Path stateDirectory = temporaryFolder.newFolder("state").toPath();
+
+        String firstRun = organizeIncrementally(csvFiles, config, stateDirectory);
+        assertEquals(organizeIncrementally(csvFiles, config, null), firstRun);
+        List<Path> rowsFiles = listRowsFiles(stateDirectory);
+        assertEquals("expected the rows of both files to be stored", 2, rowsFiles.size());
+
+        // unchanged files are loaded, not parsed and stored again
+        FileTime storedTime = FileTime.fromMillis(0);
+        for (Path rowsFile : rowsFiles) {
+            Files.setLastModifiedTime(rowsFile, storedTime);
+        }
+        assertEquals(firstRun, organizeIncrementally(csvFiles, config, stateDirectory));
+        for (Path rowsFile : rowsFiles) {
+            assertEquals(storedTime, Files.getLastModifiedTime(rowsFile));
+        }
+
+        // a changed file is parsed again and the rows of its old content are deleted
+        Files.writeString(csvFile2, Files.readString(csvFile2) + "03/20/2024,\"VERIZON WIRELESS\",\"-5.00\",\"1.00\"\n");
+        String changedRun = organizeIncrementally(csvFiles, config, stateDirectory);
+        assertEquals(organizeIncrementally(csvFiles, config, null), changedRun);
+        assertEquals(2, listRowsFiles(stateDirectory).size());
+        Assert.assertTrue(Files.exists(rowsFiles.get(0)) != Files.exists(rowsFiles.get(1)));
+
+        // changed rules invalidate every stored file, so the unchanged one is parsed and stored again too
+        config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("Home", "Description",
+                new LinkedHashSet<>(List.of("the home depot.*"))));
+        assertEquals(organizeIncrementally(csvFiles, config, null),
+                organizeIncrementally(csvFiles, config, stateDirectory));
+        for (Path rowsFile : listRowsFiles(stateDirectory)) {
+            Assert.assertNotEquals(storedTime, Files.getLastModifiedTime(rowsFile));
+        }
+    }
+
+    private static String organizeIncrementally(List<Path> csvFiles, CsvCategorizeAndMerge.CsvOrganizerConfig config,
+                                                Path stateDirectory) throws IOException {
+        CompiledCsvOrganizerConfig compiledConfig = new CompiledCsvOrganizerConfig(config);
+        StringWriter output = new StringWriter();
+        try (CsvResultWriter csvResultWriter = new CsvResultWriter(output, compiledConfig.getColumnNames())) {
+            CsvCategorizeAndMerge.builder().threadCount(2).stateDirectory(stateDirectory).build()
+                    .organizeCsvFiles(csvFiles, CSVFormat.DEFAULT.withFirstRecordAsHeader(), compiledConfig,
+                            csvResultWriter::writeCategory);
+        }
+        return output.toString();
+    }
+
+    private static List<Path> listRowsFiles(Path stateDirectory) throws IOException {
+        try (Stream<Path> stateFiles = Files.list(stateDirectory)) {
+            return stateFiles.filter(file -> file.toString().endsWith(".rows")).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.leskapaul.csv.CsvTestFixtures.copyResource;
+import static org.leskapaul.csv.CsvTestFixtures.loadTestConfig;
+import static org.leskapaul.csv.CsvTestFixtures.streamToString;
+import static org.leskapaul.csv.CsvTestFixtures.writeLargeCsv;
+
+public class PartialResultTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testMergedPartialResultsMatchSingleRun() throws IOException {
+        List<Path> csvFiles = new ArrayList<>();
+        for (String resource : List.of("testCsv.csv", "testCsv2.csv", "testCsv.csv")) {
+            csvFiles.add(copyResource(temporaryFolder, "/" + resource, "partial-" + csvFiles.size() + "-" + resource));
+        }
+        // the second large file repeats the first half of the first one
+        csvFiles.add(1, writeLargeCsv(temporaryFolder, "partial1.csv", 2000));
+        csvFiles.add(3, writeLargeCsv(temporaryFolder, "partial2.csv", 1000));
+        List<List<Path>> shards = List.of(csvFiles.subList(0, 2), csvFiles.subList(2, 3), csvFiles.subList(3, 5));
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+        CsvCategorizeAndMerge.CsvOrganizerConfig deduplicatingConfig = loadTestConfig();
+        deduplicatingConfig.setDeduplicationConfig(new DeduplicationConfig(List.of("Date", "Description", "Amount"),
+                false, 100));
+
+        for (CompiledCsvOrganizerConfig compiledConfig : List.of(new CompiledCsvOrganizerConfig(loadTestConfig()),
+                new CompiledCsvOrganizerConfig(deduplicatingConfig))) {
+            String singleRunOutput = streamToString(compiledConfig, config -> writer -> new CsvCategorizeAndMerge()
+                    .streamCsvFiles(csvFiles, csvFormat, config, writer::writeCategory));
+            List<Path> partialFiles = new ArrayList<>();
+            for (List<Path> shard : shards) {
+                Path partialFile = temporaryFolder.getRoot().toPath().resolve("shard" + partialFiles.size() + ".part");
+                try (PartialResult.Writer partialWriter = new PartialResult.Writer(partialFile, compiledConfig,
+                        csvFormat)) {
+                    CsvCategorizeAndMerge.builder().threadCount(2).minChunkBytes(1024).memoryBudgetBytes(1 << 16)
+                            .build().streamCsvFiles(shard, csvFormat, compiledConfig, partialWriter);
+                    partialWriter.finish();
+                }
+                partialFiles.add(partialFile);
+            }
+
+            assertEquals(singleRunOutput, streamToString(compiledConfig, config -> writer -> new CsvCategorizeAndMerge()
+                    .mergePartialResults(partialFiles, csvFormat, config, writer::writeCategory)));
+
+            // partial results merge into a partial result, e.g. to reduce in a tree
+            Path reducedFile = temporaryFolder.getRoot().toPath().resolve("shards1-2.part");
+            try (PartialResult.Writer partialWriter = new PartialResult.Writer(reducedFile, compiledConfig,
+                    csvFormat)) {
+                new CsvCategorizeAndMerge().mergePartialResults(partialFiles.subList(1, 3), csvFormat,
+                        compiledConfig, partialWriter);
+                partialWriter.finish();
+            }
+            assertEquals(singleRunOutput, streamToString(compiledConfig, config -> writer -> new CsvCategorizeAndMerge()
+                    .mergePartialResults(List.of(partialFiles.get(0), reducedFile), csvFormat, config,
+                            writer::writeCategory)));
+        }
+
+        CompiledCsvOrganizerConfig otherConfig = new CompiledCsvOrganizerConfig(loadTestConfig());
+        try {
+            new CsvCategorizeAndMerge().mergePartialResults(List.of(temporaryFolder.getRoot().toPath()
+                    .resolve("shard0.part")), csvFormat, otherConfig, (category, rows, aggregates) -> { });
+            Assert.fail("expected a partial result of another config to be rejected");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("another config"));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.leskapaul.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.leskapaul.csv.CsvTestFixtures.copyResource;
+import static org.leskapaul.csv.CsvTestFixtures.loadTestConfig;
+import static org.leskapaul.csv.CsvTestFixtures.streamToString;
+import static org.leskapaul.csv.CsvTestFixtures.writeLargeCsv;
+
+public class RowSnapshotTest {
+
+    private static final Logger LOG = LogManager.getLogger(RowSnapshotTest.class.getSimpleName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSnapshotRecategorizeMatchesParsing() throws IOException {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = loadTestConfig();
+        List<Path> csvFiles = List.of(copyResource(temporaryFolder, "/testCsv.csv", "snapshot1.csv"),
+                writeLargeCsv(temporaryFolder, "snapshot3.csv", 3000),
+                copyResource(temporaryFolder, "/testCsv2.csv", "snapshot2.csv"));
+        CSVFormat csvFormat = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+        Path snapshotFile = temporaryFolder.getRoot().toPath().resolve("rows.snapshot");
+
+        String parsedOutput = streamToString(new CompiledCsvOrganizerConfig(config), compiledConfig -> writer ->
+                CsvCategorizeAndMerge.builder().threadCount(4).minChunkBytes(1024).build()
+                        .streamCsvFiles(csvFiles, csvFormat, compiledConfig, snapshotFile, writer::writeCategory));
+        CompiledCsvOrganizerConfig sameConfig = new CompiledCsvOrganizerConfig(config);
+        assertEquals(parsedOutput, streamToString(sameConfig, compiledConfig -> writer ->
+                new CsvCategorizeAndMerge(4).streamSnapshot(snapshotFile, compiledConfig, writer::writeCategory)));
+
+        // rules match the raw value of a date column, not the transformed one
+        config.getCategoryConfigs().add(0, new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("March", "Date",
+                new LinkedHashSet<>(List.of("2024-03-.*"))));
+        config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig("Home", "Description",
+                new LinkedHashSet<>(List.of("the home depot.*"))));
+        config.setDeduplicationConfig(new DeduplicationConfig(List.of("Date", "Description"), false, 100));
+        CompiledCsvOrganizerConfig changedConfig = new CompiledCsvOrganizerConfig(config);
+        String recategorizedOutput = streamToString(changedConfig, compiledConfig -> writer ->
+                new CsvCategorizeAndMerge(4).streamSnapshot(snapshotFile, compiledConfig, writer::writeCategory));
+        assertEquals(streamToString(changedConfig, compiledConfig -> writer ->
+                new CsvCategorizeAndMerge(1).streamCsvFiles(csvFiles, csvFormat, compiledConfig,
+                        writer::writeCategory)), recategorizedOutput);
+        Assert.assertTrue(recategorizedOutput.contains("March Transactions"));
+
+        config.getColumnNameToAliases().put("Running Bal.", Set.of());
+        try {
+            new CsvCategorizeAndMerge().streamSnapshot(snapshotFile, new CompiledCsvOrganizerConfig(config),
+                    (category, rows, aggregates) -> { });
+            Assert.fail("expected a snapshot of other columns to be rejected");
+        } catch (IllegalStateException e) {
+            LOG.info("snapshot rejected as expected: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.leskapaul.csv;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RowSorterTest {
+
+    private static final List<String> COLUMN_NAMES = List.of("Date", "Description", "Amount");
+
+    @Test
+    public void testDatesSortAcrossYears() {
+        RowSorter rowSorter = new CompiledCsvOrganizerConfig(config("Date", CsvCategorizeAndMerge.SortType.ASC))
+                .getRowSorter();
+        CsvCategorizeAndMerge.CategoryCsvLines lines = lines(
+                new String[] {"01/02/2024", "b", "1"},
+                new String[] {"12/31/2023", "a", "1"},
+                new String[] {"not a date", "c", "1"},
+                new String[] {"", "d", "1"},
+                new String[] {"01/02/2024", "e", "1"});
+
+        rowSorter.sort(lines);
+
+        assertEquals(List.of("d", "a", "b", "e", "c"), column(lines, 1));
+    }
+
+    @Test
+    public void testAmountsSortNumericallyAndDescendingKeepsTieOrder() {
+        RowSorter rowSorter = new CompiledCsvOrganizerConfig(config("Amount", CsvCategorizeAndMerge.SortType.DESC))
+                .getRowSorter();
+        CsvCategorizeAndMerge.CategoryCsvLines lines = lines(
+                new String[] {null, "a", "-1.00"},
+                new String[] {null, "b", "10"},
+                new String[] {null, "c", "9.5"},
+                new String[] {null, "d", "10.00"},
+                new String[] {null, "e", "-20"});
+
+        rowSorter.sort(lines);
+
+        assertEquals(List.of("b", "d", "c", "a", "e"), column(lines, 1));
+    }
+
+    @Test
+    public void testNaturalMergeSortIsStable() {
+        Random random = new Random(3);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            int size = random.nextInt(200);
+            int[] ranks = new int[size];
+            // runs of ascending, descending and shuffled values with many ties, like concatenated exports
+            for (int i = 0; i < size; ) {
+                int runLength = 1 + random.nextInt(40);
+                int direction = random.nextInt(3);
+                int value = random.nextInt(30);
+                for (int j = 0; j < runLength && i < size; j++, i++) {
+                    ranks[i] = direction == 2 ? random.nextInt(30) : value;
+                    if (random.nextInt(3) == 0) {
+                        value += direction == 0 ? 1 : -1;
+                    }
+                }
+            }
+            int[] order = new int[size];
+            List<int[]> expected = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+                expected.add(new int[] {ranks[i], i});
+            }
+            expected.sort((entry1, entry2) -> Integer.compare(entry1[0], entry2[0]));
+
+            RowSorter.naturalMergeSort(order, ranks);
+
+            assertArrayEquals(expected.stream().mapToInt(entry -> entry[1]).toArray(), order);
+        }
+    }
+
+    private static CsvCategorizeAndMerge.CsvOrganizerConfig config(String sortColumnName,
+                                                                   CsvCategorizeAndMerge.SortType sortType) {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config =
+                new CsvCategorizeAndMerge.CsvOrganizerConfig(sortColumnName, sortType, "Other");
+        LinkedHashMap<String, Set<String>> columnNameToAliases = config.getColumnNameToAliases();
+        COLUMN_NAMES.forEach(columnName -> columnNameToAliases.put(columnName, new LinkedHashSet<>()));
+        config.getColumnNameToDateTransformer().put("Date",
+                new DateTransformerConfig(new LinkedHashSet<>(List.of("MM/dd/yyyy")), "MM/dd/yyyy"));
+        return config;
+    }
+
+    private static CsvCategorizeAndMerge.CategoryCsvLines lines(String[]... rows) {
+        CsvCategorizeAndMerge.CategoryCsvLines lines = new CsvCategorizeAndMerge.CategoryCsvLines("Other", COLUMN_NAMES);
+        for (String[] row : rows) {
+            lines.addRow(row);
+        }
+        return lines;
+    }
+
+    private static List<String> column(CsvCategorizeAndMerge.CategoryCsvLines lines, int column) {
+        List<String> values = new ArrayList<>();
+        for (int row = 0; row < lines.size(); row++) {
+            values.add(lines.getValue(row, column));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,125 @@
+package org.leskapaul.csv;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class RowStoreTest {
+
+    private static final List<String> COLUMN_NAMES = List.of("Date", "Description", "Amount");
+
+    @Test
+    public void testDictionaryEncodingKeepsNullAndEmptyApart() {
+        RowStore rowStore = new RowStore(COLUMN_NAMES);
+        String[] values = {"01/02/2024", "", null};
+        rowStore.addRow(values);
+        values[0] = "01/03/2024";
+        values[2] = "5.00";
+        rowStore.addRow(values);
+        rowStore.addRow(new String[] {"01/02/2024", null, "5.00"});
+
+        assertEquals(3, rowStore.size());
+        assertArrayEquals(new String[] {"01/02/2024", "", null}, rowStore.getRow(0));
+        assertArrayEquals(new String[] {"01/03/2024", "", "5.00"}, rowStore.getRow(1));
+        assertArrayEquals(new String[] {"01/02/2024", null, "5.00"}, rowStore.getRow(2));
+
+        // equal values share a code, null is code 0 and "" is a value of its own
+        assertEquals(rowStore.getCode(0, 0), rowStore.getCode(2, 0));
+        assertNotEquals(rowStore.getCode(0, 0), rowStore.getCode(1, 0));
+        assertEquals(0, rowStore.getCode(2, 1));
+        assertNotEquals(0, rowStore.getCode(0, 1));
+        assertEquals(3, rowStore.getCodeCount(0));
+        assertEquals(2, rowStore.getCodeCount(1));
+        assertEquals("", rowStore.decode(1, rowStore.getCode(0, 1)));
+        assertNull(rowStore.decode(2, 0));
+
+        RowStore otherStore = new RowStore(COLUMN_NAMES);
+        otherStore.addRow(new String[] {"01/04/2024", "", null});
+        otherStore.addRow(new String[] {"01/02/2024", null, "5.00"});
+        rowStore.addAll(otherStore);
+        assertEquals(5, rowStore.size());
+        assertArrayEquals(new String[] {"01/04/2024", "", null}, rowStore.getRow(3));
+        assertEquals(rowStore.getCode(0, 0), rowStore.getCode(4, 0));
+        assertEquals(4, rowStore.getCodeCount(0));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> rowStore.getRow(5));
+    }
+
+    @Test
+    public void testReorder() {
+        RowStore rowStore = new RowStore(COLUMN_NAMES);
+        for (int row = 0; row < 40; row++) {
+            rowStore.addRow(new String[] {null, "row " + row, String.valueOf(row % 3)});
+        }
+        int[] order = new int[40];
+        for (int row = 0; row < order.length; row++) {
+            order[row] = order.length - 1 - row;
+        }
+
+        rowStore.reorder(order);
+
+        for (int row = 0; row < 40; row++) {
+            assertArrayEquals(new String[] {null, "row " + (39 - row), String.valueOf((39 - row) % 3)},
+                    rowStore.getRow(row));
+        }
+        assertThrows(IllegalArgumentException.class, () -> rowStore.reorder(new int[39]));
+    }
+
+    @Test
+    public void testEstimateBytesGrowsWithDistinctValues() {
+        RowStore repeatedValues = new RowStore(COLUMN_NAMES);
+        RowStore distinctValues = new RowStore(COLUMN_NAMES);
+        long emptyBytes = repeatedValues.estimateBytes();
+        assertTrue(emptyBytes > 0);
+        for (int row = 0; row < 1000; row++) {
+            repeatedValues.addRow(new String[] {"01/02/2024", "GROCERY STORE", "5.00"});
+            distinctValues.addRow(new String[] {"01/02/2024", "GROCERY STORE #" + row, row + ".00"});
+        }
+
+        // a repeated value costs a code per row, a distinct one also its dictionary entry
+        long repeatedBytes = repeatedValues.estimateBytes();
+        assertTrue(repeatedBytes >= emptyBytes + 3 * 4 * 1000);
+        assertTrue(repeatedBytes < emptyBytes + 3 * 4 * 2000);
+        assertTrue(distinctValues.estimateBytes() > repeatedBytes + 2 * 1000 * 40);
+
+        repeatedValues.clear();
+        assertEquals(0, repeatedValues.size());
+        assertEquals(emptyBytes, repeatedValues.estimateBytes());
+    }
+
+    @Test
+    public void testCsvLinesAreReadOnlyView() {
+        CsvCategorizeAndMerge.CategoryCsvLines lines = new CsvCategorizeAndMerge.CategoryCsvLines("Other", COLUMN_NAMES);
+        lines.addRow(new String[] {"01/02/2024", "", null});
+        List<Map<String, String>> csvLines = lines.getCsvLines();
+
+        assertEquals(1, csvLines.size());
+        Map<String, String> expected = new HashMap<>();
+        expected.put("Date", "01/02/2024");
+        expected.put("Description", "");
+        assertEquals(expected, csvLines.get(0));
+        assertNull(csvLines.get(0).get("Amount"));
+        assertThrows(UnsupportedOperationException.class, () -> csvLines.add(Map.of()));
+        assertThrows(UnsupportedOperationException.class, () -> csvLines.get(0).put("Amount", "1.00"));
+
+        // rows added later show up in the view
+        lines.addRow(new String[] {null, "b", "1.00"});
+        assertEquals(2, csvLines.size());
+        assertEquals("1.00", csvLines.get(1).get("Amount"));
+
+        CsvCategorizeAndMerge.CategoryCsvLines converted =
+                CsvCategorizeAndMerge.CategoryCsvLines.of("Other", COLUMN_NAMES, csvLines);
+        assertEquals(csvLines, converted.getCsvLines());
+        assertEquals("", converted.getValue(0, "Description"));
+        assertNull(converted.getValue(1, "Date"));
+    }
+}
@@ -0,0 +1,90 @@
+package org.leskapaul.csv.benchmark;
+
+import org.leskapaul.csv.CsvCategorizeAndMerge;
+import org.leskapaul.csv.DateTransformerConfig;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Deterministic synthetic configs and csv input for the benchmarks: a Date, Description and Amount column plus
+ * filler columns, with descriptions of which about half match one of the configured category rules.
+ */
+final class BenchmarkData {
+
+    static final int CATEGORY_COUNT = 8;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param columnCount number of configured columns, at least 3
+     * @param ruleCount   number of description regexes, spread over {@value #CATEGORY_COUNT} categories
+     */
+    static CsvCategorizeAndMerge.CsvOrganizerConfig config(int columnCount, int ruleCount) {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config =
+                new CsvCategorizeAndMerge.CsvOrganizerConfig("Date", CsvCategorizeAndMerge.SortType.ASC, "Other");
+        for (String columnName : columnNames(columnCount)) {
+            config.getColumnNameToAliases().put(columnName, new LinkedHashSet<>());
+        }
+        for (int rule = 0; rule < ruleCount; rule++) {
+            // mostly prefix rules like bank export merchant names, with some contains rules
+            String regex = rule % 4 == 3 ? ".*store" + rule + ".*" : "merchant" + rule + " .*";
+            config.getCategoryConfigs().add(new CsvCategorizeAndMerge.CsvOrganizerCategoryConfig(
+                    "Category" + rule % CATEGORY_COUNT, "Description", Set.of(regex)));
+        }
+        config.getColumnNameToDateTransformer().put("Date", new DateTransformerConfig(
+                new LinkedHashSet<>(List.of("yyyy-MM-dd", "MM/dd/yyyy")), "MM/dd/yyyy"));
+        return config;
+    }
+
+    static List<String> columnNames(int columnCount) {
+        List<String> columnNames = new ArrayList<>(List.of("Date", "Description", "Amount"));
+        for (int column = 3; column < columnCount; column++) {
+            columnNames.add("Extra" + column);
+        }
+        return columnNames;
+    }
+
+    /**
+     * @return csv text with a header and {@code rowCount} records
+     */
+    static String csv(int columnCount, int ruleCount, int rowCount) {
+        StringBuilder csv = new StringBuilder(String.join(",", columnNames(columnCount))).append('\n');
+        Random random = new Random(17);
+        String[] row = new String[columnCount];
+        for (int i = 0; i < rowCount; i++) {
+            fillRow(row, ruleCount, random);
+            csv.append(String.join(",", row)).append('\n');
+        }
+        return csv.toString();
+    }
+
+    static void fillRow(String[] row, int ruleCount, Random random) {
+        row[0] = date(random);
+        row[1] = description(ruleCount, random);
+        row[2] = String.format(Locale.ROOT, "-%d.%02d", random.nextInt(500), random.nextInt(100));
+        for (int column = 3; column < row.length; column++) {
+            row[column] = "value" + random.nextInt(100);
+        }
+    }
+
+    static String date(Random random) {
+        int year = 2022 + random.nextInt(3);
+        int month = 1 + random.nextInt(12);
+        int day = 1 + random.nextInt(28);
+        return random.nextBoolean()
+                ? String.format(Locale.ROOT, "%d-%02d-%02d", year, month, day)
+                : String.format(Locale.ROOT, "%02d/%02d/%d", month, day, year);
+    }
+
+    static String description(int ruleCount, Random random) {
+        int merchant = random.nextInt(2 * Math.max(1, ruleCount));
+        return (merchant % 4 == 3 ? "THE STORE" + merchant : "MERCHANT" + merchant) + " #" + random.nextInt(10_000)
+                + " PURCHASE";
+    }
+}
@@ -0,0 +1,64 @@
+package org.leskapaul.csv.benchmark;
+
+import org.leskapaul.csv.CategoryMatcher;
+import org.leskapaul.csv.CsvCategorizeAndMerge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The category lookup behind {@code extractCategory}, per cell value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class CategoryMatcherBenchmark {
+
+    private static final int VALUE_COUNT = 1024;
+
+    @Param({"10", "100", "1000"})
+    public int ruleCount;
+
+    /** 0 runs the rules for every value; otherwise all values fit, so this measures cache hits */
+    @Param({"0", "10000"})
+    public int categoryCacheSize;
+
+    private CategoryMatcher categoryMatcher;
+    private String[] descriptions;
+
+    @Setup
+    public void setUp() {
+        CsvCategorizeAndMerge.CsvOrganizerConfig config = BenchmarkData.config(3, ruleCount);
+        config.setCategoryCacheSize(categoryCacheSize);
+        categoryMatcher = new CategoryMatcher(config);
+        Random random = new Random(5);
+        descriptions = new String[VALUE_COUNT];
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            descriptions[i] = BenchmarkData.description(ruleCount, random);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUE_COUNT)
+    public void findCategory(Blackhole blackhole) {
+        for (String description : descriptions) {
+            blackhole.consume(categoryMatcher.findCategory("Description", description));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.leskapaul.csv.benchmark;
+
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prints the score and normalized allocation of every benchmark in two JMH json result files side by side, with
+ * the relative change, e.g. for results of two commits:
+ * <pre>
+ * java -cp target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     org.leskapaul.csv.benchmark.CompareJmhResults before.json after.json
+ * </pre>
+ */
+public class CompareJmhResults {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("expected two arguments: <baseline result json> <candidate result json>");
+            return;
+        }
+        Map<String, double[]> baseline = load(Path.of(args[0]));
+        Map<String, double[]> candidate = load(Path.of(args[1]));
+        System.out.printf(Locale.ROOT, "%-90s %14s %14s %8s %12s %12s %8s%n", "benchmark", "baseline", "candidate",
+                "change", "B/op before", "B/op after", "change");
+        baseline.forEach((benchmark, baselineScores) -> {
+            double[] candidateScores = candidate.get(benchmark);
+            if (candidateScores == null) {
+                System.out.printf(Locale.ROOT, "%-90s %14.3f %14s%n", benchmark, baselineScores[0], "-");
+                return;
+            }
+            System.out.printf(Locale.ROOT, "%-90s %14.3f %14.3f %+7.1f%% %12.0f %12.0f %+7.1f%%%n", benchmark,
+                    baselineScores[0], candidateScores[0], change(baselineScores[0], candidateScores[0]),
+                    baselineScores[1], candidateScores[1], change(baselineScores[1], candidateScores[1]));
+        });
+        candidate.keySet().stream().filter(benchmark -> !baseline.containsKey(benchmark)).forEach(benchmark ->
+                System.out.printf(Locale.ROOT, "%-90s %14s %14.3f%n", benchmark, "-", candidate.get(benchmark)[0]));
+    }
+
+    private static double change(double before, double after) {
+        return before == 0 ? 0 : (after - before) * 100 / before;
+    }
+
+    /**
+     * @return benchmark name with its parameters, mapped to its score and normalized allocation (or NaN)
+     */
+    private static Map<String, double[]> load(Path resultFile) throws IOException {
+        Map<String, double[]> scores = new LinkedHashMap<>();
+        try (Reader reader = Files.newBufferedReader(resultFile)) {
+            // json is a subset of yaml
+            List<Map<String, Object>> results = new Yaml().load(reader);
+            for (Map<String, Object> result : results) {
+                Map<String, Object> params = (Map<String, Object>) result.get("params");
+                String name = result.get("benchmark") + (params == null ? "" : " " + new TreeMap<>(params));
+                Map<String, Object> primaryMetric = (Map<String, Object>) result.get("primaryMetric");
+                double allocation = Double.NaN;
+                Map<String, Map<String, Object>> secondaryMetrics =
+                        (Map<String, Map<String, Object>>) result.get("secondaryMetrics");
+                if (secondaryMetrics != null) {
+                    for (Map.Entry<String, Map<String, Object>> metric : secondaryMetrics.entrySet()) {
+                        if (metric.getKey().endsWith("alloc.rate.norm")) {
+                            allocation = ((Number) metric.getValue().get("score")).doubleValue();
+                        }
+                    }
+                }
+                scores.put(name, new double[] {((Number) primaryMetric.get("score")).doubleValue(), allocation});
+            }
+        }
+        return scores;
+    }
+}
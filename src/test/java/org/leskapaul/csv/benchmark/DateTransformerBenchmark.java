@@ -0,0 +1,70 @@
+package org.leskapaul.csv.benchmark;
+
+import org.leskapaul.csv.DateTransformer;
+import org.leskapaul.csv.DateTransformerConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The date transformation behind {@code transformCellValue}, per cell value. {@code distinctValues} above the
+ * transformer's cache size measures parsing rather than cache hits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class DateTransformerBenchmark {
+
+    private static final int VALUE_COUNT = 1024;
+
+    @Param({"1000", "100000"})
+    public int distinctValues;
+
+    private DateTransformer dateTransformer;
+    private String[] values;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(11);
+        values = new String[distinctValues];
+        for (int i = 0; i < distinctValues; i++) {
+            // a time suffix makes values distinct beyond the few thousand possible dates
+            values[i] = BenchmarkData.date(random) + (i < 2000 ? "" : " " + i);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void newTransformer() {
+        dateTransformer = new DateTransformerConfig(
+                new LinkedHashSet<>(List.of("yyyy-MM-dd", "MM/dd/yyyy")), "MM/dd/yyyy").compile();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUE_COUNT)
+    public void transform(Blackhole blackhole) {
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            blackhole.consume(dateTransformer.transform(values[next]));
+            next = next + 1 == values.length ? 0 : next + 1;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.leskapaul.csv.benchmark;
+
+import org.leskapaul.csv.CsvCategorizeAndMergeCli;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs {@link CsvCategorizeAndMergeCli} end to end on a directory written by {@link TransactionExportGenerator}
+ * and reports rows/sec, peak heap and gc time. Arguments after the directory are passed on to the CLI, e.g.
+ * <pre>
+ * java -Xmx1g -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     org.leskapaul.csv.benchmark.LoadTest /tmp/load-test --threads=4 --memory-budget=256m
+ * </pre>
+ * Output goes to {@code output.csv} in the directory unless {@code --output} is given. Logging is limited to
+ * warnings unless a log4j configuration is set explicitly.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("expected a directory written by TransactionExportGenerator, then any cli options");
+            return;
+        }
+        // before anything initializes log4j: the default config logs every row at debug level
+        if (System.getProperty("log4j.configurationFile") == null) {
+            System.setProperty("log4j.configurationFile", "log4j2-benchmark.xml");
+        }
+        Path directory = Path.of(args[0]);
+        List<String> cliArgs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            cliArgs.add(args[i]);
+        }
+        if (cliArgs.stream().noneMatch(arg -> arg.startsWith("--output="))) {
+            cliArgs.add("--output=" + directory.resolve("output.csv"));
+        }
+        cliArgs.add(directory.resolve(TransactionExportGenerator.CONFIG_FILE).toString());
+        List<Path> csvFiles;
+        try (Stream<Path> files = Files.list(directory)) {
+            csvFiles = files.filter(file -> file.getFileName().toString().startsWith("export-")).sorted()
+                    .collect(Collectors.toList());
+        }
+        csvFiles.forEach(csvFile -> cliArgs.add(csvFile.toString()));
+        long inputBytes = 0;
+        for (Path csvFile : csvFiles) {
+            inputBytes += Files.size(csvFile);
+        }
+
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP).collect(Collectors.toList());
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long gcTimeBefore = gcTime();
+        long gcCountBefore = gcCount();
+        long start = System.nanoTime();
+
+        CsvCategorizeAndMergeCli.main(cliArgs.toArray(new String[0]));
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // the sum of the pools' peaks, which may have been reached at different times, so an upper bound
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        long rows = readRowCount(directory);
+
+        System.out.printf(Locale.ROOT, "input:     %d files, %,d bytes%s%n", csvFiles.size(), inputBytes,
+                rows < 0 ? "" : String.format(Locale.ROOT, ", %,d rows", rows));
+        System.out.printf(Locale.ROOT, "time:      %.2f s, %.1f MB/s%s%n", seconds, inputBytes / seconds / 1e6,
+                rows < 0 ? "" : String.format(Locale.ROOT, ", %,.0f rows/s", rows / seconds));
+        System.out.printf(Locale.ROOT, "peak heap: %,d MB of %,d MB max%n", peakHeap >> 20,
+                Runtime.getRuntime().maxMemory() >> 20);
+        System.out.printf(Locale.ROOT, "gc:        %d collections, %,d ms%n", gcCount() - gcCountBefore,
+                gcTime() - gcTimeBefore);
+    }
+
+    private static long readRowCount(Path directory) throws IOException {
+        Path propertiesFile = directory.resolve(TransactionExportGenerator.PROPERTIES_FILE);
+        if (!Files.exists(propertiesFile)) {
+            return -1;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(propertiesFile)) {
+            properties.load(reader);
+        }
+        return Long.parseLong(properties.getProperty("rows", "-1"));
+    }
+
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(time -> time > 0).sum();
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(count -> count > 0).sum();
+    }
+}
@@ -0,0 +1,66 @@
+package org.leskapaul.csv.benchmark;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.leskapaul.csv.CompiledCsvOrganizerConfig;
+import org.leskapaul.csv.CsvCategorizeAndMerge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end {@code organizeCsvLines} over csv text held in memory: parsing, {@code categorizeCsvLine} for every
+ * record (binding, category lookup and date transformation), merging and sorting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class OrganizeBenchmark {
+
+    @Param({"100000"})
+    public int rowCount;
+
+    @Param({"10", "100"})
+    public int ruleCount;
+
+    @Param({"3", "10"})
+    public int columnCount;
+
+    private String csv;
+    private CompiledCsvOrganizerConfig compiledConfig;
+    private CsvCategorizeAndMerge csvCategorizeAndMerge;
+
+    @Setup
+    public void setUp() {
+        csv = BenchmarkData.csv(columnCount, ruleCount, rowCount);
+        compiledConfig = new CompiledCsvOrganizerConfig(BenchmarkData.config(columnCount, ruleCount));
+        csvCategorizeAndMerge = new CsvCategorizeAndMerge();
+    }
+
+    @Benchmark
+    public List<CsvCategorizeAndMerge.CategoryCsvLines> organizeCsvLines() throws IOException {
+        CSVParser csvParser = CSVParser.parse(new StringReader(csv), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+        return csvCategorizeAndMerge.organizeCsvLines(List.of(csvParser), compiledConfig);
+    }
+
+    @Benchmark
+    public CompiledCsvOrganizerConfig compileConfig() {
+        return new CompiledCsvOrganizerConfig(compiledConfig.getConfig());
+    }
+}
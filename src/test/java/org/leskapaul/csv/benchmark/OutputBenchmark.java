@@ -0,0 +1,111 @@
+package org.leskapaul.csv.benchmark;
+
+import org.leskapaul.csv.CsvCategorizeAndMerge;
+import org.leskapaul.csv.CsvResultWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares writing organized output through {@link CsvResultWriter} with the previous printCsv path, which built
+ * the whole result in one StringBuilder and handed the resulting string to the logger. Reports wall-clock time and
+ * bytes allocated by the writing thread, e.g.
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     org.leskapaul.csv.benchmark.OutputBenchmark 2000000
+ * </pre>
+ */
+public class OutputBenchmark {
+
+    private static final List<String> COLUMN_NAMES = List.of("Date", "Description", "Amount");
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<CsvCategorizeAndMerge.CategoryCsvLines> lines = buildLines(rowCount);
+        Path outputFile = Files.createTempFile("output-benchmark", ".csv");
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                report("StringBuilder", rowCount, () -> writeWithStringBuilder(lines, outputFile));
+                report("CsvResultWriter", rowCount, () -> writeWithCsvResultWriter(lines, outputFile));
+            }
+        } finally {
+            Files.deleteIfExists(outputFile);
+        }
+    }
+
+    private static void writeWithStringBuilder(List<CsvCategorizeAndMerge.CategoryCsvLines> lines, Path outputFile)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        COLUMN_NAMES.forEach(columnName -> {
+            if (sb.length() > 0) { sb.append(", "); }
+            sb.append(columnName);
+        });
+        sb.append('\n');
+        for (CsvCategorizeAndMerge.CategoryCsvLines categoryCsvLines : lines) {
+            for (int row = 0; row < categoryCsvLines.size(); row++) {
+                StringBuilder sbForRow = new StringBuilder();
+                for (String columnName : COLUMN_NAMES) {
+                    String cellValue = categoryCsvLines.getValue(row, columnName);
+                    if (sbForRow.length() > 0) { sbForRow.append(", "); }
+                    sbForRow.append(cellValue == null ? "" : cellValue);
+                }
+                sb.append(sbForRow).append('\n');
+            }
+            sb.append('\n');
+        }
+        // the logger received the fully built message
+        try (Writer writer = Files.newBufferedWriter(outputFile)) {
+            writer.write("csv result ->\n" + sb);
+        }
+    }
+
+    private static void writeWithCsvResultWriter(List<CsvCategorizeAndMerge.CategoryCsvLines> lines, Path outputFile)
+            throws IOException {
+        try (CsvResultWriter csvResultWriter = CsvResultWriter.toFile(outputFile, COLUMN_NAMES)) {
+            csvResultWriter.writeHeader();
+            lines.forEach(csvResultWriter::writeCategory);
+        }
+    }
+
+    private static List<CsvCategorizeAndMerge.CategoryCsvLines> buildLines(int rowCount) {
+        Random random = new Random(1);
+        List<CsvCategorizeAndMerge.CategoryCsvLines> lines = new ArrayList<>();
+        for (int category = 0; category < 8; category++) {
+            lines.add(new CsvCategorizeAndMerge.CategoryCsvLines("Category" + category, COLUMN_NAMES));
+        }
+        for (int i = 0; i < rowCount; i++) {
+            lines.get(random.nextInt(lines.size())).addRow(new String[] {
+                    String.format(Locale.ROOT, "%02d/%02d/2024", 1 + random.nextInt(12), 1 + random.nextInt(28)),
+                    "MERCHANT #" + random.nextInt(5000) + ", PURCHASE",
+                    String.format(Locale.ROOT, "-%d.%02d", random.nextInt(300), random.nextInt(100))
+            });
+        }
+        return lines;
+    }
+
+    private static void report(String name, int rowCount, IoTask task) throws IOException {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        task.run();
+        long elapsedNanos = System.nanoTime() - start;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf(Locale.ROOT, "%-16s rows=%d time=%dms allocated=%,d bytes (%.1f bytes/row)%n",
+                name, rowCount, elapsedNanos / 1_000_000, allocated, (double) allocated / rowCount);
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,66 @@
+package org.leskapaul.csv.benchmark;
+
+import org.leskapaul.csv.CsvCategorizeAndMerge;
+import org.leskapaul.csv.CsvResultWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing organized categories as csv (formerly {@code printCsv}) to a writer that discards its output.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class PrintBenchmark {
+
+    @Param({"100000"})
+    public int rowCount;
+
+    @Param({"3", "10"})
+    public int columnCount;
+
+    private List<String> columnNames;
+    private List<CsvCategorizeAndMerge.CategoryCsvLines> lines;
+
+    @Setup
+    public void setUp() {
+        columnNames = BenchmarkData.columnNames(columnCount);
+        lines = new ArrayList<>();
+        for (int category = 0; category < BenchmarkData.CATEGORY_COUNT; category++) {
+            lines.add(new CsvCategorizeAndMerge.CategoryCsvLines("Category" + category, columnNames));
+        }
+        Random random = new Random(9);
+        String[] row = new String[columnCount];
+        for (int i = 0; i < rowCount; i++) {
+            BenchmarkData.fillRow(row, 10, random);
+            lines.get(random.nextInt(lines.size())).addRow(row);
+        }
+    }
+
+    @Benchmark
+    public void writeCategories() throws IOException {
+        try (CsvResultWriter csvResultWriter = new CsvResultWriter(Writer.nullWriter(), columnNames)) {
+            csvResultWriter.writeHeader();
+            lines.forEach(csvResultWriter::writeCategory);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.leskapaul.csv.benchmark;
+
+import org.leskapaul.csv.CsvCategorizeAndMerge;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the retained heap per row of {@link CsvCategorizeAndMerge.CategoryCsvLines} against the previous
+ * representation (a {@code HashMap<String,String>} per row). Run it with a fixed heap for stable numbers, e.g.
+ * <pre>
+ * mvn test-compile
+ * java -Xmx2g -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     org.leskapaul.csv.benchmark.RowStoreMemoryBenchmark 1000000
+ * </pre>
+ */
+public class RowStoreMemoryBenchmark {
+
+    private static final List<String> COLUMN_NAMES = List.of("Date", "Description", "Amount");
+
+    // keeps the measured structure reachable across the gc that follows it
+    private static volatile Object retained;
+
+    public static void main(String[] args) {
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+
+        long mapBytes = measure(() -> buildMapRows(rowCount));
+        long storeBytes = measure(() -> buildRowStore(rowCount));
+
+        System.out.printf(Locale.ROOT, "rows=%d%n", rowCount);
+        System.out.printf(Locale.ROOT, "List<Map<String,String>>: %,d bytes total, %.1f bytes/row%n",
+                mapBytes, (double) mapBytes / rowCount);
+        System.out.printf(Locale.ROOT, "CategoryCsvLines:         %,d bytes total, %.1f bytes/row%n",
+                storeBytes, (double) storeBytes / rowCount);
+    }
+
+    private static List<Map<String, String>> buildMapRows(int rowCount) {
+        Random random = new Random(1);
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < rowCount; i++) {
+            String[] values = nextRow(random);
+            Map<String, String> row = new HashMap<>();
+            for (int column = 0; column < values.length; column++) {
+                row.put(COLUMN_NAMES.get(column), values[column]);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static CsvCategorizeAndMerge.CategoryCsvLines buildRowStore(int rowCount) {
+        Random random = new Random(1);
+        CsvCategorizeAndMerge.CategoryCsvLines lines = new CsvCategorizeAndMerge.CategoryCsvLines("Groceries", COLUMN_NAMES);
+        for (int i = 0; i < rowCount; i++) {
+            lines.addRow(nextRow(random));
+        }
+        return lines;
+    }
+
+    /**
+     * Values are created as new strings, as a csv parser would, so duplicates are not shared by accident.
+     */
+    private static String[] nextRow(Random random) {
+        return new String[] {
+                new String(String.format(Locale.ROOT, "%02d/%02d/2024", 1 + random.nextInt(12), 1 + random.nextInt(28))),
+                new String("MERCHANT #" + random.nextInt(2000) + " PURCHASE"),
+                new String(String.format(Locale.ROOT, "-%d.%02d", random.nextInt(300), random.nextInt(100)))
+        };
+    }
+
+    private static long measure(Supplier<Object> builder) {
+        long before = usedHeap();
+        retained = builder.get();
+        long after = usedHeap();
+        retained = null;
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,83 @@
+package org.leskapaul.csv.benchmark;
+
+import org.leskapaul.csv.CompiledCsvOrganizerConfig;
+import org.leskapaul.csv.CsvCategorizeAndMerge;
+import org.leskapaul.csv.RowSorter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting a category by its date column (formerly {@code sortCategoryCsvLines}), for input in random order and
+ * for concatenated exports that are each sorted newest first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class SortBenchmark {
+
+    @Param({"100000"})
+    public int rowCount;
+
+    @Param({"3", "10"})
+    public int columnCount;
+
+    @Param({"RANDOM", "EXPORTS"})
+    public String order;
+
+    private RowSorter rowSorter;
+    private CompiledCsvOrganizerConfig compiledConfig;
+    private List<String[]> rows;
+    private CsvCategorizeAndMerge.CategoryCsvLines lines;
+
+    @Setup
+    public void setUp() {
+        compiledConfig = new CompiledCsvOrganizerConfig(BenchmarkData.config(columnCount, 10));
+        rowSorter = compiledConfig.getRowSorter();
+        Random random = new Random(3);
+        rows = new ArrayList<>();
+        for (int i = 0; i < rowCount; i++) {
+            String[] row = new String[columnCount];
+            BenchmarkData.fillRow(row, 10, random);
+            row[0] = compiledConfig.getDateTransformer(0).transform(row[0]);
+            rows.add(row);
+        }
+        if ("EXPORTS".equals(order)) {
+            // four exports, each newest first
+            int exportSize = rowCount / 4 + 1;
+            for (int from = 0; from < rowCount; from += exportSize) {
+                List<String[]> export = rows.subList(from, Math.min(rowCount, from + exportSize));
+                export.sort(rowSorter.rowComparator().reversed());
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void unsortedLines() {
+        lines = new CsvCategorizeAndMerge.CategoryCsvLines("Other", compiledConfig.getColumnNames());
+        rows.forEach(lines::addRow);
+    }
+
+    @Benchmark
+    public CsvCategorizeAndMerge.CategoryCsvLines sort() {
+        rowSorter.sort(lines);
+        return lines;
+    }
+}
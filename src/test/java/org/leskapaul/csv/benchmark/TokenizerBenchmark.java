@@ -0,0 +1,68 @@
+package org.leskapaul.csv.benchmark;
+
+import org.apache.commons.csv.CSVFormat;
+import org.leskapaul.csv.CompiledCsvOrganizerConfig;
+import org.leskapaul.csv.CsvCategorizeAndMerge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end {@code organizeCsvFiles} over a csv file read by commons-csv or by the byte tokenizer. The file has
+ * more columns than the config binds, like bank exports with a running balance and the bank's own category.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+
+    @Param({"200000"})
+    public int rowCount;
+
+    @Param({"3", "10"})
+    public int fileColumnCount;
+
+    @Param({"false", "true"})
+    public boolean byteTokenizer;
+
+    private Path csvFile;
+    private CompiledCsvOrganizerConfig compiledConfig;
+    private CsvCategorizeAndMerge csvCategorizeAndMerge;
+
+    @Setup
+    public void setUp() throws IOException {
+        csvFile = Files.createTempFile("tokenizer-benchmark", ".csv");
+        Files.writeString(csvFile, BenchmarkData.csv(fileColumnCount, 10, rowCount));
+        compiledConfig = new CompiledCsvOrganizerConfig(BenchmarkData.config(3, 10));
+        csvCategorizeAndMerge = CsvCategorizeAndMerge.builder().byteTokenizer(byteTokenizer).build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(csvFile);
+    }
+
+    @Benchmark
+    public List<CsvCategorizeAndMerge.CategoryCsvLines> organizeCsvFiles() {
+        return csvCategorizeAndMerge.organizeCsvFiles(List.of(csvFile), CSVFormat.DEFAULT.withFirstRecordAsHeader(),
+                compiledConfig);
+    }
+}
@@ -0,0 +1,164 @@
+package org.leskapaul.csv.benchmark;
+
+import org.leskapaul.csv.CliOptions;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes synthetic bank transaction exports and a matching config for load tests. Files alternate between the two
+ * layouts the tool is used with:
+ * <ul>
+ *     <li>{@code date, transaction, category, amount} with leading spaces, MM/dd/yyyy dates and amounts like
+ *     "-$69.95"</li>
+ *     <li>{@code Date,Description,Amount,Running Bal.} with quoted fields (some containing commas and quotes),
+ *     yyyy-MM-dd dates and balances like "21,785.72"</li>
+ * </ul>
+ * Each file is sorted newest or oldest first, like real exports. About {@code --hit-rate} of the descriptions match
+ * one of the {@code --rules} configured regexes. Usage:
+ * <pre>
+ * java -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     org.leskapaul.csv.benchmark.TransactionExportGenerator --rows=1000000 --files=4 --rules=200 --hit-rate=0.8 \
+ *     /tmp/load-test
+ * </pre>
+ * writes {@code export-0.csv ...}, {@code config.yaml} and {@code generated.properties} (the row count) to the
+ * directory.
+ */
+public class TransactionExportGenerator {
+
+    static final String CONFIG_FILE = "config.yaml";
+    static final String PROPERTIES_FILE = "generated.properties";
+
+    private static final String[] CATEGORIES = {"Groceries", "Utilities", "Data", "Dining", "Travel", "Home",
+            "Health", "Entertainment", "Insurance", "Transfers"};
+    private static final String[] UNMATCHED = {"Freepeople.com #", "Corner deli ", "Parking meter ", "Etsy order ",
+            "Venmo payment ", "Hardware & supply, inc. #"};
+
+    public static void main(String[] args) throws IOException {
+        CliOptions cliOptions = CliOptions.parse(args);
+        if (cliOptions.getPositionalArgs().size() != 1) {
+            System.err.println("expected the output directory as the only positional argument");
+            return;
+        }
+        Path outputDirectory = Path.of(cliOptions.getPositionalArgs().get(0));
+        long rowCount = Long.parseLong(cliOptions.get("rows", "1000000"));
+        int fileCount = cliOptions.getInt("files", 4);
+        int ruleCount = cliOptions.getInt("rules", 100);
+        double hitRate = Double.parseDouble(cliOptions.get("hit-rate", "0.8"));
+        long seed = Long.parseLong(cliOptions.get("seed", "1"));
+
+        generate(outputDirectory, rowCount, fileCount, ruleCount, hitRate, seed);
+        System.out.printf(Locale.ROOT, "wrote %d rows in %d files to %s%n", rowCount, fileCount, outputDirectory);
+    }
+
+    static void generate(Path outputDirectory, long rowCount, int fileCount, int ruleCount, double hitRate,
+                         long seed) throws IOException {
+        Files.createDirectories(outputDirectory);
+        writeConfig(outputDirectory.resolve(CONFIG_FILE), ruleCount);
+        Random random = new Random(seed);
+        for (int file = 0; file < fileCount; file++) {
+            long fileRows = rowCount / fileCount + (file < rowCount % fileCount ? 1 : 0);
+            try (Writer writer = Files.newBufferedWriter(outputDirectory.resolve("export-" + file + ".csv"),
+                    StandardCharsets.UTF_8)) {
+                writeExport(writer, file % 2 == 0, fileRows, ruleCount, hitRate, random);
+            }
+        }
+        Files.writeString(outputDirectory.resolve(PROPERTIES_FILE), "rows=" + rowCount + "\n");
+    }
+
+    private static void writeExport(Writer writer, boolean layoutA, long rowCount, int ruleCount, double hitRate,
+                                    Random random) throws IOException {
+        writer.write(layoutA ? "date, transaction, category, amount\n" : "Date,Description,Amount,Running Bal.\n");
+        boolean newestFirst = random.nextBoolean();
+        // a file spans about three years, however many rows it has
+        long rowsPerDay = Math.max(1, rowCount / 1000);
+        long day = 19_000 + random.nextInt(365);
+        long balanceCents = 1_000_000;
+        StringBuilder line = new StringBuilder();
+        for (long row = 0; row < rowCount; row++) {
+            if (random.nextLong() % rowsPerDay == 0) {
+                day += newestFirst ? -1 : 1;
+            }
+            LocalDate date = LocalDate.ofEpochDay(day);
+            String description = description(ruleCount, hitRate, random);
+            long amountCents = -random.nextInt(50_000) + (random.nextInt(20) == 0 ? 250_000 : 0);
+            balanceCents += amountCents;
+            line.setLength(0);
+            if (layoutA) {
+                line.append(String.format(Locale.ROOT, " %02d/%02d/%d,", date.getMonthValue(), date.getDayOfMonth(),
+                        date.getYear()));
+                // a quote only opens a quoted field at the very start of the field, so no leading space then
+                line.append(needsQuotes(description) ? quote(description) : " " + description).append(", ")
+                        .append(CATEGORIES[random.nextInt(CATEGORIES.length)]).append(", ")
+                        .append(amountCents < 0 ? "-$" : "$").append(formatCents(Math.abs(amountCents)));
+            } else {
+                line.append(date).append(',').append(quote(description)).append(",\"")
+                        .append(amountCents < 0 ? "-" : "").append(formatCents(Math.abs(amountCents))).append("\",\"")
+                        .append(String.format(Locale.ROOT, "%,d.%02d", balanceCents / 100, Math.abs(balanceCents % 100)))
+                        .append('"');
+            }
+            writer.append(line).append('\n');
+        }
+    }
+
+    private static String description(int ruleCount, double hitRate, Random random) {
+        if (ruleCount > 0 && random.nextDouble() < hitRate) {
+            int rule = random.nextInt(ruleCount);
+            return "MERCHANT" + rule + " #" + random.nextInt(10_000) + " PURCHASE";
+        }
+        String unmatched = UNMATCHED[random.nextInt(UNMATCHED.length)] + random.nextInt(10_000);
+        return random.nextInt(10) == 0 ? unmatched + " \"online\"" : unmatched;
+    }
+
+    private static boolean needsQuotes(String value) {
+        return value.indexOf(',') >= 0 || value.indexOf('"') >= 0;
+    }
+
+    private static String quote(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String formatCents(long cents) {
+        return String.format(Locale.ROOT, "%d.%02d", cents / 100, cents % 100);
+    }
+
+    private static void writeConfig(Path configFile, int ruleCount) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(configFile, StandardCharsets.UTF_8)) {
+            writer.write("sortType: ASC\n");
+            writer.write("sortColumnName: Date\n");
+            writer.write("defaultCategoryName: Discretionary\n");
+            writer.write("columnNameToAliases:\n");
+            writer.write("  - Date\n");
+            writer.write("  - Description:\n");
+            writer.write("      - transaction\n");
+            writer.write("  - Amount\n");
+            writer.write("columnNameToCategoryConfig:\n");
+            writer.write("  - Description:\n");
+            for (int category = 0; category < CATEGORIES.length && category < ruleCount; category++) {
+                writer.write("      - category: " + CATEGORIES[category] + "\n");
+                writer.write("        regexes:\n");
+                for (int rule = category; rule < ruleCount; rule += CATEGORIES.length) {
+                    writer.write("          - \"merchant" + rule + " .*\"\n");
+                }
+            }
+            writer.write("columnNameToTransformer:\n");
+            writer.write("  - Date:\n");
+            writer.write("      dateTransformer:\n");
+            writer.write("        inputFormats:\n");
+            writer.write("          - \"yyyy-MM-dd\"\n");
+            writer.write("          - \"MM/dd/yyyy\"\n");
+            writer.write("        outputFormat: \"MM/dd/yyyy\"\n");
+            writer.write("aggregations:\n");
+            writer.write("  - name: Total\n");
+            writer.write("    function: SUM\n");
+            writer.write("    columnName: Amount\n");
+        }
+    }
+}